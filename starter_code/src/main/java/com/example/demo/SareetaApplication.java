@@ -1,5 +1,6 @@
 package com.example.demo;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.domain.EntityScan;
@@ -10,6 +11,8 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 
+import com.example.demo.security.AdaptiveBCryptPasswordEncoder;
+
 @EnableJpaRepositories("com.example.demo.model.persistence.repositories")
 @EntityScan("com.example.demo.model.persistence")
 @SpringBootApplication(exclude = {SecurityAutoConfiguration.class})
@@ -25,8 +28,15 @@ public class SareetaApplication extends SpringBootServletInitializer {
 	}
 
 	@Bean
-	BCryptPasswordEncoder bCryptPasswordEncoder() {
-		return new BCryptPasswordEncoder();
+	BCryptPasswordEncoder bCryptPasswordEncoder(@Value("${security.bcrypt.strength:0}") int strength,
+												@Value("${security.bcrypt.target-millis:100}") long targetMillis,
+												@Value("${security.bcrypt.min-strength:10}") int minStrength,
+												@Value("${security.bcrypt.max-strength:14}") int maxStrength) {
+		// a fixed strength skips the calibration
+		if (strength <= 0) {
+			strength = AdaptiveBCryptPasswordEncoder.calibrate(targetMillis, minStrength, maxStrength);
+		}
+		return new AdaptiveBCryptPasswordEncoder(strength);
 	}
 
 }
@@ -0,0 +1,164 @@
+package com.example.demo.cache;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Bounded, concurrent cache whose entries expire at an absolute point in time.
+ * When a put takes the cache over its bound, expired entries are purged first and then an arbitrary
+ * slice of the remaining entries, never the one just put, is dropped, so the scan cost is amortized over many puts.
+ * Every put waits until the cache is within its bound again.
+ */
+public class ExpiringCache<K, V> {
+
+    private final ConcurrentHashMap<K, Entry<V>> entries;
+    private final int maximumSize;
+    private final int evictionBatchSize;
+    private final ReentrantLock evicting = new ReentrantLock();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ExpiringCache(String name, int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be positive");
+        }
+        this.maximumSize = maximumSize;
+        this.evictionBatchSize = Math.max(1, maximumSize / 16);
+        this.entries = new ConcurrentHashMap<>(Math.min(maximumSize, 1024));
+
+        FunctionCounter.builder("cache.gets", hits, LongAdder::doubleValue)
+                .tags("cache", name, "result", "hit")
+                .register(Metrics.globalRegistry);
+        FunctionCounter.builder("cache.gets", misses, LongAdder::doubleValue)
+                .tags("cache", name, "result", "miss")
+                .register(Metrics.globalRegistry);
+        FunctionCounter.builder("cache.evictions", evictions, LongAdder::doubleValue)
+                .tags("cache", name)
+                .register(Metrics.globalRegistry);
+        Gauge.builder("cache.size", entries, Map::size)
+                .tags("cache", name)
+                .register(Metrics.globalRegistry);
+    }
+
+    public V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (entry.isExpired(System.currentTimeMillis())) {
+            if (entries.remove(key, entry)) {
+                evictions.increment();
+            }
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.value;
+    }
+
+    public void put(K key, V value, long expiresAtMillis) {
+        entries.put(key, new Entry<>(value, expiresAtMillis));
+        bound(key);
+    }
+
+    /**
+     * @return {@code true} if the key had no entry, or only an expired one, and now holds the value
+     */
+    public boolean putIfAbsent(K key, V value, long expiresAtMillis) {
+        Entry<V> entry = new Entry<>(value, expiresAtMillis);
+        long now = System.currentTimeMillis();
+        Entry<V> current;
+        while ((current = entries.putIfAbsent(key, entry)) != null) {
+            if (!current.isExpired(now)) {
+                return false;
+            }
+            if (entries.replace(key, current, entry)) {
+                evictions.increment();
+                return true;
+            }
+        }
+        bound(key);
+        return true;
+    }
+
+    public void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    // checked after the insert, so puts racing past a check before it cannot leave the cache over its bound
+    private void bound(K added) {
+        while (entries.size() > maximumSize) {
+            evict(added);
+        }
+    }
+
+    private void evict(K added) {
+        // one thread scans at a time, the others wait for it and find the cache within its bound
+        evicting.lock();
+        try {
+            if (entries.size() <= maximumSize) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            int target = maximumSize - evictionBatchSize;
+            for (Iterator<Entry<V>> it = entries.values().iterator(); it.hasNext(); ) {
+                if (it.next().isExpired(now)) {
+                    it.remove();
+                    evictions.increment();
+                }
+            }
+            for (Iterator<K> it = entries.keySet().iterator(); it.hasNext() && entries.size() > target; ) {
+                if (!it.next().equals(added)) {
+                    it.remove();
+                    evictions.increment();
+                }
+            }
+        } finally {
+            evicting.unlock();
+        }
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long expiresAtMillis;
+
+        private Entry(V value, long expiresAtMillis) {
+            this.value = value;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+
+        private boolean isExpired(long now) {
+            return expiresAtMillis <= now;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.demo.controllers;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import com.example.demo.model.persistence.User;
+import com.example.demo.model.persistence.repositories.UserRepository;
+import com.example.demo.security.AuthenticatedUser;
+import com.example.demo.security.SecurityConstants;
+import com.example.demo.security.TokenService;
+
+@RestController
+@RequestMapping("/api/auth")
+public class AuthController {
+
+	private final Logger logger = LoggerFactory.getLogger(AuthController.class);
+
+	@Autowired
+	private TokenService tokenService;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	/**
+	 * A new access token with the ids the user has now, the cart may have been created since the login.
+	 */
+	@PostMapping("/refresh")
+	public ResponseEntity<Void> refresh(@RequestHeader(SecurityConstants.REFRESH_HEADER_STRING) String refreshToken) {
+		DecodedJWT jwt;
+		try {
+			jwt = tokenService.verifyRefreshToken(refreshToken);
+		} catch (JWTVerificationException e) {
+			logger.warn("Access token could not be refreshed: {}", e.getMessage());
+			return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+		}
+
+		AuthenticatedUser principal = tokenService.principalOf(jwt);
+		User user = principal.getUserId() != null ? userRepository.findWithCartById(principal.getUserId()).orElse(null)
+				: userRepository.findByUsername(principal.getUsername());
+		if (user == null || !user.getUsername().equals(principal.getUsername())) {
+			logger.warn("Access token could not be refreshed, user={} no longer exists", principal.getUsername());
+			return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+		}
+
+		logger.info("Access token refreshed for user={}", jwt.getSubject());
+
+		AuthenticatedUser current = new AuthenticatedUser(user.getUsername(), "", user.getId(),
+				user.getCart() == null ? null : user.getCart().getId());
+		return ResponseEntity.ok()
+				.header(SecurityConstants.HEADER_STRING,
+						SecurityConstants.TOKEN_PREFIX + tokenService.issueAccessToken(current))
+				.build();
+	}
+
+	@PostMapping("/revoke")
+	public ResponseEntity<Void> revoke(@RequestHeader(SecurityConstants.REFRESH_HEADER_STRING) String refreshToken) {
+		try {
+			tokenService.revoke(tokenService.verifyRefreshToken(refreshToken));
+		} catch (JWTVerificationException e) {
+			logger.warn("Refresh token could not be revoked: {}", e.getMessage());
+			return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+		}
+		return ResponseEntity.ok().build();
+	}
+
+}
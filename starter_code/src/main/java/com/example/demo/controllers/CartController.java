@@ -1,45 +1,116 @@
 package com.example.demo.controllers;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.stream.IntStream;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.example.demo.model.persistence.Cart;
 import com.example.demo.model.persistence.Item;
+import com.example.demo.model.persistence.Money;
 import com.example.demo.model.persistence.User;
-import com.example.demo.model.persistence.repositories.CartRepository;
 import com.example.demo.model.persistence.repositories.ItemRepository;
-import com.example.demo.model.persistence.repositories.UserRepository;
 import com.example.demo.model.requests.ModifyCartRequest;
+import com.example.demo.model.responses.CartDelta;
+import com.example.demo.security.UserContext;
+import com.example.demo.service.CartProvisioner;
+import com.example.demo.service.CartStore;
 
 @RestController
 @RequestMapping("/api/cart")
 public class CartController {
 
+	static final int MAX_BATCH_SIZE = 100;
+
+	/**
+	 * Accepted instead of JSON, or requested with {@code ?delta=true}, to get a {@link CartDelta} back instead of the whole cart.
+	 */
+	public static final MediaType DELTA_MEDIA_TYPE = MediaType.valueOf("application/vnd.cart-delta+json");
+
 	private final Logger logger = LoggerFactory.getLogger(CartController.class);
 	
 	@Autowired
-	private UserRepository userRepository;
+	private UserContext userContext;
+	
+	@Autowired
+	private CartStore cartStore;
 	
 	@Autowired
-	private CartRepository cartRepository;
+	private CartProvisioner cartProvisioner;
 	
 	@Autowired
 	private ItemRepository itemRepository;
 	
+	/**
+	 * The cart with its version as ETag. A client that still holds that version gets a 304,
+	 * which only needed the version and not the lines.
+	 */
+	@GetMapping("/{username}")
+	public ResponseEntity<Cart> getCart(@PathVariable String username, @RequestHeader HttpHeaders headers) {
+		Long cartId = userContext.getCartId(username);
+		if (cartId == null) {
+			User user = userContext.getUser(username);
+			if(user == null) {
+				logger.warn("User not found with username {}", username);
+				return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+			}
+			// the cart is only created with the first change
+			Cart empty = new Cart(null, null, user, Money.ZERO);
+			return ResponseEntity.ok()
+					.eTag(eTag(empty.getVersion()))
+					.cacheControl(CacheControl.noCache().cachePrivate())
+					.body(empty);
+		}
+		// without a tag to compare the version would only be read twice
+		List<String> ifNoneMatch = headers.getIfNoneMatch();
+		if (!ifNoneMatch.isEmpty()) {
+			String eTag = eTag(cartStore.getVersion(cartId));
+			if (matches(ifNoneMatch, eTag)) {
+				return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+						.eTag(eTag)
+						.cacheControl(CacheControl.noCache().cachePrivate())
+						.build();
+			}
+		}
+		Cart cart = cartStore.get(cartId);
+		// the version may have moved on since the check, the tag has to match the body
+		return ResponseEntity.ok()
+				.eTag(eTag(cart.getVersion()))
+				.cacheControl(CacheControl.noCache().cachePrivate())
+				.body(cart);
+	}
+
 	@PostMapping("/addToCart")
-	public ResponseEntity<Cart> addTocart(@RequestBody ModifyCartRequest request) {
-		User user = userRepository.findByUsername(request.getUsername());
-		if(user == null) {
+	public ResponseEntity<?> addTocart(@RequestBody ModifyCartRequest request,
+			@RequestParam(defaultValue = "false") boolean delta, @RequestHeader HttpHeaders headers) {
+		if (request.getQuantity() < 0) {
+			logger.warn("Cart change rejected, quantity={} is negative", request.getQuantity());
+			return ResponseEntity.badRequest().build();
+		}
+		if(userContext.getUserId(request.getUsername()) == null) {
 			logger.warn("User not found with username {}", request.getUsername());
 			return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
 		}
@@ -48,21 +119,25 @@ public class CartController {
 			logger.warn("Item not found with id {}", request.getItemId());
 			return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
 		}
-		Cart cart = user.getCart();
-		IntStream.range(0, request.getQuantity())
-			.forEach(i -> cart.addItem(item.get()));
-		Cart managedCart = cartRepository.save(cart);
+		Cart managedCart = cartStore.update(cartIdOf(request.getUsername()), cart -> {
+			cart.addItem(item.get(), request.getQuantity());
+			return cart;
+		});
 
 		logger.info("item={} added times={} to the cart of user={}",
-				item.get().getId(), request.getQuantity(), user.getUsername());
+				item.get().getId(), request.getQuantity(), request.getUsername());
 
-		return ResponseEntity.ok(managedCart);
+		return respond(managedCart, Collections.singleton(request.getItemId()), delta, headers);
 	}
 	
 	@PostMapping("/removeFromCart")
-	public ResponseEntity<Cart> removeFromcart(@RequestBody ModifyCartRequest request) {
-		User user = userRepository.findByUsername(request.getUsername());
-		if(user == null) {
+	public ResponseEntity<?> removeFromcart(@RequestBody ModifyCartRequest request,
+			@RequestParam(defaultValue = "false") boolean delta, @RequestHeader HttpHeaders headers) {
+		if (request.getQuantity() < 0) {
+			logger.warn("Cart change rejected, quantity={} is negative", request.getQuantity());
+			return ResponseEntity.badRequest().build();
+		}
+		if(userContext.getUserId(request.getUsername()) == null) {
 			logger.warn("User not found with username {}", request.getUsername());
 			return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
 		}
@@ -71,15 +146,129 @@ public class CartController {
 			logger.warn("Item not found with id {}", request.getItemId());
 			return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
 		}
-		Cart cart = user.getCart();
-		IntStream.range(0, request.getQuantity())
-			.forEach(i -> cart.removeItem(item.get()));
-		Cart managedCart = cartRepository.save(cart);
+		Cart managedCart = cartStore.update(cartIdOf(request.getUsername()), cart -> {
+			cart.removeItem(item.get(), request.getQuantity());
+			return cart;
+		});
 
 		logger.info("item={} removed times={} to the cart of user={}, which has a new total={}",
-				item.get().getId(), request.getQuantity(), user.getUsername(), cart.getTotal());
+				item.get().getId(), request.getQuantity(), request.getUsername(), managedCart.getTotal());
 
-		return ResponseEntity.ok(managedCart);
+		return respond(managedCart, Collections.singleton(request.getItemId()), delta, headers);
 	}
-		
+
+	/**
+	 * Applies several cart changes of one user at once, a positive quantity adds and a negative one removes.
+	 * The items are loaded with one query and the cart is written once.
+	 */
+	@PostMapping("/batch")
+	public ResponseEntity<?> batch(@RequestBody List<ModifyCartRequest> requests,
+			@RequestParam(defaultValue = "false") boolean delta, @RequestHeader HttpHeaders headers) {
+		if (requests == null || requests.isEmpty() || requests.size() > MAX_BATCH_SIZE) {
+			logger.warn("Cart batch rejected, it must contain between 1 and {} changes", MAX_BATCH_SIZE);
+			return ResponseEntity.badRequest().build();
+		}
+		if (requests.contains(null)) {
+			logger.warn("Cart batch rejected, it contains an empty change");
+			return ResponseEntity.badRequest().build();
+		}
+		String username = requests.get(0).getUsername();
+		for (ModifyCartRequest request : requests) {
+			if (username == null || !username.equals(request.getUsername())) {
+				logger.warn("Cart batch rejected, all changes must be for the same user");
+				return ResponseEntity.badRequest().build();
+			}
+			if (request.getQuantity() == Integer.MIN_VALUE) {
+				// cannot be negated into a quantity to remove
+				logger.warn("Cart batch rejected, quantity={} is out of range", request.getQuantity());
+				return ResponseEntity.badRequest().build();
+			}
+		}
+		if(userContext.getUserId(username) == null) {
+			logger.warn("User not found with username {}", username);
+			return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+		}
+
+		Set<Long> itemIds = new LinkedHashSet<>();
+		requests.forEach(request -> itemIds.add(request.getItemId()));
+		Map<Long, Item> items = new HashMap<>();
+		itemRepository.findAllById(itemIds).forEach(item -> items.put(item.getId(), item));
+		if (items.size() < itemIds.size()) {
+			itemIds.removeAll(items.keySet());
+			logger.warn("Item not found with id {}", itemIds);
+			return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+		}
+
+		Cart managedCart = cartStore.update(cartIdOf(username), cart -> {
+			for (ModifyCartRequest request : requests) {
+				Item item = items.get(request.getItemId());
+				if (request.getQuantity() >= 0) {
+					cart.addItem(item, request.getQuantity());
+				} else {
+					cart.removeItem(item, -request.getQuantity());
+				}
+			}
+			return cart;
+		});
+
+		logger.info("changes={} applied to the cart of user={}, which has a new total={}",
+				requests.size(), username, managedCart.getTotal());
+
+		return respond(managedCart, itemIds, delta, headers);
+	}
+
+	/**
+	 * @return the id of the cart of a user known to exist, created if the user has none yet
+	 */
+	private Long cartIdOf(String username) {
+		Long cartId = userContext.getCartId(username);
+		return cartId != null ? cartId : cartProvisioner.cartIdOf(userContext.getUser(username));
+	}
+
+	private static ResponseEntity<?> respond(Cart cart, Collection<Long> changedItemIds, boolean delta, HttpHeaders headers) {
+		if (!delta && !acceptsDelta(headers)) {
+			return ResponseEntity.ok(cart);
+		}
+		return ResponseEntity.ok()
+				.contentType(DELTA_MEDIA_TYPE)
+				.body(CartDelta.of(cart, changedItemIds));
+	}
+
+	private static String eTag(long version) {
+		return "\"" + version + "\"";
+	}
+
+	private static boolean matches(List<String> ifNoneMatch, String eTag) {
+		for (String tag : ifNoneMatch) {
+			// weak comparison, as If-None-Match asks for
+			if ("*".equals(tag) || eTag.equals(tag) || ("W/" + eTag).equals(tag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean acceptsDelta(HttpHeaders headers) {
+		// only an explicit mention, */* keeps the whole cart
+		for (MediaType mediaType : headers.getAccept()) {
+			if (DELTA_MEDIA_TYPE.getType().equals(mediaType.getType())
+					&& DELTA_MEDIA_TYPE.getSubtype().equals(mediaType.getSubtype())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@ExceptionHandler(ArithmeticException.class)
+	public ResponseEntity<Cart> quantityOverflow(ArithmeticException e) {
+		logger.warn("Cart change rejected, a line would exceed {} units", Integer.MAX_VALUE);
+		return ResponseEntity.badRequest().build();
+	}
+
+	@ExceptionHandler(OptimisticLockingFailureException.class)
+	public ResponseEntity<Cart> conflict(OptimisticLockingFailureException e) {
+		logger.warn("Cart change rejected after concurrent updates: {}", e.getMessage());
+		return ResponseEntity.status(HttpStatus.CONFLICT).build();
+	}
+
 }
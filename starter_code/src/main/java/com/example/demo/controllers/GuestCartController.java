@@ -0,0 +1,116 @@
+package com.example.demo.controllers;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.example.demo.model.persistence.Cart;
+import com.example.demo.model.persistence.Item;
+import com.example.demo.model.persistence.Money;
+import com.example.demo.model.persistence.repositories.ItemRepository;
+import com.example.demo.model.requests.ModifyCartRequest;
+import com.example.demo.security.GuestCartTokens;
+import com.example.demo.security.SecurityConstants;
+
+/**
+ * Carts of shoppers without an account. The cart travels as a signed token in the {@code Guest-Cart} header
+ * and every change answers a new one, so nothing is written to the database until the guest logs in.
+ * The username of a {@link ModifyCartRequest} is ignored here.
+ */
+@RestController
+@RequestMapping("/api/guest-cart")
+public class GuestCartController {
+
+	private final Logger logger = LoggerFactory.getLogger(GuestCartController.class);
+
+	@Autowired
+	private GuestCartTokens guestCartTokens;
+
+	@Autowired
+	private ItemRepository itemRepository;
+
+	@GetMapping
+	public ResponseEntity<Cart> getCart(
+			@RequestHeader(value = SecurityConstants.GUEST_CART_HEADER_STRING, required = false) String token) {
+		return respond(quantitiesOf(token));
+	}
+
+	@PostMapping("/addToCart")
+	public ResponseEntity<Cart> addTocart(@RequestBody ModifyCartRequest request,
+			@RequestHeader(value = SecurityConstants.GUEST_CART_HEADER_STRING, required = false) String token) {
+		Optional<Item> item = itemRepository.findById(request.getItemId());
+		if(!item.isPresent()) {
+			logger.warn("Item not found with id {}", request.getItemId());
+			return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+		}
+		Map<Long, Integer> quantities = quantitiesOf(token);
+		if (request.getQuantity() > 0) {
+			quantities.merge(request.getItemId(), request.getQuantity(), Math::addExact);
+		}
+		if (quantities.size() > guestCartTokens.getMaxLines()) {
+			logger.warn("Guest cart rejected, it may hold at most {} items", guestCartTokens.getMaxLines());
+			return ResponseEntity.badRequest().build();
+		}
+		return respond(quantities);
+	}
+
+	@PostMapping("/removeFromCart")
+	public ResponseEntity<Cart> removeFromcart(@RequestBody ModifyCartRequest request,
+			@RequestHeader(value = SecurityConstants.GUEST_CART_HEADER_STRING, required = false) String token) {
+		Map<Long, Integer> quantities = quantitiesOf(token);
+		if (request.getQuantity() > 0) {
+			quantities.computeIfPresent(request.getItemId(),
+					(itemId, quantity) -> quantity > request.getQuantity() ? quantity - request.getQuantity() : null);
+		}
+		return respond(quantities);
+	}
+
+	@ExceptionHandler(ArithmeticException.class)
+	public ResponseEntity<Cart> quantityOverflow(ArithmeticException e) {
+		logger.warn("Guest cart change rejected, a line would exceed {} units", Integer.MAX_VALUE);
+		return ResponseEntity.badRequest().build();
+	}
+
+	@ExceptionHandler(JWTVerificationException.class)
+	public ResponseEntity<Cart> invalidGuestCart(JWTVerificationException e) {
+		logger.warn("Guest cart rejected: {}", e.getMessage());
+		return ResponseEntity.badRequest().build();
+	}
+
+	private Map<Long, Integer> quantitiesOf(String token) {
+		return token == null || token.isEmpty() ? new LinkedHashMap<>() : new LinkedHashMap<>(guestCartTokens.verify(token));
+	}
+
+	// the cart is built in memory only, shaped like the cart of a user
+	private ResponseEntity<Cart> respond(Map<Long, Integer> quantities) {
+		Map<Long, Item> items = new HashMap<>();
+		if (!quantities.isEmpty()) {
+			itemRepository.findAllById(quantities.keySet()).forEach(item -> items.put(item.getId(), item));
+		}
+		Cart cart = new Cart(null, null, null, Money.ZERO);
+		quantities.forEach((itemId, quantity) -> {
+			Item item = items.get(itemId);
+			if (item != null) {
+				cart.addItem(item, quantity);
+			}
+		});
+		return ResponseEntity.ok()
+				.header(SecurityConstants.GUEST_CART_HEADER_STRING, guestCartTokens.issue(quantities))
+				.body(cart);
+	}
+}
@@ -1,25 +1,40 @@
 package com.example.demo.controllers;
 
-import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.example.demo.model.persistence.Cart;
-import com.example.demo.model.persistence.User;
+import com.example.demo.model.persistence.CartLine;
 import com.example.demo.model.persistence.UserOrder;
-import com.example.demo.model.persistence.repositories.CartRepository;
 import com.example.demo.model.persistence.repositories.OrderRepository;
-import com.example.demo.model.persistence.repositories.UserRepository;
+import com.example.demo.model.responses.OrderHistoryPage;
+import com.example.demo.model.responses.OrderStatus;
+import com.example.demo.security.UserContext;
+import com.example.demo.service.CartProvisioner;
+import com.example.demo.service.CartStore;
+import com.example.demo.service.GroupCommitter;
+import com.example.demo.service.OrderPipeline;
+import com.example.demo.service.WriteBehindCartStore;
 
 @RestController
 @RequestMapping("/api/order")
@@ -28,44 +43,165 @@ public class OrderController {
 	final private Logger logger = LoggerFactory.getLogger(OrderController.class);
 	
 	@Autowired
-	private UserRepository userRepository;
+	private UserContext userContext;
 	
 	@Autowired
 	private OrderRepository orderRepository;
 
 	@Autowired
-	private CartRepository cartRepository;
+	private CartStore cartStore;
+
+	@Autowired
+	private CartProvisioner cartProvisioner;
+
+	// only there with order.submit.async
+	@Autowired(required = false)
+	private OrderPipeline orderPipeline;
+
+	// only there with order.submit.group-commit
+	@Autowired(required = false)
+	private GroupCommitter groupCommitter;
+
+	@Value("${order.history.page-size:20}")
+	private int defaultPageSize;
+
+	@Value("${order.history.max-page-size:100}")
+	private int maxPageSize;
 	
 	
+	/**
+	 * Places the order right away, or with {@code order.submit.async} answers {@code 202} with the
+	 * {@link OrderStatus} of the queued order, to be followed at {@code /api/order/status/{id}}.
+	 */
 	@PostMapping("/submit/{username}")
-	public ResponseEntity<UserOrder> submit(@PathVariable String username) {
-		User user = userRepository.findByUsername(username);
-		if(user == null) {
+	public ResponseEntity<?> submit(@PathVariable String username) {
+		Long userId = userContext.getUserId(username);
+		if(userId == null) {
 			logger.warn("User not found with username {}", username);
 			return ResponseEntity.notFound().build();
 		}
-		UserOrder order = UserOrder.createFromCart(user.getCart());
-		order = orderRepository.save(order);
-
-		logger.info("order={} with a total={} has been placed for user={}", order.getId(), order.getTotal(), user.getUsername());
+		if (orderPipeline != null) {
+			return submitAsync(username, userId);
+		}
+		Long cartId = cartIdOf(username);
+		UserOrder order;
+		if (cartStore instanceof WriteBehindCartStore) {
+			order = placeOrderBehind(cartId);
+		} else {
+			// the order and the emptied cart are written together, so no concurrent cart change slips in between
+			Function<Cart, UserOrder> placeOrder = cart -> {
+				UserOrder placed = orderRepository.save(UserOrder.createFromCart(cart));
+				cart.clear();
+				return placed;
+			};
+			order = groupCommitter != null ? groupCommitter.update(cartId, placeOrder) : cartStore.update(cartId, placeOrder);
+		}
 
-		// empty the cart
-		Cart cart = user.getCart();
-		cart.setItems(new ArrayList<>());
-		cart.setTotal(BigDecimal.ZERO);
-		cartRepository.save(cart);
+		logger.info("order={} with a total={} has been placed for user={}", order.getId(), order.getTotal(), username);
 
 		return ResponseEntity.ok(order);
 	}
+
+	/**
+	 * The write-behind store only journals the cart change, it cannot commit it together with the order.
+	 * The emptied cart is journaled first and the order saved after, so a failed journal append leaves no order
+	 * behind that a retry would place a second time. If the order cannot be saved, its items go back into the cart.
+	 */
+	private UserOrder placeOrderBehind(Long cartId) {
+		List<CartLine> taken = new ArrayList<>();
+		UserOrder order = cartStore.update(cartId, cart -> {
+			taken.clear();
+			taken.addAll(cart.getLines());
+			UserOrder draft = UserOrder.createFromCart(cart);
+			cart.clear();
+			return draft;
+		});
+		try {
+			return orderRepository.save(order);
+		} catch (RuntimeException e) {
+			logger.warn("Order of cart={} could not be saved, putting its items back", cartId);
+			cartStore.update(cartId, cart -> {
+				taken.forEach(line -> cart.addItem(line.getItem(), line.getQuantity()));
+				return cart;
+			});
+			throw e;
+		}
+	}
+
+	private ResponseEntity<OrderStatus> submitAsync(String username, Long userId) {
+		long orderId;
+		try {
+			orderId = orderPipeline.submit(userId, cartIdOf(username));
+		} catch (RejectedExecutionException e) {
+			logger.warn("Order of user={} rejected, the order queue is full", username);
+			return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+					.header(HttpHeaders.RETRY_AFTER, String.valueOf(orderPipeline.getRetryAfterSeconds()))
+					.build();
+		}
+		logger.info("order={} has been queued for user={}", orderId, username);
+		return ResponseEntity.status(HttpStatus.ACCEPTED)
+				.header(HttpHeaders.LOCATION, "/api/order/status/" + orderId)
+				.body(new OrderStatus(orderId, OrderStatus.Status.QUEUED));
+	}
+
+	@GetMapping("/status/{id}")
+	public ResponseEntity<OrderStatus> getStatus(@PathVariable long id) {
+		OrderStatus.Status status = null;
+		if (orderPipeline != null && orderPipeline.isQueued(id)) {
+			status = OrderStatus.Status.QUEUED;
+		} else if (orderPipeline != null && orderPipeline.isFailed(id)) {
+			status = OrderStatus.Status.FAILED;
+		} else if (orderRepository.existsById(id)) {
+			status = OrderStatus.Status.PLACED;
+		}
+		if (status == null) {
+			logger.warn("Order not found with id {}", id);
+			return ResponseEntity.notFound().build();
+		}
+		return ResponseEntity.ok(new OrderStatus(id, status));
+	}
+
+	@ExceptionHandler(OptimisticLockingFailureException.class)
+	public ResponseEntity<UserOrder> conflict(OptimisticLockingFailureException e) {
+		logger.warn("Order rejected after concurrent cart updates: {}", e.getMessage());
+		return ResponseEntity.status(HttpStatus.CONFLICT).build();
+	}
 	
+	/**
+	 * The user's orders newest first, one page at a time. The {@code next} cursor of a page is passed
+	 * as {@code cursor} to get the following one.
+	 */
 	@GetMapping("/history/{username}")
-	public ResponseEntity<List<UserOrder>> getOrdersForUser(@PathVariable String username) {
-		User user = userRepository.findByUsername(username);
-		if(user == null) {
+	public ResponseEntity<OrderHistoryPage> getOrdersForUser(@PathVariable String username,
+			@RequestParam(required = false) Long cursor, @RequestParam(required = false) Integer size) {
+		int pageSize = size == null ? defaultPageSize : size;
+		if (pageSize < 1 || pageSize > maxPageSize) {
+			logger.warn("Order history page rejected, the size must be between 1 and {}", maxPageSize);
+			return ResponseEntity.badRequest().build();
+		}
+		Long userId = userContext.getUserId(username);
+		if(userId == null) {
 			logger.warn("User not found with username {}", username);
 			return ResponseEntity.notFound().build();
 		}
-		logger.info("Order history was requested for user={}", user.getUsername());
-		return ResponseEntity.ok(orderRepository.findByUser(user));
+		// one more id than needed tells whether there is a next page
+		List<Long> ids = orderRepository.findIdsByUserBefore(userId, cursor == null ? Long.MAX_VALUE : cursor,
+				PageRequest.of(0, pageSize + 1));
+		Long next = null;
+		if (ids.size() > pageSize) {
+			ids = ids.subList(0, pageSize);
+			next = ids.get(pageSize - 1);
+		}
+		List<UserOrder> orders = ids.isEmpty() ? Collections.emptyList() : orderRepository.findDistinctByIdInOrderByIdDesc(ids);
+		logger.info("Order history was requested for user={}", username);
+		return ResponseEntity.ok(new OrderHistoryPage(orders, next));
+	}
+
+	/**
+	 * @return the id of the cart of a user known to exist, created if the user has none yet
+	 */
+	private Long cartIdOf(String username) {
+		Long cartId = userContext.getCartId(username);
+		return cartId != null ? cartId : cartProvisioner.cartIdOf(userContext.getUser(username));
 	}
 }
@@ -12,11 +12,11 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
-import com.example.demo.model.persistence.Cart;
 import com.example.demo.model.persistence.User;
-import com.example.demo.model.persistence.repositories.CartRepository;
 import com.example.demo.model.persistence.repositories.UserRepository;
 import com.example.demo.model.requests.CreateUserRequest;
+import com.example.demo.security.UserContext;
+import com.example.demo.security.UserDetailsServiceImpl;
 
 @RestController
 @RequestMapping("/api/user")
@@ -28,10 +28,13 @@ public class UserController {
 	private UserRepository userRepository;
 	
 	@Autowired
-	private CartRepository cartRepository;
+	private BCryptPasswordEncoder bCryptPasswordEncoder;
 
 	@Autowired
-	private BCryptPasswordEncoder bCryptPasswordEncoder;
+	private UserDetailsServiceImpl userDetailsService;
+
+	@Autowired
+	private UserContext userContext;
 
 	@GetMapping("/id/{id}")
 	public ResponseEntity<User> findById(@PathVariable Long id) {
@@ -40,7 +43,7 @@ public class UserController {
 	
 	@GetMapping("/{username}")
 	public ResponseEntity<User> findByUserName(@PathVariable String username) {
-		User user = userRepository.findByUsername(username);
+		User user = userContext.getUser(username);
 		return user == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(user);
 	}
 	
@@ -66,15 +69,14 @@ public class UserController {
 		// create user
 		User user = new User();
 		user.setUsername(createUserRequest.getUsername());
-		Cart cart = new Cart();
-		cartRepository.save(cart);
-		user.setCart(cart);
 
 		// hash password
 		user.setPassword(bCryptPasswordEncoder.encode(createUserRequest.getPassword()));
 
 		// persist user
 		user = userRepository.save(user);
+		// the username may have been cached as unknown by an earlier login attempt
+		userDetailsService.evict(user.getUsername());
 
 		logger.info("User created with username={}", user.getUsername());
 
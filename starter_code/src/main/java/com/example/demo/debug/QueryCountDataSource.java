@@ -0,0 +1,72 @@
+package com.example.demo.debug;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+/**
+ * Hands out connections that report every statement to the {@link QueryCounter}, so statements of
+ * Hibernate and of {@code JdbcTemplate} are counted alike. A prepared statement counts once, however
+ * many rows it sends in a batch.
+ */
+public class QueryCountDataSource extends DelegatingDataSource {
+
+    public QueryCountDataSource(DataSource target) {
+        super(target);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return counting(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return counting(super.getConnection(username, password));
+    }
+
+    private static Connection counting(Connection connection) {
+        return proxy(Connection.class, connection, (method, args) -> {
+            if ((method.getName().equals("prepareStatement") || method.getName().equals("prepareCall"))
+                    && args != null && args[0] instanceof String) {
+                QueryCounter.record((String) args[0]);
+            }
+            Object result = method.invoke(connection, args);
+            if (method.getName().equals("createStatement")) {
+                Statement statement = (Statement) result;
+                return proxy(Statement.class, statement, (statementMethod, statementArgs) -> {
+                    // plain statements carry their sql with every execute
+                    if ((statementMethod.getName().startsWith("execute") || statementMethod.getName().equals("addBatch"))
+                            && statementArgs != null && statementArgs[0] instanceof String) {
+                        QueryCounter.record((String) statementArgs[0]);
+                    }
+                    return statementMethod.invoke(statement, statementArgs);
+                });
+            }
+            return result;
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, T target, Call call) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            try {
+                return call.invoke(method, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        };
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, handler));
+    }
+
+    private interface Call {
+        Object invoke(Method method, Object[] args) throws Throwable;
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.demo.debug;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Puts a {@link QueryCountDataSource} in front of the data source while the query count header is on.
+ */
+@Component
+@ConditionalOnProperty(name = "debug.query-count-header", havingValue = "true")
+public class QueryCountDataSourceWrapper implements BeanPostProcessor {
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof DataSource && !(bean instanceof QueryCountDataSource)) {
+            return new QueryCountDataSource((DataSource) bean);
+        }
+        return bean;
+    }
+}
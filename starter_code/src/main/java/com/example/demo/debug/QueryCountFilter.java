@@ -0,0 +1,42 @@
+package com.example.demo.debug;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+/**
+ * Reports the number of SQL statements a request ran on its thread in the {@value #HEADER} response header,
+ * those of Hibernate and of {@code JdbcTemplate} alike, and how many of them read or wrote users and carts in
+ * {@value #USER_CART_HEADER}. Statements of background threads, e.g. the write-behind flush, are not counted.
+ * The body is buffered so the headers can still be added after the controller has written it,
+ * which is why this is meant for debugging only.
+ */
+@Component
+@ConditionalOnProperty(name = "debug.query-count-header", havingValue = "true")
+public class QueryCountFilter extends OncePerRequestFilter {
+
+    public static final String HEADER = "X-Query-Count";
+    public static final String USER_CART_HEADER = "X-User-Cart-Query-Count";
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest req, HttpServletResponse res, FilterChain chain)
+            throws ServletException, IOException {
+        ContentCachingResponseWrapper response = new ContentCachingResponseWrapper(res);
+        QueryCounter.reset();
+        try {
+            chain.doFilter(req, response);
+        } finally {
+            response.setHeader(HEADER, String.valueOf(QueryCounter.count()));
+            response.setHeader(USER_CART_HEADER, String.valueOf(QueryCounter.userCartCount()));
+            response.copyBodyToResponse();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.demo.debug;
+
+import java.util.regex.Pattern;
+
+/**
+ * Counts the SQL statements run on the current thread, all of them and those reading or writing
+ * the {@code user}, {@code cart} and {@code cart_line} tables.
+ */
+public final class QueryCounter {
+
+    private static final Pattern USER_OR_CART = Pattern.compile(
+            "\\b(from|join|into|update)\\s+(user|cart|cart_line)\\b", Pattern.CASE_INSENSITIVE);
+
+    // all statements, then the user and cart ones
+    private static final ThreadLocal<int[]> COUNTS = ThreadLocal.withInitial(() -> new int[2]);
+
+    private QueryCounter() {
+    }
+
+    static void record(String sql) {
+        int[] counts = COUNTS.get();
+        counts[0]++;
+        if (sql != null && USER_OR_CART.matcher(sql).find()) {
+            counts[1]++;
+        }
+    }
+
+    public static void reset() {
+        int[] counts = COUNTS.get();
+        counts[0] = 0;
+        counts[1] = 0;
+    }
+
+    public static int count() {
+        return COUNTS.get()[0];
+    }
+
+    public static int userCartCount() {
+        return COUNTS.get()[1];
+    }
+}
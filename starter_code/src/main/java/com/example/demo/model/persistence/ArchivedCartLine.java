@@ -0,0 +1,67 @@
+package com.example.demo.model.persistence;
+
+import java.time.Instant;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+
+/**
+ * A line of an abandoned cart, kept when the cart was emptied so the content can still be looked at.
+ */
+@Entity
+@Table(name = "archived_cart_line", indexes = @Index(columnList = "cart_id"))
+public class ArchivedCartLine {
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "archived_cart_line_seq")
+	@SequenceGenerator(name = "archived_cart_line_seq", sequenceName = "archived_cart_line_seq", allocationSize = 50)
+	private Long id;
+
+	@Column(name = "cart_id", nullable = false)
+	private long cartId;
+
+	@Column(name = "item_id", nullable = false)
+	private long itemId;
+
+	@Column(nullable = false)
+	private int quantity;
+
+	@Column(name = "archived_at", nullable = false)
+	private Instant archivedAt;
+
+	public ArchivedCartLine() {
+	}
+
+	public ArchivedCartLine(CartLine line, Instant archivedAt) {
+		this.cartId = line.getCart().getId();
+		this.itemId = line.getItem().getId();
+		this.quantity = line.getQuantity();
+		this.archivedAt = archivedAt;
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public long getCartId() {
+		return cartId;
+	}
+
+	public long getItemId() {
+		return itemId;
+	}
+
+	public int getQuantity() {
+		return quantity;
+	}
+
+	public Instant getArchivedAt() {
+		return archivedAt;
+	}
+}
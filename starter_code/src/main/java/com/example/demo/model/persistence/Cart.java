@@ -1,62 +1,98 @@
 package com.example.demo.model.persistence;
 
-import java.math.BigDecimal;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import javax.persistence.CascadeType;
 import javax.persistence.Column;
+import javax.persistence.Convert;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
-import javax.persistence.ManyToMany;
+import javax.persistence.Index;
 import javax.persistence.OneToMany;
 import javax.persistence.OneToOne;
+import javax.persistence.OrderBy;
+import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
+import javax.persistence.Version;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 @Entity
-@Table(name = "cart")
+@Table(name = "cart", indexes = @Index(columnList = "updated_at"))
 public class Cart {
 	
 	@Id
-	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "cart_seq")
+	@SequenceGenerator(name = "cart_seq", sequenceName = "cart_seq", allocationSize = 50)
 	@JsonProperty
 	@Column
 	private Long id;
 	
-	@ManyToMany
+	// one line per distinct item, so the quantity never changes the number of rows
+	@OneToMany(mappedBy = "cart", cascade = CascadeType.ALL, orphanRemoval = true)
+	@OrderBy("id")
 	@JsonProperty
-	@Column
-    private List<Item> items;
+    private List<CartLine> lines = new ArrayList<>();
 	
 	@OneToOne(mappedBy = "cart")
 	@JsonProperty
     private User user;
 	
-	@Column
-	@JsonProperty
-	private BigDecimal total;
+	// plain cents, every change adjusts it without allocating, a Money is only made for the API
+	@Column(name = "total")
+	@Convert(converter = CentsConverter.class)
+	@JsonIgnore
+	private long totalCents;
+
+	// a write based on a stale copy of the cart fails instead of overwriting a concurrent change
+	@Version
+	@JsonIgnore
+	private long version;
+
+	// when the content last changed, abandoned carts are found by it
+	@Column(name = "updated_at")
+	@JsonIgnore
+	private Instant updatedAt;
 
 	public Cart() {
 	}
 
-	public Cart(Long id, List<Item> items, User user, BigDecimal total) {
+	public Cart(Long id, List<Item> items, User user, Money total) {
 		this.id = id;
-		this.items = items;
+		if (items != null) {
+			for (Item item : items) {
+				CartLine line = line(item);
+				line.setQuantity(line.getQuantity() + 1);
+			}
+		}
 		this.user = user;
-		this.total = total;
+		setTotal(total);
+	}
+
+	@JsonProperty
+	public Money getTotal() {
+		return Money.ofCents(totalCents);
+	}
+
+	@JsonProperty
+	public void setTotal(Money total) {
+		this.totalCents = total == null ? 0 : total.getCents();
 	}
 
-	public BigDecimal getTotal() {
-		return total;
+	@JsonIgnore
+	public long getTotalCents() {
+		return totalCents;
 	}
 
-	public void setTotal(BigDecimal total) {
-		this.total = total;
+	public void setTotalCents(long totalCents) {
+		this.totalCents = totalCents;
 	}
 
 	public User getUser() {
@@ -75,33 +111,102 @@ public class Cart {
 		this.id = id;
 	}
 
-	public List<Item> getItems() {
-		return items;
+	public long getVersion() {
+		return version;
 	}
 
-	public void setItems(List<Item> items) {
-		this.items = items;
+	/**
+	 * Only for carts kept outside of JPA, Hibernate maintains the version of managed carts itself.
+	 */
+	public void setVersion(long version) {
+		this.version = version;
 	}
-	
-	public void addItem(Item item) {
-		if(items == null) {
-			items = new ArrayList<>();
+
+	public Instant getUpdatedAt() {
+		return updatedAt;
+	}
+
+	public void setUpdatedAt(Instant updatedAt) {
+		this.updatedAt = updatedAt;
+	}
+
+	public List<CartLine> getLines() {
+		return lines;
+	}
+
+	public void setLines(List<CartLine> lines) {
+		// keep the managed collection, orphan removal tracks it
+		this.lines.clear();
+		if (lines != null) {
+			this.lines.addAll(lines);
 		}
-		items.add(item);
-		if(total == null) {
-			total = new BigDecimal(0);
+	}
+
+	public int getQuantity(Item item) {
+		CartLine line = findLine(item);
+		return line == null ? 0 : line.getQuantity();
+	}
+
+	public void addItem(Item item) {
+		addItem(item, 1);
+	}
+
+	/**
+	 * @throws ArithmeticException if the line would hold more than {@code Integer.MAX_VALUE} units, the cart is then unchanged
+	 */
+	public void addItem(Item item, int quantity) {
+		if (quantity <= 0) {
+			return;
 		}
-		total = total.add(item.getPrice());
+		int added = Math.addExact(getQuantity(item), quantity);
+		long newTotal = Math.addExact(totalCents, Math.multiplyExact(item.getPrice().getCents(), (long) quantity));
+		line(item).setQuantity(added);
+		totalCents = newTotal;
+		updatedAt = Instant.now();
 	}
-	
+
 	public void removeItem(Item item) {
-		if(items == null) {
-			items = new ArrayList<>();
+		removeItem(item, 1);
+	}
+
+	/**
+	 * Removes up to {@code quantity} units, the total only drops by the units that were in the cart.
+	 */
+	public void removeItem(Item item, int quantity) {
+		CartLine line = findLine(item);
+		if (line == null || quantity <= 0) {
+			return;
+		}
+		int removed = Math.min(quantity, line.getQuantity());
+		line.setQuantity(line.getQuantity() - removed);
+		if (line.getQuantity() == 0) {
+			lines.remove(line);
+		}
+		totalCents = Math.subtractExact(totalCents, Math.multiplyExact(item.getPrice().getCents(), (long) removed));
+		updatedAt = Instant.now();
+	}
+
+	public void clear() {
+		lines.clear();
+		totalCents = 0;
+		updatedAt = Instant.now();
+	}
+
+	private CartLine findLine(Item item) {
+		for (CartLine line : lines) {
+			if (line.getItem().equals(item)) {
+				return line;
+			}
 		}
-		items.remove(item);
-		if(total == null) {
-			total = new BigDecimal(0);
+		return null;
+	}
+
+	private CartLine line(Item item) {
+		CartLine line = findLine(item);
+		if (line == null) {
+			line = new CartLine(this, item, 0);
+			lines.add(line);
 		}
-		total = total.subtract(item.getPrice());
+		return line;
 	}
 }
@@ -0,0 +1,84 @@
+package com.example.demo.model.persistence;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * One distinct item in a cart together with how many units of it the cart holds.
+ */
+@Entity
+@Table(name = "cart_line", uniqueConstraints = @UniqueConstraint(columnNames = {"cart_id", "item_id"}))
+public class CartLine {
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "cart_line_seq")
+	@SequenceGenerator(name = "cart_line_seq", sequenceName = "cart_line_seq", allocationSize = 50)
+	@JsonIgnore
+	private Long id;
+
+	@ManyToOne(optional = false)
+	@JoinColumn(name = "cart_id", nullable = false)
+	@JsonIgnore
+	private Cart cart;
+
+	@ManyToOne(optional = false)
+	@JoinColumn(name = "item_id", nullable = false)
+	@JsonProperty
+	private Item item;
+
+	@Column(nullable = false)
+	@JsonProperty
+	private int quantity;
+
+	public CartLine() {
+	}
+
+	public CartLine(Cart cart, Item item, int quantity) {
+		this.cart = cart;
+		this.item = item;
+		this.quantity = quantity;
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public void setId(Long id) {
+		this.id = id;
+	}
+
+	public Cart getCart() {
+		return cart;
+	}
+
+	public void setCart(Cart cart) {
+		this.cart = cart;
+	}
+
+	public Item getItem() {
+		return item;
+	}
+
+	public void setItem(Item item) {
+		this.item = item;
+	}
+
+	public int getQuantity() {
+		return quantity;
+	}
+
+	public void setQuantity(int quantity) {
+		this.quantity = quantity;
+	}
+}
@@ -0,0 +1,26 @@
+package com.example.demo.model.persistence;
+
+import java.math.BigDecimal;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+/**
+ * Keeps a total held as cents in a decimal(19,2) column, like {@link MoneyConverter} does for {@link Money}.
+ */
+@Converter
+public class CentsConverter implements AttributeConverter<Long, BigDecimal> {
+
+	@Override
+	public BigDecimal convertToDatabaseColumn(Long cents) {
+		return cents == null ? null : BigDecimal.valueOf(cents, 2);
+	}
+
+	/**
+	 * A missing total, as carts written before it was maintained have, counts as zero.
+	 */
+	@Override
+	public Long convertToEntityAttribute(BigDecimal amount) {
+		return amount == null ? 0L : Money.of(amount).getCents();
+	}
+}
@@ -1,7 +1,5 @@
 package com.example.demo.model.persistence;
 
-import java.math.BigDecimal;
-
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
@@ -29,7 +27,7 @@ public class Item {
 	
 	@Column(nullable = false)
 	@JsonProperty
-	private BigDecimal price;
+	private Money price;
 	
 	@Column(nullable = false)
 	@JsonProperty
@@ -63,7 +61,7 @@ public class Item {
 	public Item() {
 	}
 
-	public Item(Long id, String name, BigDecimal price, String description) {
+	public Item(Long id, String name, Money price, String description) {
 		this.id = id;
 		this.name = name;
 		this.price = price;
@@ -86,11 +84,11 @@ public class Item {
 		this.name = name;
 	}
 
-	public BigDecimal getPrice() {
+	public Money getPrice() {
 		return price;
 	}
 
-	public void setPrice(BigDecimal price) {
+	public void setPrice(Money price) {
 		this.price = price;
 	}
 
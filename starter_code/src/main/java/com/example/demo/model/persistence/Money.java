@@ -0,0 +1,90 @@
+package com.example.demo.model.persistence;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+/**
+ * Amount of money as a whole number of cents, so totals are maintained with long arithmetic.
+ * In JSON and in the database it is still a decimal with two fraction digits.
+ */
+public final class Money implements Comparable<Money>, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final Money ZERO = new Money(0);
+
+	private final long cents;
+
+	private Money(long cents) {
+		this.cents = cents;
+	}
+
+	public static Money ofCents(long cents) {
+		return cents == 0 ? ZERO : new Money(cents);
+	}
+
+	/**
+	 * Fractions of a cent are rounded half up.
+	 */
+	@JsonCreator
+	public static Money of(BigDecimal amount) {
+		return ofCents(amount.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact());
+	}
+
+	public static Money of(String amount) {
+		return of(new BigDecimal(amount));
+	}
+
+	public long getCents() {
+		return cents;
+	}
+
+	public Money plus(Money amount) {
+		return plus(amount, 1);
+	}
+
+	public Money plus(Money amount, long times) {
+		return ofCents(Math.addExact(cents, Math.multiplyExact(amount.cents, times)));
+	}
+
+	public Money minus(Money amount) {
+		return minus(amount, 1);
+	}
+
+	public Money minus(Money amount, long times) {
+		return ofCents(Math.subtractExact(cents, Math.multiplyExact(amount.cents, times)));
+	}
+
+	public Money times(long factor) {
+		return ofCents(Math.multiplyExact(cents, factor));
+	}
+
+	@JsonValue
+	public BigDecimal toBigDecimal() {
+		return BigDecimal.valueOf(cents, 2);
+	}
+
+	@Override
+	public int compareTo(Money other) {
+		return Long.compare(cents, other.cents);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof Money && ((Money) obj).cents == cents;
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(cents);
+	}
+
+	@Override
+	public String toString() {
+		return toBigDecimal().toPlainString();
+	}
+}
@@ -0,0 +1,23 @@
+package com.example.demo.model.persistence;
+
+import java.math.BigDecimal;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+/**
+ * Keeps money columns as decimal(19,2), so existing data and data.sql stay valid.
+ */
+@Converter(autoApply = true)
+public class MoneyConverter implements AttributeConverter<Money, BigDecimal> {
+
+	@Override
+	public BigDecimal convertToDatabaseColumn(Money money) {
+		return money == null ? null : money.toBigDecimal();
+	}
+
+	@Override
+	public Money convertToEntityAttribute(BigDecimal amount) {
+		return amount == null ? null : Money.of(amount);
+	}
+}
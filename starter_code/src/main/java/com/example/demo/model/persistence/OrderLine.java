@@ -0,0 +1,89 @@
+package com.example.demo.model.persistence;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+
+import org.hibernate.annotations.Immutable;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * One distinct item of an order as it was when the order was placed. The name and price are copied,
+ * so later changes to the item do not change past orders, and the line is never written again.
+ */
+@Entity
+@Immutable
+@Table(name = "order_line", indexes = @Index(columnList = "order_id"))
+public class OrderLine {
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "order_line_seq")
+	@SequenceGenerator(name = "order_line_seq", sequenceName = "order_line_seq", allocationSize = 50)
+	@JsonIgnore
+	private Long id;
+
+	@ManyToOne(optional = false)
+	@JoinColumn(name = "order_id", nullable = false)
+	@JsonIgnore
+	private UserOrder order;
+
+	@Column(name = "item_id", nullable = false)
+	@JsonProperty
+	private long itemId;
+
+	@Column(nullable = false)
+	@JsonProperty
+	private String name;
+
+	@Column(nullable = false)
+	@JsonProperty
+	private Money price;
+
+	@Column(nullable = false)
+	@JsonProperty
+	private int quantity;
+
+	public OrderLine() {
+	}
+
+	public OrderLine(UserOrder order, Item item, int quantity) {
+		this.order = order;
+		this.itemId = item.getId();
+		this.name = item.getName();
+		this.price = item.getPrice();
+		this.quantity = quantity;
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public UserOrder getOrder() {
+		return order;
+	}
+
+	public long getItemId() {
+		return itemId;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Money getPrice() {
+		return price;
+	}
+
+	public int getQuantity() {
+		return quantity;
+	}
+}
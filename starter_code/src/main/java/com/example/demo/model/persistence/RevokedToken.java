@@ -0,0 +1,40 @@
+package com.example.demo.model.persistence;
+
+import java.time.Instant;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+/**
+ * The id of a revoked refresh token, kept until the token would have expired anyway.
+ */
+@Entity
+@Table(name = "revoked_token", indexes = @Index(columnList = "expires_at"))
+public class RevokedToken {
+
+	@Id
+	@Column(length = 64)
+	private String id;
+
+	@Column(name = "expires_at", nullable = false)
+	private Instant expiresAt;
+
+	public RevokedToken() {
+	}
+
+	public RevokedToken(String id, Instant expiresAt) {
+		this.id = id;
+		this.expiresAt = expiresAt;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public Instant getExpiresAt() {
+		return expiresAt;
+	}
+}
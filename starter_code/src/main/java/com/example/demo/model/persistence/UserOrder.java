@@ -1,46 +1,52 @@
 package com.example.demo.model.persistence;
 
-import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
+import javax.persistence.Convert;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
-import javax.persistence.JoinTable;
-import javax.persistence.ManyToMany;
 import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import javax.persistence.OrderBy;
+import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 @Entity
-@Table(name = "user_order")
+@Table(name = "user_order", indexes = @Index(columnList = "user_id, id"))
 public class UserOrder {
 
 	@Id
-	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "user_order_seq")
+	@SequenceGenerator(name = "user_order_seq", sequenceName = "user_order_seq", allocationSize = 50)
 	@JsonProperty
 	@Column
 	private Long id;
 	
-	@ManyToMany(cascade = CascadeType.ALL)
+	// the lines are written once, with the order
+	@OneToMany(mappedBy = "order", cascade = CascadeType.PERSIST)
+	@OrderBy("id")
 	@JsonProperty
-	@Column
-    private List<Item> items;
+    private List<OrderLine> lines = new ArrayList<>();
 	
 	@ManyToOne
 	@JoinColumn(name="user_id", nullable = false, referencedColumnName = "id")
 	@JsonProperty
     private User user;
 	
-	@JsonProperty
-	@Column
-	private BigDecimal total;
+	@Column(name = "total")
+	@Convert(converter = CentsConverter.class)
+	@JsonIgnore
+	private long totalCents;
 
 	public Long getId() {
 		return id;
@@ -50,12 +56,12 @@ public class UserOrder {
 		this.id = id;
 	}
 
-	public List<Item> getItems() {
-		return items;
+	public List<OrderLine> getLines() {
+		return lines;
 	}
 
-	public void setItems(List<Item> items) {
-		this.items = items;
+	public void setLines(List<OrderLine> lines) {
+		this.lines = lines;
 	}
 
 	public User getUser() {
@@ -66,18 +72,31 @@ public class UserOrder {
 		this.user = user;
 	}
 	
-	public BigDecimal getTotal() {
-		return total;
+	@JsonProperty
+	public Money getTotal() {
+		return Money.ofCents(totalCents);
+	}
+
+	@JsonProperty
+	public void setTotal(Money total) {
+		this.totalCents = total == null ? 0 : total.getCents();
+	}
+
+	@JsonIgnore
+	public long getTotalCents() {
+		return totalCents;
 	}
 
-	public void setTotal(BigDecimal total) {
-		this.total = total;
+	public void setTotalCents(long totalCents) {
+		this.totalCents = totalCents;
 	}
 
 	public static UserOrder createFromCart(Cart cart) {
 		UserOrder order = new UserOrder();
-		order.setItems(cart.getItems().stream().collect(Collectors.toList()));
-		order.setTotal(cart.getTotal());
+		for (CartLine line : cart.getLines()) {
+			order.getLines().add(new OrderLine(order, line.getItem(), line.getQuantity()));
+		}
+		order.setTotalCents(cart.getTotalCents());
 		order.setUser(cart.getUser());
 		return order;
 	}
@@ -0,0 +1,11 @@
+package com.example.demo.model.persistence.repositories;
+
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import com.example.demo.model.persistence.ArchivedCartLine;
+
+public interface ArchivedCartLineRepository extends JpaRepository<ArchivedCartLine, Long> {
+	List<ArchivedCartLine> findByCartId(long cartId);
+}
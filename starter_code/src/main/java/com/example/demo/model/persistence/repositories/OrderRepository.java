@@ -1,12 +1,27 @@
 package com.example.demo.model.persistence.repositories;
 
+import java.util.Collection;
 import java.util.List;
 
+import javax.persistence.QueryHint;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
-import com.example.demo.model.persistence.User;
 import com.example.demo.model.persistence.UserOrder;
 
 public interface OrderRepository extends JpaRepository<UserOrder, Long> {
-	List<UserOrder> findByUser(User user);
+	// a keyset page, newest first: the (user_id, id) index makes every page the same short range scan
+	@Query("select o.id from UserOrder o where o.user.id = :userId and o.id < :before order by o.id desc")
+	List<Long> findIdsByUserBefore(@Param("userId") Long userId, @Param("before") long before, Pageable page);
+
+	// the lines are joined in, otherwise each order costs another select; distinct only drops the repeated
+	// orders of the join in memory, the rows of the join are distinct already
+	@EntityGraph(attributePaths = "lines")
+	@QueryHints(@QueryHint(name = "hibernate.query.passDistinctThrough", value = "false"))
+	List<UserOrder> findDistinctByIdInOrderByIdDesc(Collection<Long> ids);
 }
@@ -0,0 +1,19 @@
+package com.example.demo.model.persistence.repositories;
+
+import java.time.Instant;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.example.demo.model.persistence.RevokedToken;
+
+public interface RevokedTokenRepository extends JpaRepository<RevokedToken, String> {
+	// one statement, a derived delete would load every row first
+	@Modifying
+	@Transactional
+	@Query("delete from RevokedToken t where t.expiresAt <= :now")
+	int deleteExpired(@Param("now") Instant now);
+}
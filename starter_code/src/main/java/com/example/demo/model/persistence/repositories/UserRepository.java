@@ -1,9 +1,17 @@
 package com.example.demo.model.persistence.repositories;
 
+import java.util.Optional;
+
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 
 import com.example.demo.model.persistence.User;
 
 public interface UserRepository extends JpaRepository<User, Long> {
+	// the cart is joined in, otherwise its eager mapping costs a second select
+	@EntityGraph(attributePaths = "cart")
 	User findByUsername(String username);
+
+	@EntityGraph(attributePaths = "cart")
+	Optional<User> findWithCartById(Long id);
 }
@@ -0,0 +1,97 @@
+package com.example.demo.model.responses;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import com.example.demo.model.persistence.Cart;
+import com.example.demo.model.persistence.CartLine;
+import com.example.demo.model.persistence.Money;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * What a cart change did, for clients that already hold the cart: its new version and total and
+ * the new quantity of every item the change touched, 0 once an item left the cart.
+ * A client whose version is not the previous one has missed a change and should ask for the full cart.
+ */
+public class CartDelta {
+
+	@JsonProperty
+	private Long cartId;
+
+	@JsonProperty
+	private long version;
+
+	@JsonProperty
+	private Money total;
+
+	@JsonProperty
+	private List<Line> lines;
+
+	public CartDelta() {
+	}
+
+	public CartDelta(Long cartId, long version, Money total, List<Line> lines) {
+		this.cartId = cartId;
+		this.version = version;
+		this.total = total;
+		this.lines = lines;
+	}
+
+	public static CartDelta of(Cart cart, Collection<Long> changedItemIds) {
+		List<Line> lines = new ArrayList<>(changedItemIds.size());
+		for (Long itemId : new LinkedHashSet<>(changedItemIds)) {
+			int quantity = 0;
+			for (CartLine line : cart.getLines()) {
+				if (line.getItem().getId().equals(itemId)) {
+					quantity = line.getQuantity();
+					break;
+				}
+			}
+			lines.add(new Line(itemId, quantity));
+		}
+		return new CartDelta(cart.getId(), cart.getVersion(), cart.getTotal(), lines);
+	}
+
+	public Long getCartId() {
+		return cartId;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public Money getTotal() {
+		return total;
+	}
+
+	public List<Line> getLines() {
+		return lines;
+	}
+
+	public static class Line {
+
+		@JsonProperty
+		private long itemId;
+
+		@JsonProperty
+		private int quantity;
+
+		public Line() {
+		}
+
+		public Line(long itemId, int quantity) {
+			this.itemId = itemId;
+			this.quantity = quantity;
+		}
+
+		public long getItemId() {
+			return itemId;
+		}
+
+		public int getQuantity() {
+			return quantity;
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package com.example.demo.model.responses;
+
+import java.util.List;
+
+import com.example.demo.model.persistence.UserOrder;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * One page of a user's orders, newest first. {@code next} is the cursor for the following page
+ * and {@code null} on the last one.
+ */
+public class OrderHistoryPage {
+
+	@JsonProperty
+	private List<UserOrder> orders;
+
+	@JsonProperty
+	private Long next;
+
+	public OrderHistoryPage() {
+	}
+
+	public OrderHistoryPage(List<UserOrder> orders, Long next) {
+		this.orders = orders;
+		this.next = next;
+	}
+
+	public List<UserOrder> getOrders() {
+		return orders;
+	}
+
+	public Long getNext() {
+		return next;
+	}
+}
@@ -0,0 +1,36 @@
+package com.example.demo.model.responses;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Where a submitted order is: {@code QUEUED} until it is stored, then {@code PLACED}, or {@code FAILED}
+ * if it could not be stored.
+ */
+public class OrderStatus {
+
+	public enum Status {
+		QUEUED, PLACED, FAILED
+	}
+
+	@JsonProperty
+	private Long id;
+
+	@JsonProperty
+	private Status status;
+
+	public OrderStatus() {
+	}
+
+	public OrderStatus(Long id, Status status) {
+		this.id = id;
+		this.status = status;
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+}
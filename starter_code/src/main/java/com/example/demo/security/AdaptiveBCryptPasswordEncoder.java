@@ -0,0 +1,77 @@
+package com.example.demo.security;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.crypto.bcrypt.BCrypt;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+/**
+ * BCrypt encoder whose cost is picked from the hash latency measured on the current node.
+ * Hashes stored with another cost are reported for upgrade, so they are re-encoded on the next successful login.
+ */
+public class AdaptiveBCryptPasswordEncoder extends BCryptPasswordEncoder {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveBCryptPasswordEncoder.class);
+
+    private static final Pattern BCRYPT_PATTERN = Pattern.compile("\\A\\$2[aby]?\\$(\\d\\d)\\$[./0-9A-Za-z]{53}");
+
+    private static final int PROBE_STRENGTH = 8;
+    private static final int PROBE_ROUNDS = 5;
+
+    private final int strength;
+
+    public AdaptiveBCryptPasswordEncoder(int strength) {
+        super(strength);
+        this.strength = strength;
+    }
+
+    public int getStrength() {
+        return strength;
+    }
+
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        return encodedPassword != null && strengthOf(encodedPassword) != strength;
+    }
+
+    static int strengthOf(String encodedPassword) {
+        Matcher matcher = BCRYPT_PATTERN.matcher(encodedPassword);
+        return matcher.matches() ? Integer.parseInt(matcher.group(1)) : -1;
+    }
+
+    /**
+     * @return the highest strength within the bounds whose hash is estimated to take at most targetMillis
+     */
+    public static int calibrate(long targetMillis, int minStrength, int maxStrength) {
+        String salt = BCrypt.gensalt(PROBE_STRENGTH);
+        // warm up, the first hashes run in the interpreter
+        for (int i = 0; i < PROBE_ROUNDS; i++) {
+            BCrypt.hashpw("calibration", salt);
+        }
+        long fastest = Long.MAX_VALUE;
+        for (int i = 0; i < PROBE_ROUNDS; i++) {
+            long start = System.nanoTime();
+            BCrypt.hashpw("calibration", salt);
+            fastest = Math.min(fastest, System.nanoTime() - start);
+        }
+
+        // every increment of the strength doubles the work
+        long targetNanos = targetMillis * 1_000_000;
+        for (int candidate = maxStrength; candidate >= minStrength; candidate--) {
+            long estimate = candidate >= PROBE_STRENGTH
+                    ? fastest << (candidate - PROBE_STRENGTH)
+                    : fastest >> (PROBE_STRENGTH - candidate);
+            if (estimate <= targetNanos) {
+                logger.info("BCrypt strength={} selected, estimated hash time={}ms, target={}ms",
+                        candidate, estimate / 1_000_000, targetMillis);
+                return candidate;
+            }
+        }
+        logger.warn("No BCrypt strength between {} and {} fits the target of {}ms, using strength={}",
+                minStrength, maxStrength, targetMillis, minStrength);
+        return minStrength;
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.demo.security;
+
+import java.util.Collections;
+
+import org.springframework.security.core.userdetails.User;
+
+/**
+ * Principal that carries the ids of the user and its cart next to the username,
+ * so controllers can load by primary key instead of by username.
+ * The ids are {@code null} for tokens issued before they were added as claims.
+ */
+public class AuthenticatedUser extends User {
+
+    private final Long userId;
+    private final Long cartId;
+
+    public AuthenticatedUser(String username, String password, Long userId, Long cartId) {
+        super(username, password, Collections.emptyList());
+        this.userId = userId;
+        this.cartId = cartId;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public Long getCartId() {
+        return cartId;
+    }
+
+    /**
+     * @return true if this principal is the given user and its id is known; the cart id is missing
+     * from tokens issued before the user's first cart change
+     */
+    public boolean hasIdsOf(String username) {
+        return userId != null && getUsername().equals(username);
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.demo.security;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.example.demo.cache.ExpiringCache;
+import com.example.demo.model.persistence.Item;
+import com.example.demo.model.persistence.User;
+import com.example.demo.model.persistence.repositories.ItemRepository;
+import com.example.demo.model.persistence.repositories.UserRepository;
+import com.example.demo.service.CartProvisioner;
+import com.example.demo.service.CartStore;
+
+/**
+ * Adds the guest cart sent with a login to the user's cart, in one cart write.
+ * A guest cart that cannot be read or merged never fails the login.
+ * A guest cart token is merged once: its id is remembered until the token expires, so a client that keeps
+ * sending it with later logins does not add the same items again. The ids live in this node's memory and
+ * at most {@code security.guest-cart.merged-max-size} of them are kept, the oldest may be forgotten beyond that.
+ */
+@Component
+public class GuestCartMerger {
+
+    private final Logger logger = LoggerFactory.getLogger(GuestCartMerger.class);
+
+    private final GuestCartTokens guestCartTokens;
+    private final ItemRepository itemRepository;
+    private final UserRepository userRepository;
+    private final CartProvisioner cartProvisioner;
+    private final CartStore cartStore;
+    private final ExpiringCache<String, Boolean> merged;
+
+    public GuestCartMerger(GuestCartTokens guestCartTokens,
+                           ItemRepository itemRepository,
+                           UserRepository userRepository,
+                           CartProvisioner cartProvisioner,
+                           CartStore cartStore,
+                           @Value("${security.guest-cart.merged-max-size:10000}") int mergedMaximumSize) {
+        this.guestCartTokens = guestCartTokens;
+        this.itemRepository = itemRepository;
+        this.userRepository = userRepository;
+        this.cartProvisioner = cartProvisioner;
+        this.cartStore = cartStore;
+        this.merged = new ExpiringCache<>("merged-guest-carts", mergedMaximumSize);
+    }
+
+    /**
+     * @return the user, with the id of its cart if the guest cart was merged
+     */
+    public AuthenticatedUser merge(AuthenticatedUser user, String guestCartToken) {
+        GuestCartTokens.GuestCart guestCart;
+        try {
+            guestCart = guestCartTokens.read(guestCartToken);
+        } catch (JWTVerificationException e) {
+            logger.warn("Guest cart of user={} ignored: {}", user.getUsername(), e.getMessage());
+            return user;
+        }
+        // tokens issued before they had an id are told apart by the whole token
+        String mergeId = guestCart.getId() != null ? guestCart.getId() : guestCartToken;
+        long expiresAt = guestCart.getExpiresAt() != null ? guestCart.getExpiresAt().getTime()
+                : System.currentTimeMillis() + SecurityConstants.GUEST_CART_EXPIRATION_TIME;
+        // claimed before the merge, two logins racing with the same token merge it once
+        if (!merged.putIfAbsent(mergeId, Boolean.TRUE, expiresAt)) {
+            logger.info("Guest cart of user={} ignored, it was merged already", user.getUsername());
+            return user;
+        }
+        boolean done = false;
+        try {
+            Map<Long, Integer> quantities = guestCart.getQuantities();
+            Map<Long, Item> items = new HashMap<>();
+            itemRepository.findAllById(quantities.keySet()).forEach(item -> items.put(item.getId(), item));
+            if (items.isEmpty()) {
+                done = true;
+                return user;
+            }
+            Long cartId = user.getCartId();
+            if (cartId == null) {
+                User owner = user.getUserId() != null ? userRepository.findWithCartById(user.getUserId()).orElse(null)
+                        : userRepository.findByUsername(user.getUsername());
+                if (owner == null) {
+                    return user;
+                }
+                cartId = cartProvisioner.cartIdOf(owner);
+            }
+            cartStore.update(cartId, cart -> {
+                // items removed from the catalog since they were added are dropped
+                quantities.forEach((itemId, quantity) -> {
+                    Item item = items.get(itemId);
+                    if (item != null) {
+                        cart.addItem(item, quantity);
+                    }
+                });
+                return cart;
+            });
+            done = true;
+            logger.info("Guest cart with items={} merged into cart={} of user={}", items.size(), cartId, user.getUsername());
+            // the credentials are erased by now, the tokens do not need them
+            return new AuthenticatedUser(user.getUsername(), "", user.getUserId(), cartId);
+        } catch (RuntimeException e) {
+            // e.g. the database, or a line that would overflow with the guest's quantity
+            logger.warn("Guest cart of user={} could not be merged", user.getUsername(), e);
+            return user;
+        } finally {
+            if (!done) {
+                // nothing was added, a later login may try again
+                merged.invalidate(mergeId);
+            }
+        }
+    }
+}
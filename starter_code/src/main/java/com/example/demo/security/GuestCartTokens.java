@@ -0,0 +1,186 @@
+package com.example.demo.security;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTCreator;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.auth0.jwt.interfaces.DecodedJWT;
+
+/**
+ * Guest carts kept by the client instead of the database: item ids and quantities in a token signed by
+ * the {@link KeyRing}, written as {@code <itemId>:<quantity>,...} and deflated once that gets long.
+ * The client sends the token back in the {@code Guest-Cart} header with every guest cart request and with the login.
+ * Every token gets its own id, so a merge at login can be recognized when the same token comes back.
+ */
+@Component
+public class GuestCartTokens {
+
+    static final String GUEST_CART = "guest_cart";
+    static final String LINES_CLAIM = "lines";
+    static final String DEFLATED_LINES_CLAIM = "zlines";
+
+    // an item id, a quantity and the separators
+    private static final int MAX_BYTES_PER_LINE = 32;
+
+    private final KeyRing keyRing;
+    private final int compressAboveBytes;
+    private final int maxLines;
+
+    public GuestCartTokens(KeyRing keyRing,
+                           @Value("${security.guest-cart.compress-above-bytes:256}") int compressAboveBytes,
+                           @Value("${security.guest-cart.max-lines:100}") int maxLines) {
+        this.keyRing = keyRing;
+        this.compressAboveBytes = compressAboveBytes;
+        this.maxLines = maxLines;
+    }
+
+    /**
+     * @param quantities positive quantities by item id, in the order the items were added
+     */
+    public String issue(Map<Long, Integer> quantities) {
+        if (quantities.size() > maxLines) {
+            throw new IllegalArgumentException("A guest cart holds at most " + maxLines + " items");
+        }
+        StringBuilder lines = new StringBuilder(quantities.size() * 8);
+        for (Map.Entry<Long, Integer> line : quantities.entrySet()) {
+            if (lines.length() > 0) {
+                lines.append(',');
+            }
+            lines.append(line.getKey()).append(':').append(line.getValue());
+        }
+        JWTCreator.Builder token = JWT.create()
+                .withJWTId(UUID.randomUUID().toString())
+                .withClaim(TokenService.TOKEN_USE_CLAIM, GUEST_CART)
+                .withExpiresAt(new Date(System.currentTimeMillis() + SecurityConstants.GUEST_CART_EXPIRATION_TIME));
+        if (lines.length() > compressAboveBytes) {
+            token.withClaim(DEFLATED_LINES_CLAIM, Base64.getUrlEncoder().withoutPadding().encodeToString(deflate(lines.toString())));
+        } else {
+            token.withClaim(LINES_CLAIM, lines.toString());
+        }
+        return keyRing.sign(token);
+    }
+
+    /**
+     * @return the quantities by item id, in the order the items were added
+     * @throws JWTVerificationException if the token is not a valid guest cart
+     */
+    public Map<Long, Integer> verify(String token) {
+        return read(token).getQuantities();
+    }
+
+    /**
+     * @return the guest cart with the id and expiry of its token
+     * @throws JWTVerificationException if the token is not a valid guest cart
+     */
+    public GuestCart read(String token) {
+        DecodedJWT jwt = keyRing.verify(token);
+        if (!GUEST_CART.equals(jwt.getClaim(TokenService.TOKEN_USE_CLAIM).asString())) {
+            throw new JWTVerificationException("Token is not a guest cart");
+        }
+        String lines = jwt.getClaim(LINES_CLAIM).asString();
+        String deflated = jwt.getClaim(DEFLATED_LINES_CLAIM).asString();
+        try {
+            if (lines == null && deflated != null) {
+                lines = inflate(Base64.getUrlDecoder().decode(deflated));
+            }
+            if (lines == null || lines.isEmpty()) {
+                return new GuestCart(jwt.getId(), jwt.getExpiresAt(), Collections.emptyMap());
+            }
+            Map<Long, Integer> quantities = new LinkedHashMap<>();
+            for (String line : lines.split(",")) {
+                int colon = line.indexOf(':');
+                int quantity = Integer.parseInt(line.substring(colon + 1));
+                if (quantity <= 0 || quantities.put(Long.parseLong(line.substring(0, colon)), quantity) != null) {
+                    throw new JWTVerificationException("Guest cart line " + line + " is invalid");
+                }
+            }
+            if (quantities.size() > maxLines) {
+                throw new JWTVerificationException("Guest cart has more than " + maxLines + " items");
+            }
+            return new GuestCart(jwt.getId(), jwt.getExpiresAt(), quantities);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | DataFormatException e) {
+            throw new JWTVerificationException("Guest cart could not be read", e);
+        }
+    }
+
+    public int getMaxLines() {
+        return maxLines;
+    }
+
+    /**
+     * A verified guest cart token.
+     */
+    public static final class GuestCart {
+
+        private final String id;
+        private final Date expiresAt;
+        private final Map<Long, Integer> quantities;
+
+        GuestCart(String id, Date expiresAt, Map<Long, Integer> quantities) {
+            this.id = id;
+            this.expiresAt = expiresAt;
+            this.quantities = quantities;
+        }
+
+        /**
+         * @return the token id, {@code null} for tokens issued before guest carts had one
+         */
+        public String getId() {
+            return id;
+        }
+
+        public Date getExpiresAt() {
+            return expiresAt;
+        }
+
+        public Map<Long, Integer> getQuantities() {
+            return quantities;
+        }
+    }
+
+    private static byte[] deflate(String lines) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setInput(lines.getBytes(StandardCharsets.US_ASCII));
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(lines.length() / 2);
+            byte[] buffer = new byte[512];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private String inflate(byte[] deflated) throws DataFormatException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(deflated);
+            // a signed token cannot be a zip bomb unless our key leaked, the bound is cheap anyway
+            byte[] lines = new byte[maxLines * MAX_BYTES_PER_LINE];
+            int length = inflater.inflate(lines);
+            if (!inflater.finished()) {
+                throw new DataFormatException("Guest cart is larger than " + maxLines + " items");
+            }
+            return new String(lines, 0, length, StandardCharsets.US_ASCII);
+        } finally {
+            inflater.end();
+        }
+    }
+}
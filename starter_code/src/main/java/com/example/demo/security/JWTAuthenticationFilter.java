@@ -1,66 +1,323 @@
 package com.example.demo.security;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 
-import com.auth0.jwt.JWT;
-import com.example.demo.model.persistence.User;
+import com.example.demo.model.requests.LoginRequest;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
-
-import static com.auth0.jwt.algorithms.Algorithm.HMAC512;
+import com.fasterxml.jackson.databind.ObjectReader;
 
 public class JWTAuthenticationFilter extends UsernamePasswordAuthenticationFilter {
 
+    public static final int DEFAULT_MAX_REQUEST_BYTES = 4096;
+
+    // readers are immutable and thread safe, the mapper is configured once instead of per login
+    private static final ObjectReader LOGIN_READER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .readerFor(LoginRequest.class);
+
     private AuthenticationManager authenticationManager;
+    private TokenService tokenService;
+    private LoginExecutor loginExecutor;
+    private LoginRateLimiter loginRateLimiter;
+    private GuestCartMerger guestCartMerger;
+    private int maxRequestBytes = DEFAULT_MAX_REQUEST_BYTES;
 
     private Logger logger = LoggerFactory.getLogger(JWTAuthenticationFilter.class);
 
-    public JWTAuthenticationFilter(AuthenticationManager authenticationManager) {
+    public JWTAuthenticationFilter(AuthenticationManager authenticationManager,
+                                   TokenService tokenService,
+                                   LoginExecutor loginExecutor,
+                                   LoginRateLimiter loginRateLimiter) {
         this.authenticationManager = authenticationManager;
+        this.tokenService = tokenService;
+        this.loginExecutor = loginExecutor;
+        this.loginRateLimiter = loginRateLimiter;
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest req = (HttpServletRequest) request;
+        HttpServletResponse res = (HttpServletResponse) response;
+        if (!requiresAuthentication(req, res)) {
+            chain.doFilter(req, res);
+            return;
+        }
+
+        UsernamePasswordAuthenticationToken credentials;
+        try {
+            credentials = readCredentials(req);
+        } catch (LoginRequestTooLargeException e) {
+            logger.warn("Login request rejected, the body exceeds {} bytes", maxRequestBytes);
+            res.setStatus(HttpStatus.PAYLOAD_TOO_LARGE.value());
+            return;
+        } catch (IOException e) {
+            logger.warn("User credentials could not be read.");
+            res.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+
+        // checked before the user lookup and the password hash, which are what a credential stuffing burst costs us
+        long retryAfter = loginRateLimiter.tryAcquire(credentials.getName(), req.getRemoteAddr());
+        if (retryAfter > 0) {
+            res.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter));
+            res.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            return;
+        }
+
+        // the password hash runs on the login pool, never on the container thread
+        CompletableFuture<Authentication> result;
+        try {
+            result = loginExecutor.submit(() -> authenticationManager.authenticate(credentials));
+        } catch (RejectedExecutionException e) {
+            logger.warn("Login of user={} rejected, the login queue is full", credentials.getName());
+            res.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(loginExecutor.getRetryAfterSeconds()));
+            res.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+
+        if (loginExecutor.isAsync() && req.isAsyncSupported()) {
+            AsyncContext asyncContext = req.startAsync(req, res);
+            asyncContext.setTimeout(loginExecutor.getAsyncTimeoutMillis());
+            // whoever answers first owns the response, the worker or the container's timeout
+            AtomicBoolean answered = new AtomicBoolean();
+            CountDownLatch written = new CountDownLatch(1);
+            asyncContext.addListener(new LoginTimeoutListener(credentials.getName(), result, answered, written));
+            result.whenComplete((auth, failure) -> {
+                if (!answered.compareAndSet(false, true)) {
+                    // timed out, the response may be recycled already
+                    return;
+                }
+                try {
+                    completeAuthentication(req, res, chain, auth, failure);
+                } finally {
+                    asyncContext.complete();
+                    written.countDown();
+                }
+            });
+            return;
+        }
+
+        try {
+            completeAuthentication(req, res, chain, result.get(), null);
+        } catch (ExecutionException e) {
+            completeAuthentication(req, res, chain, null, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            completeAuthentication(req, res, chain, null, e);
+        }
     }
 
     @Override
     public Authentication attemptAuthentication(HttpServletRequest req,
                                                 HttpServletResponse res) throws AuthenticationException {
         try {
-            User credentials = new ObjectMapper()
-                    .readValue(req.getInputStream(), User.class);
-
-            return authenticationManager.authenticate(
-                    new UsernamePasswordAuthenticationToken(
-                            credentials.getUsername(),
-                            credentials.getPassword(),
-                            new ArrayList<>()));
+            return authenticationManager.authenticate(readCredentials(req));
         } catch (IOException e) {
             logger.warn("User credentials could not be read.");
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Upper bound for the login body, larger requests are answered with 413 before they are parsed.
+     */
+    public void setMaxRequestBytes(int maxRequestBytes) {
+        this.maxRequestBytes = maxRequestBytes;
+    }
+
+    /**
+     * Merges the guest cart sent along with a login into the user's cart, before the tokens are issued.
+     */
+    public void setGuestCartMerger(GuestCartMerger guestCartMerger) {
+        this.guestCartMerger = guestCartMerger;
+    }
+
+    private UsernamePasswordAuthenticationToken readCredentials(HttpServletRequest req) throws IOException {
+        if (req.getContentLengthLong() > maxRequestBytes) {
+            throw new LoginRequestTooLargeException();
+        }
+        // the content length may be absent, e.g. with chunked encoding
+        LoginRequest credentials = LOGIN_READER.readValue(new BoundedInputStream(req.getInputStream(), maxRequestBytes));
+        if (credentials == null) {
+            // a body of just null
+            throw new IOException("Login request is empty");
+        }
+
+        return new UsernamePasswordAuthenticationToken(
+                credentials.getUsername(),
+                credentials.getPassword(),
+                new ArrayList<>());
+    }
+
+    private void completeAuthentication(HttpServletRequest req,
+                                        HttpServletResponse res,
+                                        FilterChain chain,
+                                        Authentication auth,
+                                        Throwable failure) {
+        try {
+            if (failure == null) {
+                successfulAuthentication(req, res, chain, auth);
+            } else if (failure instanceof AuthenticationException) {
+                unsuccessfulAuthentication(req, res, (AuthenticationException) failure);
+            } else {
+                logger.error("Login failed unexpectedly", failure);
+                sendServerError(res);
+            }
+        } catch (IOException | ServletException e) {
+            logger.error("Login response could not be written", e);
+        } catch (RuntimeException e) {
+            // on the async path nothing above us would see this, and the completed response would be a 200 without tokens
+            logger.error("Login of user={} could not be completed", auth != null ? auth.getName() : null, e);
+            sendServerError(res);
+        }
+    }
+
+    private void sendServerError(HttpServletResponse res) {
+        if (res.isCommitted()) {
+            return;
+        }
+        try {
+            res.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        } catch (IOException e) {
+            logger.error("Login response could not be written", e);
+        }
+    }
+
     @Override
     protected void successfulAuthentication(HttpServletRequest req,
                                             HttpServletResponse res,
                                             FilterChain chain,
                                             Authentication auth) throws IOException, ServletException {
 
-        String token = JWT.create()
-                .withSubject(((org.springframework.security.core.userdetails.User) auth.getPrincipal()).getUsername())
-                .withExpiresAt(new Date(System.currentTimeMillis() + SecurityConstants.EXPIRATION_TIME))
-                .sign(HMAC512(SecurityConstants.SECRET.getBytes()));
-        res.addHeader(SecurityConstants.HEADER_STRING, SecurityConstants.TOKEN_PREFIX + token);
+        AuthenticatedUser user = (AuthenticatedUser) auth.getPrincipal();
+        String guestCart = req.getHeader(SecurityConstants.GUEST_CART_HEADER_STRING);
+        if (guestCart != null && guestCartMerger != null) {
+            user = guestCartMerger.merge(user, guestCart);
+        }
+        // both tokens are issued before either header is set, a failure must not leave a half written success
+        String accessToken = tokenService.issueAccessToken(user);
+        String refreshToken = tokenService.issueRefreshToken(user);
+        res.addHeader(SecurityConstants.HEADER_STRING, SecurityConstants.TOKEN_PREFIX + accessToken);
+        res.addHeader(SecurityConstants.REFRESH_HEADER_STRING, refreshToken);
+    }
+
+    private static class LoginRequestTooLargeException extends IOException {
+    }
+
+    private class LoginTimeoutListener implements AsyncListener {
+
+        private final String username;
+        private final CompletableFuture<Authentication> result;
+        private final AtomicBoolean answered;
+        private final CountDownLatch written;
+
+        LoginTimeoutListener(String username, CompletableFuture<Authentication> result,
+                             AtomicBoolean answered, CountDownLatch written) {
+            this.username = username;
+            this.result = result;
+            this.answered = answered;
+            this.written = written;
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+            if (!answered.compareAndSet(false, true)) {
+                // the worker is writing the answer, the container must not take the response away before it is done
+                try {
+                    written.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return;
+            }
+            result.cancel(false);
+            logger.warn("Login of user={} timed out after {}ms in the login queue", username, loginExecutor.getAsyncTimeoutMillis());
+            HttpServletResponse res = (HttpServletResponse) event.getAsyncContext().getResponse();
+            res.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(loginExecutor.getRetryAfterSeconds()));
+            res.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            event.getAsyncContext().complete();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            // e.g. the client went away, the worker's answer would go nowhere
+            if (answered.compareAndSet(false, true)) {
+                result.cancel(false);
+            }
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+
+    private static class BoundedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        BoundedInputStream(InputStream in, int limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        private void count(int n) throws LoginRequestTooLargeException {
+            remaining -= n;
+            if (remaining < 0) {
+                throw new LoginRequestTooLargeException();
+            }
+        }
     }
-}
\ No newline at end of file
+}
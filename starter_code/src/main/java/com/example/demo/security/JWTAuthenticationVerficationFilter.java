@@ -16,15 +16,20 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.web.authentication.www.BasicAuthenticationFilter;
 import org.springframework.stereotype.Component;
 
-import com.auth0.jwt.JWT;
-
-import static com.auth0.jwt.algorithms.Algorithm.HMAC512;
+import com.auth0.jwt.interfaces.DecodedJWT;
 
 @Component
 public class JWTAuthenticationVerficationFilter extends BasicAuthenticationFilter {
 
-    public JWTAuthenticationVerficationFilter(AuthenticationManager authManager) {
+    private final TokenService tokenService;
+    private final VerifiedTokenCache verifiedTokenCache;
+
+    public JWTAuthenticationVerficationFilter(AuthenticationManager authManager,
+                                              TokenService tokenService,
+                                              VerifiedTokenCache verifiedTokenCache) {
         super(authManager);
+        this.tokenService = tokenService;
+        this.verifiedTokenCache = verifiedTokenCache;
     }
 
     private Logger logger = LoggerFactory.getLogger(JWTAuthenticationVerficationFilter.class);
@@ -48,11 +53,21 @@ public class JWTAuthenticationVerficationFilter extends BasicAuthenticationFilte
     private UsernamePasswordAuthenticationToken getAuthentication(HttpServletRequest req) {
         String token = req.getHeader(SecurityConstants.HEADER_STRING);
         if (token != null) {
-            String user = JWT.require(HMAC512(SecurityConstants.SECRET.getBytes())).build()
-                    .verify(token.replace(SecurityConstants.TOKEN_PREFIX, ""))
-                    .getSubject();
-            if (user != null) {
-                return new UsernamePasswordAuthenticationToken(user, null, new ArrayList<>());
+            token = token.replace(SecurityConstants.TOKEN_PREFIX, "");
+            VerifiedToken verified = verifiedTokenCache.get(token);
+            // a cached token stays valid only as long as the key that signed it is in the key ring
+            if (verified == null || !tokenService.isKeyLive(verified.getKeyId())) {
+                DecodedJWT jwt = tokenService.verifyAccessToken(token);
+                AuthenticatedUser principal = tokenService.principalOf(jwt);
+                verified = new VerifiedToken(jwt.getSubject(), jwt.getKeyId(), principal.getUserId(), principal.getCartId());
+                if (verified.getSubject() != null) {
+                    verifiedTokenCache.put(token, verified, jwt.getExpiresAt());
+                }
+            }
+            if (verified.getSubject() != null) {
+                AuthenticatedUser principal = new AuthenticatedUser(verified.getSubject(), "",
+                        verified.getUserId(), verified.getCartId());
+                return new UsernamePasswordAuthenticationToken(principal, null, new ArrayList<>());
             }
 
             logger.warn("User was not provided in the token");
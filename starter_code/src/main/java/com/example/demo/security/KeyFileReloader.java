@@ -0,0 +1,129 @@
+package com.example.demo.security;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Rotates the {@link KeyRing} without a restart, turned on with {@code security.jwt.key-file}. The file lists the live
+ * keys in the same {@code security.jwt.*} properties as the application configuration and is checked every
+ * {@code security.jwt.key-file-check-seconds}. Once it changes, its keys are added, its active key is activated and
+ * the keys it no longer lists are retired. A missing or invalid file leaves the key ring as it is.
+ */
+@Component
+@ConditionalOnProperty(name = "security.jwt.key-file")
+public class KeyFileReloader {
+
+    private final Logger logger = LoggerFactory.getLogger(KeyFileReloader.class);
+
+    private final KeyRing keyRing;
+    private final Path keyFile;
+    private final long checkSeconds;
+
+    private byte[] applied;
+    private ScheduledExecutorService scheduler;
+
+    public KeyFileReloader(KeyRing keyRing,
+                           @Value("${security.jwt.key-file}") String keyFile,
+                           @Value("${security.jwt.key-file-check-seconds:30}") long checkSeconds) {
+        this.keyRing = keyRing;
+        this.keyFile = Paths.get(keyFile);
+        this.checkSeconds = Math.max(1, checkSeconds);
+    }
+
+    @PostConstruct
+    public void start() {
+        reloadQuietly();
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "key-file-reloader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::reloadQuietly, checkSeconds, checkSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Applies the key file to the key ring if it changed since it was last applied.
+     *
+     * @return whether the key ring was changed
+     * @throws IllegalArgumentException if a key of the file is invalid
+     * @throws IllegalStateException if the active key of the file is unknown or cannot sign tokens
+     */
+    public synchronized boolean reload() throws IOException {
+        byte[] content = Files.readAllBytes(keyFile);
+        if (Arrays.equals(content, applied)) {
+            return false;
+        }
+        Properties properties = new Properties();
+        properties.load(new ByteArrayInputStream(content));
+        KeyRingProperties file = new Binder(new MapConfigurationPropertySource(properties))
+                .bind("security.jwt", KeyRingProperties.class)
+                .orElseGet(KeyRingProperties::new);
+
+        // every key is built before the key ring is touched, so a bad file changes nothing
+        Map<String, TokenKey> keys = new HashMap<>();
+        for (KeyRingProperties.Key key : file.getKeys()) {
+            keys.put(key.getId(), TokenKey.from(key));
+        }
+        String activeKey = file.getActiveKey() != null ? file.getActiveKey()
+                : keys.size() == 1 ? keys.keySet().iterator().next() : null;
+        TokenKey active = keys.get(activeKey);
+        if (active == null || !active.canSign()) {
+            throw new IllegalStateException("Key " + activeKey + " of " + keyFile + " is unknown or cannot sign tokens");
+        }
+
+        // added first and retired last, so tokens of every listed key verify throughout
+        for (TokenKey key : keys.values()) {
+            keyRing.addKey(key);
+        }
+        if (!activeKey.equals(keyRing.getActiveKeyId())) {
+            keyRing.activate(activeKey);
+        }
+        Set<String> retired = new HashSet<>(keyRing.getKeyIds());
+        retired.removeAll(keys.keySet());
+        for (String keyId : retired) {
+            keyRing.retire(keyId);
+        }
+        applied = content;
+        return true;
+    }
+
+    private void reloadQuietly() {
+        try {
+            reload();
+        } catch (NoSuchFileException e) {
+            logger.warn("Key file {} does not exist, the key ring is left as it is", keyFile);
+        } catch (IOException | RuntimeException e) {
+            logger.error("Key file {} could not be applied, the key ring is left as it is", keyFile, e);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.demo.security;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTCreator;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.auth0.jwt.interfaces.DecodedJWT;
+
+/**
+ * Signs tokens with the active key and verifies incoming tokens with the key named by their {@code kid} header.
+ * The keys live in an immutable snapshot that is swapped on rotation, so lookups never block.
+ * At runtime keys are rotated by the {@link KeyFileReloader}.
+ */
+@Component
+public class KeyRing {
+
+    public static final String DEFAULT_KEY_ID = "default";
+
+    private final Logger logger = LoggerFactory.getLogger(KeyRing.class);
+
+    private volatile Snapshot snapshot;
+
+    public KeyRing(KeyRingProperties properties) {
+        Map<String, TokenKey> keys = new HashMap<>();
+        for (KeyRingProperties.Key key : properties.getKeys()) {
+            keys.put(key.getId(), TokenKey.from(key));
+        }
+        if (keys.isEmpty()) {
+            keys.put(DEFAULT_KEY_ID, TokenKey.hmac(DEFAULT_KEY_ID, "HS512",
+                    SecurityConstants.SECRET.getBytes(StandardCharsets.UTF_8)));
+        }
+        String activeKey = properties.getActiveKey() != null ? properties.getActiveKey()
+                : keys.size() == 1 ? keys.keySet().iterator().next() : DEFAULT_KEY_ID;
+        this.snapshot = new Snapshot(keys, activeKey);
+        logger.info("Key ring initialized with keys={}, active key={}", keys.keySet(), activeKey);
+    }
+
+    public String sign(JWTCreator.Builder token) {
+        TokenKey key = snapshot.active;
+        return token.withKeyId(key.getId()).sign(key.getAlgorithm());
+    }
+
+    public DecodedJWT verify(String token) {
+        DecodedJWT jwt = JWT.decode(token);
+        // tokens issued before the key ring existed carry no kid and were signed with the default key
+        String keyId = jwt.getKeyId() != null ? jwt.getKeyId() : DEFAULT_KEY_ID;
+        TokenKey key = snapshot.keys.get(keyId);
+        if (key == null) {
+            throw new JWTVerificationException("Unknown key id " + keyId);
+        }
+        return key.getVerifier().verify(jwt);
+    }
+
+    public boolean isLive(String keyId) {
+        return snapshot.keys.containsKey(keyId != null ? keyId : DEFAULT_KEY_ID);
+    }
+
+    public String getActiveKeyId() {
+        return snapshot.active.getId();
+    }
+
+    public Set<String> getKeyIds() {
+        return snapshot.keys.keySet();
+    }
+
+    public synchronized void addKey(TokenKey key) {
+        Map<String, TokenKey> keys = new HashMap<>(snapshot.keys);
+        keys.put(key.getId(), key);
+        snapshot = new Snapshot(keys, snapshot.active.getId());
+        logger.info("Key={} added to the key ring", key.getId());
+    }
+
+    public synchronized void activate(String keyId) {
+        snapshot = new Snapshot(snapshot.keys, keyId);
+        logger.info("Key={} is now used to sign tokens", keyId);
+    }
+
+    public synchronized void retire(String keyId) {
+        if (keyId.equals(snapshot.active.getId())) {
+            throw new IllegalStateException("The active key " + keyId + " cannot be retired");
+        }
+        Map<String, TokenKey> keys = new HashMap<>(snapshot.keys);
+        keys.remove(keyId);
+        snapshot = new Snapshot(keys, snapshot.active.getId());
+        logger.info("Key={} retired, tokens signed with it are no longer accepted", keyId);
+    }
+
+    private static final class Snapshot {
+        private final Map<String, TokenKey> keys;
+        private final TokenKey active;
+
+        private Snapshot(Map<String, TokenKey> keys, String activeKeyId) {
+            TokenKey active = keys.get(activeKeyId);
+            if (active == null || !active.canSign()) {
+                throw new IllegalStateException("Key " + activeKeyId + " is unknown or cannot sign tokens");
+            }
+            this.keys = Collections.unmodifiableMap(keys);
+            this.active = active;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.demo.security;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keys used to sign and verify tokens, bound from {@code security.jwt.*}.
+ * Public and private keys are Base64 encoded DER (X.509 and PKCS#8 respectively).
+ */
+@Component
+@ConfigurationProperties(prefix = "security.jwt")
+public class KeyRingProperties {
+
+    private String activeKey;
+
+    private List<Key> keys = new ArrayList<>();
+
+    public String getActiveKey() {
+        return activeKey;
+    }
+
+    public void setActiveKey(String activeKey) {
+        this.activeKey = activeKey;
+    }
+
+    public List<Key> getKeys() {
+        return keys;
+    }
+
+    public void setKeys(List<Key> keys) {
+        this.keys = keys;
+    }
+
+    public static class Key {
+
+        private String id;
+        private String algorithm = "HS512";
+        private String secret;
+        private String publicKey;
+        private String privateKey;
+
+        public Key() {
+        }
+
+        public Key(String id, String algorithm, String secret, String publicKey, String privateKey) {
+            this.id = id;
+            this.algorithm = algorithm;
+            this.secret = secret;
+            this.publicKey = publicKey;
+            this.privateKey = privateKey;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public void setId(String id) {
+            this.id = id;
+        }
+
+        public String getAlgorithm() {
+            return algorithm;
+        }
+
+        public void setAlgorithm(String algorithm) {
+            this.algorithm = algorithm;
+        }
+
+        public String getSecret() {
+            return secret;
+        }
+
+        public void setSecret(String secret) {
+            this.secret = secret;
+        }
+
+        public String getPublicKey() {
+            return publicKey;
+        }
+
+        public void setPublicKey(String publicKey) {
+            this.publicKey = publicKey;
+        }
+
+        public String getPrivateKey() {
+            return privateKey;
+        }
+
+        public void setPrivateKey(String privateKey) {
+            this.privateKey = privateKey;
+        }
+
+        @Override
+        public String toString() {
+            return "Key{" + id + ", " + algorithm + '}';
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.demo.security;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Bounded worker pool that runs password verification off the servlet container threads,
+ * so a burst of logins cannot starve the other endpoints.
+ */
+@Component
+public class LoginExecutor implements DisposableBean {
+
+    private final Logger logger = LoggerFactory.getLogger(LoginExecutor.class);
+
+    private final ThreadPoolExecutor executor;
+    private final boolean async;
+    private final int retryAfterSeconds;
+    private final long asyncTimeoutMillis;
+
+    private final Timer waitTimer;
+    private final Timer hashTimer;
+
+    public LoginExecutor(@Value("${security.login.pool-size:0}") int poolSize,
+                         @Value("${security.login.queue-capacity:100}") int queueCapacity,
+                         @Value("${security.login.async:true}") boolean async,
+                         @Value("${security.login.retry-after-seconds:1}") int retryAfterSeconds,
+                         @Value("${security.login.async-timeout-millis:30000}") long asyncTimeoutMillis) {
+        int threads = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "login-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.async = async;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.asyncTimeoutMillis = asyncTimeoutMillis;
+
+        Gauge.builder("security.login.queue", executor, e -> e.getQueue().size())
+                .register(Metrics.globalRegistry);
+        this.waitTimer = Timer.builder("security.login.wait").register(Metrics.globalRegistry);
+        this.hashTimer = Timer.builder("security.login.hash").register(Metrics.globalRegistry);
+
+        logger.info("Login executor started with threads={}, queue capacity={}, async={}, async timeout={}ms",
+                threads, queueCapacity, async, asyncTimeoutMillis);
+    }
+
+    /**
+     * Cancelling the returned future takes a task that has not started yet off the queue.
+     *
+     * @throws RejectedExecutionException if all workers are busy and the queue is full
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        long queuedAt = System.nanoTime();
+        Runnable work = () -> {
+            if (result.isDone()) {
+                // cancelled while it was being taken off the queue, nobody waits for the hash any more
+                return;
+            }
+            long startedAt = System.nanoTime();
+            waitTimer.record(startedAt - queuedAt, TimeUnit.NANOSECONDS);
+            try {
+                result.complete(task.call());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            } finally {
+                hashTimer.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+            }
+        };
+        executor.execute(work);
+        result.whenComplete((value, failure) -> {
+            if (result.isCancelled()) {
+                executor.remove(work);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Whether the login response is completed on the worker thread through async servlet processing,
+     * instead of parking the container thread until the worker is done.
+     */
+    public boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * How long an async login may wait for its worker before it is answered with 503, longer than
+     * a full queue takes to drain so that only a stuck pool runs into it.
+     */
+    public long getAsyncTimeoutMillis() {
+        return asyncTimeoutMillis;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.demo.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Token buckets per username and per client address, checked before a login reaches the password hash.
+ * Keys are hashed into fixed tables of buckets, so memory stays bounded no matter how many usernames are tried.
+ */
+@Component
+public class LoginRateLimiter {
+
+    private final Logger logger = LoggerFactory.getLogger(LoginRateLimiter.class);
+
+    private final boolean enabled;
+    private final BucketTable usernames;
+    private final BucketTable addresses;
+
+    private final LongAdder usernameRejections = new LongAdder();
+    private final LongAdder addressRejections = new LongAdder();
+
+    public LoginRateLimiter(@Value("${security.login.rate-limit.enabled:true}") boolean enabled,
+                            @Value("${security.login.rate-limit.buckets:4096}") int buckets,
+                            @Value("${security.login.rate-limit.username-capacity:10}") int usernameCapacity,
+                            @Value("${security.login.rate-limit.username-per-minute:10}") int usernamePerMinute,
+                            @Value("${security.login.rate-limit.address-capacity:50}") int addressCapacity,
+                            @Value("${security.login.rate-limit.address-per-minute:50}") int addressPerMinute) {
+        this.enabled = enabled;
+        this.usernames = new BucketTable(buckets, usernameCapacity, usernamePerMinute);
+        this.addresses = new BucketTable(buckets, addressCapacity, addressPerMinute);
+
+        FunctionCounter.builder("security.login.rate_limited", usernameRejections, LongAdder::sum)
+                .tag("key", "username")
+                .register(Metrics.globalRegistry);
+        FunctionCounter.builder("security.login.rate_limited", addressRejections, LongAdder::sum)
+                .tag("key", "address")
+                .register(Metrics.globalRegistry);
+
+        logger.info("Login rate limit enabled={}, username={}/min, address={}/min",
+                enabled, usernamePerMinute, addressPerMinute);
+    }
+
+    /**
+     * @return 0 if the login may proceed, otherwise the number of seconds until it can be retried
+     */
+    public long tryAcquire(String username, String address) {
+        if (!enabled) {
+            return 0;
+        }
+        long now = System.nanoTime();
+
+        long wait = addresses.tryAcquire(address, now);
+        if (wait > 0) {
+            addressRejections.increment();
+            logger.warn("Login from address={} rate limited", address);
+            return toSeconds(wait);
+        }
+        wait = usernames.tryAcquire(username, now);
+        if (wait > 0) {
+            usernameRejections.increment();
+            logger.warn("Login of user={} rate limited", username);
+            return toSeconds(wait);
+        }
+        return 0;
+    }
+
+    public long getRejectedCount() {
+        return usernameRejections.sum() + addressRejections.sum();
+    }
+
+    private static long toSeconds(long nanos) {
+        return Math.max(1, (nanos + 999_999_999L) / 1_000_000_000L);
+    }
+
+    /**
+     * Two rows of buckets indexed by independently seeded hashes, like a count-min sketch:
+     * a key is limited only when both of its buckets are empty, so a collision in one row
+     * does not lock out an unrelated user.
+     */
+    static final class BucketTable {
+
+        private static final SecureRandom SEEDS = new SecureRandom();
+
+        private final Bucket[] first;
+        private final Bucket[] second;
+        private final int mask;
+        // drawn per table at startup, so colliding keys cannot be worked out ahead of time
+        private final int firstSeed;
+        private final int secondSeed;
+
+        BucketTable(int size, int capacity, int perMinute) {
+            int buckets = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+            this.mask = buckets - 1;
+            this.first = new Bucket[buckets];
+            this.second = new Bucket[buckets];
+            double tokensPerNano = perMinute / 60_000_000_000d;
+            for (int i = 0; i < buckets; i++) {
+                first[i] = new Bucket(capacity, tokensPerNano);
+                second[i] = new Bucket(capacity, tokensPerNano);
+            }
+            this.firstSeed = SEEDS.nextInt();
+            int seed;
+            do {
+                seed = SEEDS.nextInt();
+            } while (seed == firstSeed);
+            this.secondSeed = seed;
+        }
+
+        /**
+         * @return 0 if a token was taken, otherwise the nanoseconds until one is available
+         */
+        long tryAcquire(String key, long now) {
+            byte[] bytes = bytes(key);
+            Bucket a = first[hash(bytes, firstSeed) & mask];
+            Bucket b = second[hash(bytes, secondSeed) & mask];
+            long waitA = a.tryAcquire(now);
+            long waitB = b.tryAcquire(now);
+            // the key owns at least one bucket that still had a token
+            return Math.min(waitA, waitB);
+        }
+
+        int firstIndex(String key) {
+            return hash(bytes(key), firstSeed) & mask;
+        }
+
+        int secondIndex(String key) {
+            return hash(bytes(key), secondSeed) & mask;
+        }
+
+        private static byte[] bytes(String key) {
+            return (key == null ? "" : key).getBytes(StandardCharsets.UTF_8);
+        }
+
+        private static int hash(byte[] key, int seed) {
+            // FNV-1a from a seeded offset, independent of String.hashCode which is easy to collide on purpose
+            int hash = seed;
+            for (byte b : key) {
+                hash ^= b & 0xFF;
+                hash *= 0x01000193;
+            }
+            // murmur3 finalizer, the table index only looks at the low bits
+            hash ^= hash >>> 16;
+            hash *= 0x85EBCA6B;
+            hash ^= hash >>> 13;
+            hash *= 0xC2B2AE35;
+            hash ^= hash >>> 16;
+            return hash;
+        }
+    }
+
+    static final class Bucket {
+
+        private final int capacity;
+        private final double tokensPerNano;
+
+        private double tokens;
+        private long refilledAt;
+
+        Bucket(int capacity, double tokensPerNano) {
+            this.capacity = capacity;
+            this.tokensPerNano = tokensPerNano;
+            this.tokens = capacity;
+            this.refilledAt = System.nanoTime();
+        }
+
+        // each bucket is its own lock, so contention is spread over the table
+        synchronized long tryAcquire(long now) {
+            if (now > refilledAt) {
+                tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+                refilledAt = now;
+            }
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return (long) Math.ceil((1 - tokens) / tokensPerNano);
+        }
+    }
+}
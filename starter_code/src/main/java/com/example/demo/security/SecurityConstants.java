@@ -3,8 +3,15 @@ package com.example.demo.security;
 public class SecurityConstants {
 
     public static final String SECRET = "oursecretkey";
-    public static final long EXPIRATION_TIME = 864_000_000; // 10 days
+    public static final long EXPIRATION_TIME = 900_000; // 15 minutes
+    public static final long REFRESH_EXPIRATION_TIME = 1_209_600_000; // 14 days
+    public static final long GUEST_CART_EXPIRATION_TIME = 2_592_000_000L; // 30 days
     public static final String TOKEN_PREFIX = "Bearer ";
     public static final String HEADER_STRING = "Authorization";
+    public static final String REFRESH_HEADER_STRING = "Refresh-Token";
+    public static final String GUEST_CART_HEADER_STRING = "Guest-Cart";
     public static final String SIGN_UP_URL = "/api/user/create";
+    public static final String REFRESH_URL = "/api/auth/refresh";
+    public static final String REVOKE_URL = "/api/auth/revoke";
+    public static final String GUEST_CART_URL = "/api/guest-cart/**";
 }
\ No newline at end of file
@@ -0,0 +1,142 @@
+package com.example.demo.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTVerifier;
+import com.auth0.jwt.algorithms.Algorithm;
+
+/**
+ * One entry of the {@link KeyRing}: an immutable algorithm instance together with the verifier built for it.
+ * Both are thread-safe, so they are created once and shared by all requests.
+ */
+public final class TokenKey {
+
+    private final String id;
+    private final Algorithm algorithm;
+    private final JWTVerifier verifier;
+    private final boolean signing;
+
+    private TokenKey(String id, Algorithm algorithm, boolean signing) {
+        this.id = id;
+        this.algorithm = algorithm;
+        this.verifier = JWT.require(algorithm).build();
+        this.signing = signing;
+    }
+
+    public static TokenKey hmac(String id, String algorithm, byte[] secret) {
+        switch (algorithm) {
+            case "HS256":
+                return new TokenKey(id, Algorithm.HMAC256(secret), true);
+            case "HS384":
+                return new TokenKey(id, Algorithm.HMAC384(secret), true);
+            case "HS512":
+                return new TokenKey(id, Algorithm.HMAC512(secret), true);
+            default:
+                throw new IllegalArgumentException("Unsupported HMAC algorithm " + algorithm);
+        }
+    }
+
+    public static TokenKey rsa(String id, String algorithm, RSAPublicKey publicKey, RSAPrivateKey privateKey) {
+        switch (algorithm) {
+            case "RS256":
+                return new TokenKey(id, Algorithm.RSA256(publicKey, privateKey), privateKey != null);
+            case "RS384":
+                return new TokenKey(id, Algorithm.RSA384(publicKey, privateKey), privateKey != null);
+            case "RS512":
+                return new TokenKey(id, Algorithm.RSA512(publicKey, privateKey), privateKey != null);
+            default:
+                throw new IllegalArgumentException("Unsupported RSA algorithm " + algorithm);
+        }
+    }
+
+    public static TokenKey ecdsa(String id, String algorithm, ECPublicKey publicKey, ECPrivateKey privateKey) {
+        switch (algorithm) {
+            case "ES256":
+                return new TokenKey(id, Algorithm.ECDSA256(publicKey, privateKey), privateKey != null);
+            case "ES384":
+                return new TokenKey(id, Algorithm.ECDSA384(publicKey, privateKey), privateKey != null);
+            case "ES512":
+                return new TokenKey(id, Algorithm.ECDSA512(publicKey, privateKey), privateKey != null);
+            default:
+                throw new IllegalArgumentException("Unsupported ECDSA algorithm " + algorithm);
+        }
+    }
+
+    public static TokenKey from(KeyRingProperties.Key key) {
+        if (key.getId() == null || key.getId().isEmpty()) {
+            throw new IllegalArgumentException("Key without id: " + key);
+        }
+        String algorithm = key.getAlgorithm().toUpperCase();
+        try {
+            if (algorithm.startsWith("HS")) {
+                if (key.getSecret() == null) {
+                    throw new IllegalArgumentException("HMAC key without secret: " + key);
+                }
+                return hmac(key.getId(), algorithm, key.getSecret().getBytes(StandardCharsets.UTF_8));
+            }
+            if (algorithm.startsWith("RS")) {
+                return rsa(key.getId(), algorithm,
+                        (RSAPublicKey) publicKey("RSA", key),
+                        (RSAPrivateKey) privateKey("RSA", key));
+            }
+            if (algorithm.startsWith("ES")) {
+                return ecdsa(key.getId(), algorithm,
+                        (ECPublicKey) publicKey("EC", key),
+                        (ECPrivateKey) privateKey("EC", key));
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Invalid key material for " + key, e);
+        }
+        throw new IllegalArgumentException("Unsupported algorithm " + key.getAlgorithm());
+    }
+
+    private static PublicKey publicKey(String type, KeyRingProperties.Key key) throws GeneralSecurityException {
+        if (key.getPublicKey() == null) {
+            throw new IllegalArgumentException("Key without public key: " + key);
+        }
+        return KeyFactory.getInstance(type)
+                .generatePublic(new X509EncodedKeySpec(Base64.getDecoder().decode(key.getPublicKey())));
+    }
+
+    private static PrivateKey privateKey(String type, KeyRingProperties.Key key) throws GeneralSecurityException {
+        // verification-only keys, e.g. retired keys, don't need the private part
+        if (key.getPrivateKey() == null) {
+            return null;
+        }
+        return KeyFactory.getInstance(type)
+                .generatePrivate(new PKCS8EncodedKeySpec(Base64.getDecoder().decode(key.getPrivateKey())));
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    public JWTVerifier getVerifier() {
+        return verifier;
+    }
+
+    public boolean canSign() {
+        return signing;
+    }
+
+    @Override
+    public String toString() {
+        return "TokenKey{" + id + ", " + algorithm.getName() + '}';
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.demo.security;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTCreator;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import com.example.demo.model.persistence.RevokedToken;
+import com.example.demo.model.persistence.repositories.RevokedTokenRepository;
+
+/**
+ * Issues short-lived access tokens and long-lived refresh tokens.
+ * A refresh token is checked by signature and against the revoked token ids in the database, never against the password,
+ * so a revocation holds across restarts and on every node.
+ */
+@Component
+public class TokenService {
+
+    static final String TOKEN_USE_CLAIM = "token_use";
+    static final String ACCESS = "access";
+    static final String REFRESH = "refresh";
+    static final String USER_ID_CLAIM = "uid";
+    static final String CART_ID_CLAIM = "cid";
+
+    // expired revocations are deleted with a revocation, at most this often
+    static final long PURGE_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final Logger logger = LoggerFactory.getLogger(TokenService.class);
+
+    private final KeyRing keyRing;
+
+    private final RevokedTokenRepository revokedTokens;
+    private final AtomicLong nextPurge = new AtomicLong();
+
+    public TokenService(KeyRing keyRing, RevokedTokenRepository revokedTokens) {
+        this.keyRing = keyRing;
+        this.revokedTokens = revokedTokens;
+    }
+
+    public String issueAccessToken(AuthenticatedUser user) {
+        return keyRing.sign(withIds(JWT.create(), user)
+                .withClaim(TOKEN_USE_CLAIM, ACCESS)
+                .withExpiresAt(new Date(System.currentTimeMillis() + SecurityConstants.EXPIRATION_TIME)));
+    }
+
+    public String issueRefreshToken(AuthenticatedUser user) {
+        return keyRing.sign(withIds(JWT.create(), user)
+                .withJWTId(UUID.randomUUID().toString())
+                .withClaim(TOKEN_USE_CLAIM, REFRESH)
+                .withExpiresAt(new Date(System.currentTimeMillis() + SecurityConstants.REFRESH_EXPIRATION_TIME)));
+    }
+
+    /**
+     * The user a verified token was issued to, without credentials.
+     */
+    public AuthenticatedUser principalOf(DecodedJWT jwt) {
+        return new AuthenticatedUser(jwt.getSubject(), "",
+                jwt.getClaim(USER_ID_CLAIM).asLong(),
+                jwt.getClaim(CART_ID_CLAIM).asLong());
+    }
+
+    public DecodedJWT verifyAccessToken(String token) {
+        DecodedJWT jwt = keyRing.verify(token);
+        // tokens issued before refresh tokens existed carry no token_use claim
+        String tokenUse = jwt.getClaim(TOKEN_USE_CLAIM).asString();
+        if (tokenUse != null && !ACCESS.equals(tokenUse)) {
+            throw new JWTVerificationException("Token is not an access token");
+        }
+        return jwt;
+    }
+
+    public DecodedJWT verifyRefreshToken(String token) {
+        DecodedJWT jwt = keyRing.verify(token);
+        if (!REFRESH.equals(jwt.getClaim(TOKEN_USE_CLAIM).asString()) || jwt.getId() == null) {
+            throw new JWTVerificationException("Token is not a refresh token");
+        }
+        if (revokedTokens.existsById(jwt.getId())) {
+            throw new JWTVerificationException("Refresh token has been revoked");
+        }
+        return jwt;
+    }
+
+    public void revoke(DecodedJWT refreshToken) {
+        purgeExpiredRevocations();
+        if (!revokedTokens.existsById(refreshToken.getId())) {
+            try {
+                revokedTokens.save(new RevokedToken(refreshToken.getId(), refreshToken.getExpiresAt().toInstant()));
+            } catch (DataIntegrityViolationException e) {
+                // revoked by a concurrent request in the meantime
+                logger.debug("Refresh token={} was revoked already", refreshToken.getId());
+            }
+        }
+        logger.info("Refresh token={} of user={} revoked", refreshToken.getId(), refreshToken.getSubject());
+    }
+
+    public long getRevocationCount() {
+        return revokedTokens.count();
+    }
+
+    public boolean isKeyLive(String keyId) {
+        return keyRing.isLive(keyId);
+    }
+
+    private static JWTCreator.Builder withIds(JWTCreator.Builder builder, AuthenticatedUser user) {
+        builder.withSubject(user.getUsername());
+        if (user.getUserId() != null) {
+            builder.withClaim(USER_ID_CLAIM, user.getUserId());
+        }
+        if (user.getCartId() != null) {
+            builder.withClaim(CART_ID_CLAIM, user.getCartId());
+        }
+        return builder;
+    }
+
+    private void purgeExpiredRevocations() {
+        long now = System.currentTimeMillis();
+        long next = nextPurge.get();
+        // one caller per interval deletes, an expired revocation left over meanwhile rejects nothing that verifies
+        if (now >= next && nextPurge.compareAndSet(next, now + PURGE_INTERVAL_MILLIS)) {
+            int purged = revokedTokens.deleteExpired(Instant.ofEpochMilli(now));
+            if (purged > 0) {
+                logger.info("Expired revoked refresh tokens={} deleted", purged);
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.demo.security;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.annotation.RequestScope;
+
+import com.example.demo.model.persistence.User;
+import com.example.demo.model.persistence.repositories.UserRepository;
+
+/**
+ * Users resolved during the current request, loaded at most once each and always with their cart.
+ * When the caller asks for itself and its token carries the user id, the user is loaded by primary key,
+ * and where only the ids are needed they are taken from the token without loading the user at all.
+ */
+@Component
+@RequestScope
+public class UserContext {
+
+    @Autowired
+    private UserRepository userRepository;
+
+    // a request seldom names more than one user, so this stays tiny
+    private final Map<String, User> users = new HashMap<>(2);
+
+    /**
+     * @return the user with its cart, or {@code null} if there is no such user
+     */
+    public User getUser(String username) {
+        if (username == null) {
+            return null;
+        }
+        if (users.containsKey(username)) {
+            return users.get(username);
+        }
+        User user;
+        AuthenticatedUser principal = getPrincipal();
+        if (principal != null && principal.hasIdsOf(username)) {
+            user = userRepository.findWithCartById(principal.getUserId()).orElse(null);
+        } else {
+            user = userRepository.findByUsername(username);
+        }
+        users.put(username, user);
+        return user;
+    }
+
+    /**
+     * @return the id of the user, or {@code null} if there is no such user; taken from the token without
+     * loading the user when the caller asks for itself
+     */
+    public Long getUserId(String username) {
+        AuthenticatedUser principal = getPrincipal();
+        if (principal != null && principal.hasIdsOf(username)) {
+            return principal.getUserId();
+        }
+        User user = getUser(username);
+        return user == null ? null : user.getId();
+    }
+
+    /**
+     * @return the id of the user's cart, or {@code null} if there is no such user or it has no cart yet;
+     * taken from the token without loading the user when the caller asks for itself and the token carries it
+     */
+    public Long getCartId(String username) {
+        AuthenticatedUser principal = getPrincipal();
+        if (principal != null && principal.hasIdsOf(username) && principal.getCartId() != null) {
+            return principal.getCartId();
+        }
+        User user = getUser(username);
+        return user == null || user.getCart() == null ? null : user.getCart().getId();
+    }
+
+    private static AuthenticatedUser getPrincipal() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.getPrincipal() instanceof AuthenticatedUser) {
+            return (AuthenticatedUser) authentication.getPrincipal();
+        }
+        return null;
+    }
+}
@@ -1,33 +1,107 @@
 package com.example.demo.security;
 
-import java.util.Collections;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
 
+import com.example.demo.cache.ExpiringCache;
 import com.example.demo.model.persistence.User;
 import com.example.demo.model.persistence.repositories.UserRepository;
 
 @Service
-public class UserDetailsServiceImpl implements UserDetailsService {
+public class UserDetailsServiceImpl implements UserDetailsService, UserDetailsPasswordService {
 
-    @Autowired
     private UserRepository userRepository;
 
+    // the UserDetails itself is not shared because authentication erases its credentials
+    private final ExpiringCache<String, CachedUser> users;
+    private final ExpiringCache<String, Boolean> unknownUsernames;
+    private final long ttlMillis;
+    private final long unknownTtlMillis;
+
     private Logger logger = LoggerFactory.getLogger(UserDetailsServiceImpl.class);
 
+    public UserDetailsServiceImpl(UserRepository userRepository,
+                                  @Value("${security.user-cache.max-size:10000}") int maximumSize,
+                                  @Value("${security.user-cache.ttl-seconds:300}") long ttlSeconds,
+                                  @Value("${security.user-cache.unknown-max-size:10000}") int unknownMaximumSize,
+                                  @Value("${security.user-cache.unknown-ttl-seconds:30}") long unknownTtlSeconds) {
+        this.userRepository = userRepository;
+        this.users = new ExpiringCache<>("user-details", maximumSize);
+        this.unknownUsernames = new ExpiringCache<>("unknown-usernames", unknownMaximumSize);
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+        this.unknownTtlMillis = TimeUnit.SECONDS.toMillis(unknownTtlSeconds);
+    }
+
     @Override
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
-        User user = userRepository.findByUsername(username);
-        if (user == null) {
-            logger.warn("User not found with username {}", username);
+        if (username == null) {
+            throw new UsernameNotFoundException("Username is missing");
+        }
+        if (unknownUsernames.get(username) != null) {
             throw new UsernameNotFoundException(username);
         }
-        return new org.springframework.security.core.userdetails.User(user.getUsername(), user.getPassword(), Collections.emptyList());
+
+        CachedUser cached = users.get(username);
+        if (cached == null) {
+            User user = userRepository.findByUsername(username);
+            if (user == null) {
+                logger.warn("User not found with username {}", username);
+                unknownUsernames.put(username, Boolean.TRUE, System.currentTimeMillis() + unknownTtlMillis);
+                throw new UsernameNotFoundException(username);
+            }
+            cached = new CachedUser(user.getPassword(), user.getId(), cartIdOf(user));
+            users.put(username, cached, System.currentTimeMillis() + ttlMillis);
+        }
+        return new AuthenticatedUser(username, cached.password, cached.userId, cached.cartId);
+    }
+
+    /**
+     * Stores a password re-encoded after a successful login, e.g. because the BCrypt strength changed.
+     */
+    @Override
+    public UserDetails updatePassword(UserDetails userDetails, String newPassword) {
+        User user = userRepository.findByUsername(userDetails.getUsername());
+        if (user == null) {
+            logger.warn("User not found with username {}", userDetails.getUsername());
+            throw new UsernameNotFoundException(userDetails.getUsername());
+        }
+        user.setPassword(newPassword);
+        userRepository.save(user);
+        evict(user.getUsername());
+        logger.info("Password of user={} re-encoded with the current BCrypt strength", user.getUsername());
+        return new AuthenticatedUser(user.getUsername(), newPassword, user.getId(), cartIdOf(user));
+    }
+
+    /**
+     * Must be called whenever a user is created, its password is written or it gets its cart.
+     */
+    public void evict(String username) {
+        users.invalidate(username);
+        unknownUsernames.invalidate(username);
+    }
+
+    private static Long cartIdOf(User user) {
+        return user.getCart() == null ? null : user.getCart().getId();
+    }
+
+    private static final class CachedUser {
+
+        private final String password;
+        private final Long userId;
+        private final Long cartId;
+
+        CachedUser(String password, Long userId, Long cartId) {
+            this.password = password;
+            this.userId = userId;
+            this.cartId = cartId;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,35 @@
+package com.example.demo.security;
+
+/**
+ * What the verification filter needs from a token that passed verification.
+ */
+public final class VerifiedToken {
+
+    private final String subject;
+    private final String keyId;
+    private final Long userId;
+    private final Long cartId;
+
+    public VerifiedToken(String subject, String keyId, Long userId, Long cartId) {
+        this.subject = subject;
+        this.keyId = keyId;
+        this.userId = userId;
+        this.cartId = cartId;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public String getKeyId() {
+        return keyId;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public Long getCartId() {
+        return cartId;
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.demo.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Date;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.example.demo.cache.ExpiringCache;
+
+/**
+ * Remembers tokens that already passed signature verification, keyed by their SHA-256 digest,
+ * until the token's own expiry.
+ */
+@Component
+public class VerifiedTokenCache {
+
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final ExpiringCache<String, VerifiedToken> cache;
+
+    public VerifiedTokenCache(@Value("${security.token-cache.max-size:10000}") int maximumSize) {
+        this.cache = new ExpiringCache<>("verified-tokens", maximumSize);
+    }
+
+    /**
+     * @return the verified token or {@code null} if the token has not been verified yet
+     */
+    public VerifiedToken get(String token) {
+        return cache.get(digest(token));
+    }
+
+    public void put(String token, VerifiedToken verifiedToken, Date expiresAt) {
+        // tokens without an expiry would never leave the cache on their own
+        if (expiresAt == null) {
+            return;
+        }
+        cache.put(digest(token), verifiedToken, expiresAt.getTime());
+    }
+
+    public long hitCount() {
+        return cache.hitCount();
+    }
+
+    public long missCount() {
+        return cache.missCount();
+    }
+
+    public long evictionCount() {
+        return cache.evictionCount();
+    }
+
+    private static String digest(String token) {
+        MessageDigest digest = SHA_256.get();
+        digest.reset();
+        return Base64.getEncoder().encodeToString(digest.digest(token.getBytes(StandardCharsets.US_ASCII)));
+    }
+}
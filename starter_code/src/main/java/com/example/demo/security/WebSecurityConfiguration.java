@@ -1,5 +1,6 @@
 package com.example.demo.security;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
@@ -17,22 +18,47 @@ public class WebSecurityConfiguration extends WebSecurityConfigurerAdapter {
 
     private UserDetailsServiceImpl userDetailsService;
     private BCryptPasswordEncoder bCryptPasswordEncoder;
+    private TokenService tokenService;
+    private VerifiedTokenCache verifiedTokenCache;
+    private LoginExecutor loginExecutor;
+    private LoginRateLimiter loginRateLimiter;
+    private GuestCartMerger guestCartMerger;
+    private int maxLoginRequestBytes;
 
     public WebSecurityConfiguration(UserDetailsServiceImpl userDetailsService,
-                                    BCryptPasswordEncoder bCryptPasswordEncoder) {
+                                    BCryptPasswordEncoder bCryptPasswordEncoder,
+                                    TokenService tokenService,
+                                    VerifiedTokenCache verifiedTokenCache,
+                                    LoginExecutor loginExecutor,
+                                    LoginRateLimiter loginRateLimiter,
+                                    GuestCartMerger guestCartMerger,
+                                    @Value("${security.login.max-request-bytes:4096}") int maxLoginRequestBytes) {
         this.userDetailsService = userDetailsService;
         this.bCryptPasswordEncoder = bCryptPasswordEncoder;
+        this.tokenService = tokenService;
+        this.verifiedTokenCache = verifiedTokenCache;
+        this.loginExecutor = loginExecutor;
+        this.loginRateLimiter = loginRateLimiter;
+        this.guestCartMerger = guestCartMerger;
+        this.maxLoginRequestBytes = maxLoginRequestBytes;
     }
 
     @Override
     protected void configure(HttpSecurity http) throws Exception {
+        JWTAuthenticationFilter authenticationFilter =
+                new JWTAuthenticationFilter(authenticationManager(), tokenService, loginExecutor, loginRateLimiter);
+        authenticationFilter.setMaxRequestBytes(maxLoginRequestBytes);
+        authenticationFilter.setGuestCartMerger(guestCartMerger);
+
         http.cors().and().csrf().disable().authorizeRequests()
                 .antMatchers(HttpMethod.POST, SecurityConstants.SIGN_UP_URL).permitAll()
+                .antMatchers(HttpMethod.POST, SecurityConstants.REFRESH_URL, SecurityConstants.REVOKE_URL).permitAll()
                 .antMatchers(HttpMethod.GET, "/api/item").permitAll()
+                .antMatchers(SecurityConstants.GUEST_CART_URL).permitAll()
                 .anyRequest().authenticated()
                 .and()
-                .addFilter(new JWTAuthenticationFilter(authenticationManager()))
-                .addFilter(new JWTAuthenticationVerficationFilter(authenticationManager()))
+                .addFilter(authenticationFilter)
+                .addFilter(new JWTAuthenticationVerficationFilter(authenticationManager(), tokenService, verifiedTokenCache))
                 .sessionManagement().sessionCreationPolicy(SessionCreationPolicy.STATELESS);
 
         http.exceptionHandling().authenticationEntryPoint(new HttpStatusEntryPoint(HttpStatus.UNAUTHORIZED));
@@ -48,6 +74,7 @@ public class WebSecurityConfiguration extends WebSecurityConfigurerAdapter {
     protected void configure(AuthenticationManagerBuilder auth) throws Exception {
         auth
                 .userDetailsService(userDetailsService)
-                .passwordEncoder(bCryptPasswordEncoder);
+                .passwordEncoder(bCryptPasswordEncoder)
+                .userDetailsPasswordManager(userDetailsService);
     }
 }
\ No newline at end of file
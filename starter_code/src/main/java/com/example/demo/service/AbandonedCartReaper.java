@@ -0,0 +1,210 @@
+package com.example.demo.service;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import com.example.demo.model.persistence.ArchivedCartLine;
+import com.example.demo.model.persistence.Cart;
+import com.example.demo.model.persistence.CartLine;
+import com.example.demo.model.persistence.repositories.ArchivedCartLineRepository;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Empties carts that have not changed for {@code cart.reaper.idle-hours}, optionally keeping their lines in
+ * {@link ArchivedCartLine}. Candidates are found a small batch at a time and every cart is emptied through the
+ * {@link CartStore} in its own short change, so the reaper never holds many rows locked and a cart that changed
+ * in the meantime is left alone. With the write-behind store the lines are archived after the change, at most once.
+ */
+@Component
+@ConditionalOnProperty(name = "cart.reaper.enabled", havingValue = "true", matchIfMissing = true)
+public class AbandonedCartReaper {
+
+    private final Logger logger = LoggerFactory.getLogger(AbandonedCartReaper.class);
+
+    private final CartStore cartStore;
+    private final JdbcTemplate jdbcTemplate;
+    private final ArchivedCartLineRepository archivedCartLineRepository;
+    private final Duration idleTime;
+    private final int batchSize;
+    private final long intervalSeconds;
+    private final boolean archive;
+    // the write-behind store only journals the emptied cart, a save within the change would commit on its own
+    private final boolean archiveInChange;
+
+    private final LongAdder emptiedCarts = new LongAdder();
+    private final LongAdder reclaimedLines = new LongAdder();
+    private final Timer batchTimer;
+
+    private ScheduledExecutorService scheduler;
+
+    public AbandonedCartReaper(CartStore cartStore,
+                               JdbcTemplate jdbcTemplate,
+                               ArchivedCartLineRepository archivedCartLineRepository,
+                               @Value("${cart.reaper.idle-hours:720}") long idleHours,
+                               @Value("${cart.reaper.batch-size:50}") int batchSize,
+                               @Value("${cart.reaper.interval-seconds:600}") long intervalSeconds,
+                               @Value("${cart.reaper.archive:true}") boolean archive) {
+        this.cartStore = cartStore;
+        this.jdbcTemplate = jdbcTemplate;
+        this.archivedCartLineRepository = archivedCartLineRepository;
+        this.idleTime = Duration.ofHours(idleHours);
+        this.batchSize = Math.max(1, batchSize);
+        this.intervalSeconds = Math.max(1, intervalSeconds);
+        this.archive = archive;
+        this.archiveInChange = !(cartStore instanceof WriteBehindCartStore);
+
+        FunctionCounter.builder("cart.reaper.carts", emptiedCarts, LongAdder::sum)
+                .register(Metrics.globalRegistry);
+        FunctionCounter.builder("cart.reaper.lines", reclaimedLines, LongAdder::sum)
+                .register(Metrics.globalRegistry);
+        this.batchTimer = Timer.builder("cart.reaper.batch").register(Metrics.globalRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cart-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::reapQuietly, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Empties every cart that is idle for longer than the threshold, one batch at a time.
+     *
+     * @return the number of carts emptied
+     */
+    public int reap() {
+        Instant now = Instant.now();
+        Instant cutoff = now.minus(idleTime);
+        // carts from before change times were kept start their idle time now; the ids are read first,
+        // as not every database takes a limit within an in subquery
+        long lastUnstamped = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            List<Long> unstamped = jdbcTemplate.queryForList("select id from cart where id > ? and updated_at is null "
+                    + "order by id limit ?", Long.class, lastUnstamped, batchSize);
+            if (unstamped.isEmpty()) {
+                break;
+            }
+            jdbcTemplate.batchUpdate("update cart set updated_at = ? where id = ? and updated_at is null",
+                    unstamped.stream()
+                            .map(cartId -> new Object[] {Timestamp.from(now), cartId})
+                            .collect(Collectors.toList()));
+            lastUnstamped = unstamped.get(unstamped.size() - 1);
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            return 0;
+        }
+
+        int emptied = 0;
+        long lastId = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            List<Long> candidates = jdbcTemplate.queryForList("select c.id from cart c where c.id > ? and c.updated_at < ? "
+                    + "and exists (select 1 from cart_line l where l.cart_id = c.id) order by c.id limit ?",
+                    Long.class, lastId, Timestamp.from(cutoff), batchSize);
+            if (candidates.isEmpty()) {
+                break;
+            }
+            long startedAt = System.nanoTime();
+            for (Long cartId : candidates) {
+                List<ArchivedCartLine> archived = new ArrayList<>();
+                int lines;
+                try {
+                    lines = cartStore.update(cartId, cart -> empty(cart, cutoff, now, archived));
+                } catch (DataAccessException e) {
+                    // changed or removed meanwhile, it is looked at again with the next run
+                    logger.debug("Skipped abandoned cart={}", cartId, e);
+                    continue;
+                }
+                if (lines > 0) {
+                    emptied++;
+                    emptiedCarts.increment();
+                    reclaimedLines.add(lines);
+                }
+                if (!archiveInChange && !archived.isEmpty()) {
+                    archiveAfterChange(cartId, archived);
+                }
+            }
+            batchTimer.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+            lastId = candidates.get(candidates.size() - 1);
+        }
+        if (emptied > 0) {
+            logger.info("Emptied abandoned carts={}", emptied);
+        }
+        return emptied;
+    }
+
+    // the database row may be behind the store, so the cart itself decides
+    private int empty(Cart cart, Instant cutoff, Instant now, List<ArchivedCartLine> archived) {
+        // the change may run again
+        archived.clear();
+        if (cart.getUpdatedAt() == null || !cart.getUpdatedAt().isBefore(cutoff) || cart.getLines().isEmpty()) {
+            return 0;
+        }
+        int lines = cart.getLines().size();
+        if (archive) {
+            for (CartLine line : cart.getLines()) {
+                archived.add(new ArchivedCartLine(line, now));
+            }
+            if (archiveInChange) {
+                archivedCartLineRepository.saveAll(archived);
+            }
+        }
+        cart.clear();
+        return lines;
+    }
+
+    // only once the emptied cart is journaled, a failed append then leaves no archived lines behind to be archived again
+    private void archiveAfterChange(Long cartId, List<ArchivedCartLine> archived) {
+        try {
+            archivedCartLineRepository.saveAll(archived);
+        } catch (DataAccessException e) {
+            logger.warn("Lines={} of emptied cart={} could not be archived", archived.size(), cartId, e);
+        }
+    }
+
+    private void reapQuietly() {
+        try {
+            reap();
+        } catch (RuntimeException e) {
+            logger.error("Reaping abandoned carts failed", e);
+        }
+    }
+
+    public long getEmptiedCartCount() {
+        return emptiedCarts.sum();
+    }
+
+    public long getReclaimedLineCount() {
+        return reclaimedLines.sum();
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.demo.service;
+
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.PersistenceContext;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.demo.model.persistence.Cart;
+import com.example.demo.model.persistence.User;
+import com.example.demo.security.UserDetailsServiceImpl;
+
+/**
+ * Creates the cart of a user with its first cart change, so signing up only writes the user.
+ */
+@Service
+public class CartProvisioner {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final TransactionTemplate transactionTemplate;
+    private final UserDetailsServiceImpl userDetailsService;
+
+    public CartProvisioner(PlatformTransactionManager transactionManager, UserDetailsServiceImpl userDetailsService) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.userDetailsService = userDetailsService;
+    }
+
+    /**
+     * @return the id of the user's cart, created if the user has none yet
+     */
+    public Long cartIdOf(User user) {
+        if (user.getCart() != null) {
+            return user.getCart().getId();
+        }
+        Cart cart = transactionTemplate.execute(status -> {
+            User locked = entityManager.find(User.class, user.getId());
+            // a concurrent first change of the same user waits here and then finds the cart
+            entityManager.refresh(locked, LockModeType.PESSIMISTIC_WRITE);
+            if (locked.getCart() == null) {
+                Cart created = new Cart();
+                created.setUser(locked);
+                entityManager.persist(created);
+                locked.setCart(created);
+            }
+            return locked.getCart();
+        });
+        user.setCart(cart);
+        // the next login then puts the new cart id into the token
+        userDetailsService.evict(user.getUsername());
+        return cart.getId();
+    }
+}
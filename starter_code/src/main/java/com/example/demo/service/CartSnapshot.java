@@ -0,0 +1,101 @@
+package com.example.demo.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import com.example.demo.model.persistence.Cart;
+import com.example.demo.model.persistence.CartLine;
+
+/**
+ * The whole content of one cart as the journal records it and the database receives it.
+ * A journal line is {@code <crc32> <cartId> <version> <updatedAtMillis> <totalCents> <itemId>:<quantity>,...},
+ * so the last line of a cart is all that is needed to restore it. An unknown change time is written as 0.
+ */
+final class CartSnapshot {
+
+    private static final String NO_LINES = "-";
+
+    final long cartId;
+    final long version;
+    final long updatedAtMillis;
+    final long totalCents;
+    final long[] itemIds;
+    final int[] quantities;
+
+    CartSnapshot(long cartId, long version, long updatedAtMillis, long totalCents, long[] itemIds, int[] quantities) {
+        this.cartId = cartId;
+        this.version = version;
+        this.updatedAtMillis = updatedAtMillis;
+        this.totalCents = totalCents;
+        this.itemIds = itemIds;
+        this.quantities = quantities;
+    }
+
+    static CartSnapshot of(Cart cart) {
+        List<CartLine> lines = cart.getLines();
+        long[] itemIds = new long[lines.size()];
+        int[] quantities = new int[lines.size()];
+        for (int i = 0; i < lines.size(); i++) {
+            itemIds[i] = lines.get(i).getItem().getId();
+            quantities[i] = lines.get(i).getQuantity();
+        }
+        long updatedAtMillis = cart.getUpdatedAt() == null ? 0 : cart.getUpdatedAt().toEpochMilli();
+        return new CartSnapshot(cart.getId(), cart.getVersion(), updatedAtMillis, cart.getTotalCents(), itemIds, quantities);
+    }
+
+    byte[] encode() {
+        StringBuilder payload = new StringBuilder(32 + itemIds.length * 12)
+                .append(cartId).append(' ').append(version).append(' ')
+                .append(updatedAtMillis).append(' ').append(totalCents).append(' ');
+        if (itemIds.length == 0) {
+            payload.append(NO_LINES);
+        }
+        for (int i = 0; i < itemIds.length; i++) {
+            if (i > 0) {
+                payload.append(',');
+            }
+            payload.append(itemIds[i]).append(':').append(quantities[i]);
+        }
+        String body = payload.toString();
+        return (Long.toHexString(crc(body)) + ' ' + body + '\n').getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return the snapshot, or {@code null} if the line is torn or corrupt
+     */
+    static CartSnapshot decode(String line) {
+        int space = line.indexOf(' ');
+        if (space < 0) {
+            return null;
+        }
+        String body = line.substring(space + 1);
+        try {
+            if (Long.parseLong(line.substring(0, space), 16) != crc(body)) {
+                return null;
+            }
+            String[] fields = body.split(" ");
+            if (fields.length != 5) {
+                return null;
+            }
+            String[] lines = NO_LINES.equals(fields[4]) ? new String[0] : fields[4].split(",");
+            long[] itemIds = new long[lines.length];
+            int[] quantities = new int[lines.length];
+            for (int i = 0; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                itemIds[i] = Long.parseLong(lines[i].substring(0, colon));
+                quantities[i] = Integer.parseInt(lines[i].substring(colon + 1));
+            }
+            return new CartSnapshot(Long.parseLong(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                    Long.parseLong(fields[3]), itemIds, quantities);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static long crc(String body) {
+        CRC32 crc = new CRC32();
+        crc.update(body.getBytes(StandardCharsets.US_ASCII));
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.demo.service;
+
+import java.util.function.Function;
+
+import org.springframework.dao.OptimisticLockingFailureException;
+
+import com.example.demo.model.persistence.Cart;
+
+/**
+ * Where cart changes are applied and kept, chosen with {@code cart.store}:
+ * {@code jpa} writes each change to the database, {@code write-behind} keeps carts in memory
+ * behind a local journal and writes them to the database later.
+ */
+public interface CartStore {
+
+    /**
+     * Runs {@code change} on the current state of the cart and keeps the result. The change may run
+     * more than once, so it must only touch the cart it is given and what it creates itself.
+     *
+     * @return what {@code change} returned
+     * @throws OptimisticLockingFailureException if the cart kept changing concurrently and the change was given up
+     */
+    <T> T update(Long cartId, Function<Cart, T> change);
+
+    /**
+     * @return the current state of the cart, not to be changed by the caller
+     */
+    Cart get(Long cartId);
+
+    /**
+     * @return the current version of the cart, found without loading its lines
+     */
+    long getVersion(Long cartId);
+}
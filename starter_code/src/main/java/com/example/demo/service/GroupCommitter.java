@@ -0,0 +1,230 @@
+package com.example.demo.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.demo.model.persistence.Cart;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Runs cart changes that arrive together in one transaction, turned on with {@code order.submit.group-commit}.
+ * A single thread takes the changes queued while it committed the last group, waiting up to {@code max-wait-millis}
+ * for more, at most {@code max-size} of them, and applies them
+ * to the {@link JpaCartStore} inside one transaction, so their inserts go out in shared JDBC batches and they
+ * share one commit. The callers wait for that commit, at most {@code timeout-millis}. If the group fails, every
+ * change of it is run again on its own, so one failing change only fails its own caller.
+ */
+@Service
+@ConditionalOnProperty(name = "order.submit.group-commit", havingValue = "true")
+public class GroupCommitter {
+
+    private final Logger logger = LoggerFactory.getLogger(GroupCommitter.class);
+
+    private final JpaCartStore cartStore;
+    private final TransactionTemplate transactionTemplate;
+    private final long maxWaitNanos;
+    private final int maxSize;
+    private final long timeoutMillis;
+
+    private final BlockingQueue<Change<?>> queue = new LinkedBlockingQueue<>();
+    private final Thread committer;
+
+    private final LongAdder groups = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private final DistributionSummary groupSize;
+
+    public GroupCommitter(CartStore cartStore,
+                          PlatformTransactionManager transactionManager,
+                          @Value("${order.submit.group-commit.max-wait-millis:0}") long maxWaitMillis,
+                          @Value("${order.submit.group-commit.max-size:32}") int maxSize,
+                          @Value("${order.submit.group-commit.timeout-millis:30000}") long timeoutMillis) {
+        if (!(cartStore instanceof JpaCartStore)) {
+            // the write-behind store changes carts outside of any transaction, a rollback would not undo them
+            throw new IllegalStateException("order.submit.group-commit needs cart.store=jpa");
+        }
+        this.cartStore = (JpaCartStore) cartStore;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMillis));
+        this.maxSize = Math.max(1, maxSize);
+        this.timeoutMillis = Math.max(1, timeoutMillis);
+
+        FunctionCounter.builder("order.submit.groups", groups, LongAdder::sum)
+                .register(Metrics.globalRegistry);
+        FunctionCounter.builder("order.submit.group_fallbacks", fallbacks, LongAdder::sum)
+                .register(Metrics.globalRegistry);
+        this.groupSize = DistributionSummary.builder("order.submit.group_size").register(Metrics.globalRegistry);
+
+        committer = new Thread(this::work, "order-group-commit");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        committer.interrupt();
+        committer.join(TimeUnit.SECONDS.toMillis(10));
+        List<Change<?>> left = new ArrayList<>();
+        queue.drainTo(left);
+        for (Change<?> change : left) {
+            change.result.completeExceptionally(new IllegalStateException("Shutting down"));
+        }
+    }
+
+    /**
+     * Runs {@code change} as {@link CartStore#update} does, together with the changes of other callers,
+     * and waits for it to be committed.
+     *
+     * @return what {@code change} returned
+     * @throws IllegalStateException if the commit took longer than the timeout; a change that had not started
+     *                               by then never runs, one that had may still be committed
+     */
+    public <T> T update(Long cartId, Function<Cart, T> change) {
+        Change<T> queued = new Change<>(cartId, change);
+        queue.add(queued);
+        try {
+            return queued.result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the group commit", e);
+        } catch (TimeoutException e) {
+            if (queued.taken.compareAndSet(false, true)) {
+                queue.remove(queued);
+                throw new IllegalStateException("Change of cart " + cartId + " was not started within "
+                        + timeoutMillis + " ms and is withdrawn", e);
+            }
+            logger.warn("Change of cart={} is still being committed after {} ms", cartId, timeoutMillis);
+            throw new IllegalStateException("Change of cart " + cartId + " was not committed within "
+                    + timeoutMillis + " ms, it may still be", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public long getGroupCount() {
+        return groups.sum();
+    }
+
+    public long getFallbackCount() {
+        return fallbacks.sum();
+    }
+
+    private void work() {
+        List<Change<?>> group = new ArrayList<>(maxSize);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                group.add(queue.take());
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (group.size() < maxSize) {
+                    Change<?> next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    group.add(next);
+                }
+            } catch (InterruptedException e) {
+                for (Change<?> change : group) {
+                    change.result.completeExceptionally(new IllegalStateException("Shutting down"));
+                }
+                return;
+            }
+            // a caller that timed out withdrew its change
+            group.removeIf(change -> !change.taken.compareAndSet(false, true));
+            try {
+                if (!group.isEmpty()) {
+                    commit(group);
+                }
+            } catch (Throwable e) {
+                // the thread goes on, its callers must not wait for a commit that never comes
+                logger.error("Group of changes={} failed unexpectedly", group.size(), e);
+                for (Change<?> change : group) {
+                    change.result.completeExceptionally(e);
+                }
+            }
+            group.clear();
+        }
+    }
+
+    private void commit(List<Change<?>> group) {
+        groups.increment();
+        groupSize.record(group.size());
+        if (group.size() > 1) {
+            // the same order for every group, so two groups never wait for each other's cart rows
+            group.sort(Comparator.comparing(change -> change.cartId));
+            List<Long> cartIds = new ArrayList<>(group.size());
+            group.forEach(change -> cartIds.add(change.cartId));
+            try {
+                // the cart locks are held until the commit, a request thread that holds one of them and waits
+                // for a row of the group would otherwise stall the group on a lock the database cannot see
+                List<Object> results = cartStore.withLocks(cartIds, () -> transactionTemplate.execute(status -> {
+                    List<Object> applied = new ArrayList<>(group.size());
+                    for (Change<?> change : group) {
+                        applied.add(cartStore.update(change.cartId, change.change));
+                    }
+                    return applied;
+                }));
+                for (int i = 0; i < group.size(); i++) {
+                    group.get(i).complete(results.get(i));
+                }
+                return;
+            } catch (RuntimeException | Error e) {
+                fallbacks.increment();
+                logger.warn("Group of changes={} failed, committing them one by one: {}", group.size(), e.getMessage());
+            }
+        }
+        for (Change<?> change : group) {
+            try {
+                change.complete(cartStore.update(change.cartId, change.change));
+            } catch (RuntimeException | Error e) {
+                change.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static final class Change<T> {
+
+        private final Long cartId;
+        private final Function<Cart, T> change;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        // by the committer to run it, or by its caller to withdraw it, whoever comes first
+        private final AtomicBoolean taken = new AtomicBoolean();
+
+        Change(Long cartId, Function<Cart, T> change) {
+            this.cartId = cartId;
+            this.change = change;
+        }
+
+        @SuppressWarnings("unchecked")
+        void complete(Object value) {
+            result.complete((T) value);
+        }
+    }
+}
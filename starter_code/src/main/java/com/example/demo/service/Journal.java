@@ -0,0 +1,265 @@
+package com.example.demo.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.LongPredicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only log of one-line records, split into numbered segment files named {@code <prefix><number>.journal}.
+ * Appends from many threads share one fsync: whoever syncs forces everything written so far,
+ * and the others find their record already durable. The owner rolls the segment once the records in it
+ * are stored elsewhere and deletes it after that. An owner that cannot tell by itself when that is appends records
+ * with a key instead, and {@link #release(LongPredicate)} deletes the segments once all their keys are settled.
+ */
+class Journal implements Closeable {
+
+    private static final String SUFFIX = ".journal";
+
+    private final Logger logger = LoggerFactory.getLogger(Journal.class);
+
+    private final Path directory;
+    private final String prefix;
+    private final boolean fsync;
+
+    // lock order is releaseLock, then syncLock, then this
+    private final Object releaseLock = new Object();
+    private final Object syncLock = new Object();
+
+    private FileChannel channel;
+    private long segment;
+    private long written;
+    private long segmentStart;
+    private volatile long synced;
+    private final List<Path> closedSegments = new ArrayList<>();
+    // keys of the current segment, and of each closed one the keys not seen settled yet
+    private Set<Long> keys = new HashSet<>();
+    private final Map<Path, Set<Long>> closedKeys = new HashMap<>();
+
+    Journal(Path directory, String prefix, boolean fsync) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.prefix = prefix;
+        this.fsync = fsync;
+    }
+
+    /**
+     * Reads the existing segments, oldest first, and opens a new one after them.
+     *
+     * @param decoder turns a line into its record, or into {@code null} if the line is corrupt
+     * @return the records found, in the order they were appended
+     */
+    <T> List<T> replay(Function<String, T> decoder) throws IOException {
+        return replay(decoder, record -> null);
+    }
+
+    /**
+     * @param keyOf the key a replayed record holds its segment by, or {@code null} if it holds none
+     */
+    synchronized <T> List<T> replay(Function<String, T> decoder, Function<T, Long> keyOf) throws IOException {
+        List<T> records = new ArrayList<>();
+        for (Path path : segments()) {
+            List<T> segmentRecords = read(path, decoder);
+            Set<Long> segmentKeys = new HashSet<>();
+            for (T record : segmentRecords) {
+                Long key = keyOf.apply(record);
+                if (key != null) {
+                    segmentKeys.add(key);
+                }
+            }
+            records.addAll(segmentRecords);
+            closedSegments.add(path);
+            closedKeys.put(path, segmentKeys);
+            segment = Math.max(segment, number(path));
+        }
+        open(segment + 1);
+        return records;
+    }
+
+    /**
+     * Reads one segment. Reading stops at the first torn or corrupt record, which can only be the tail of a crash.
+     */
+    <T> List<T> read(Path path, Function<String, T> decoder) throws IOException {
+        List<T> records = new ArrayList<>();
+        byte[] bytes = Files.readAllBytes(path);
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == '\n') {
+                T record = decoder.apply(new String(bytes, start, i - start, StandardCharsets.US_ASCII));
+                if (record == null) {
+                    logger.warn("Journal {} has a corrupt record, ignoring the rest of it", path.getFileName());
+                    return records;
+                }
+                records.add(record);
+                start = i + 1;
+            }
+        }
+        if (start < bytes.length) {
+            logger.warn("Journal {} ends with a torn record", path.getFileName());
+        }
+        return records;
+    }
+
+    /**
+     * @param record one line, ending with {@code '\n'}
+     */
+    void append(byte[] record) throws IOException {
+        write(record, null);
+    }
+
+    /**
+     * Appends a record that keeps its segment from being released until the key is settled.
+     *
+     * @param record one line, ending with {@code '\n'}
+     */
+    void append(byte[] record, long key) throws IOException {
+        write(record, key);
+    }
+
+    private void write(byte[] record, Long key) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        long end;
+        synchronized (this) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            // taken with the write, a roll cannot get between them
+            if (key != null) {
+                keys.add(key);
+            }
+            written += buffer.capacity();
+            end = written;
+        }
+        if (fsync && synced < end) {
+            sync(end);
+        }
+    }
+
+    private void sync(long end) throws IOException {
+        synchronized (syncLock) {
+            if (synced >= end) {
+                return;
+            }
+            long target;
+            FileChannel current;
+            synchronized (this) {
+                target = written;
+                current = channel;
+            }
+            // appends go on while forcing, the next sync picks them up together
+            current.force(false);
+            synced = target;
+        }
+    }
+
+    /**
+     * Closes the current segment and starts the next one, unless nothing was appended to it yet.
+     *
+     * @return every closed segment that was not deleted yet, oldest first
+     */
+    List<Path> roll() throws IOException {
+        synchronized (syncLock) {
+            synchronized (this) {
+                if (written == segmentStart) {
+                    return new ArrayList<>(closedSegments);
+                }
+                if (fsync) {
+                    channel.force(false);
+                }
+                synced = written;
+                channel.close();
+                closedSegments.add(path(segment));
+                closedKeys.put(path(segment), keys);
+                keys = new HashSet<>();
+                open(segment + 1);
+                return new ArrayList<>(closedSegments);
+            }
+        }
+    }
+
+    synchronized void delete(List<Path> paths) throws IOException {
+        for (Path path : paths) {
+            Files.deleteIfExists(path);
+            closedSegments.remove(path);
+            closedKeys.remove(path);
+        }
+    }
+
+    /**
+     * Rolls the current segment, then deletes the closed segments, oldest first, as long as all their keys are settled.
+     * Going oldest first keeps a record at least as long as the ones before it. The segments are not read again,
+     * and a key seen settled once is not checked again.
+     */
+    void release(LongPredicate settled) throws IOException {
+        synchronized (releaseLock) {
+            List<Path> released = new ArrayList<>();
+            for (Path path : roll()) {
+                Set<Long> pending;
+                synchronized (this) {
+                    pending = closedKeys.get(path);
+                }
+                // only released here once closed, under the release lock
+                if (pending != null) {
+                    pending.removeIf(settled::test);
+                    if (!pending.isEmpty()) {
+                        break;
+                    }
+                }
+                released.add(path);
+            }
+            delete(released);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (syncLock) {
+            synchronized (this) {
+                if (fsync) {
+                    channel.force(false);
+                }
+                channel.close();
+            }
+        }
+    }
+
+    private void open(long number) throws IOException {
+        segment = number;
+        segmentStart = written;
+        channel = FileChannel.open(path(number),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*" + SUFFIX)) {
+            stream.forEach(paths::add);
+        }
+        paths.sort((a, b) -> Long.compare(number(a), number(b)));
+        return paths;
+    }
+
+    private Path path(long number) {
+        return directory.resolve(String.format("%s%08d%s", prefix, number, SUFFIX));
+    }
+
+    private long number(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(prefix.length(), name.length() - SUFFIX.length()));
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.demo.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import javax.persistence.EntityManager;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.PersistenceContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.demo.model.persistence.Cart;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Writes every cart change straight to the database so that concurrent requests for the same cart cannot
+ * overwrite each other. Writers of one cart queue on a striped lock within this node, and the cart version
+ * catches a stale copy from another node or from before the lock was taken; the change is then replayed on a fresh copy.
+ */
+@Service
+@ConditionalOnProperty(name = "cart.store", havingValue = "jpa", matchIfMissing = true)
+public class JpaCartStore implements CartStore {
+
+    private final Logger logger = LoggerFactory.getLogger(JpaCartStore.class);
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final TransactionTemplate transactionTemplate;
+    private final ReentrantLock[] locks;
+    private final int maxAttempts;
+
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+
+    public JpaCartStore(PlatformTransactionManager transactionManager,
+                       @Value("${cart.update.lock-stripes:64}") int stripes,
+                       @Value("${cart.update.max-attempts:3}") int maxAttempts) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.locks = new ReentrantLock[Integer.highestOneBit(Math.max(1, stripes - 1)) << 1];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        this.maxAttempts = Math.max(1, maxAttempts);
+
+        FunctionCounter.builder("cart.update.retries", retries, LongAdder::sum)
+                .register(Metrics.globalRegistry);
+        FunctionCounter.builder("cart.update.conflicts", conflicts, LongAdder::sum)
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * Runs {@code change} on the cart in its own transaction.
+     */
+    @Override
+    public <T> T update(Long cartId, Function<Cart, T> change) {
+        ReentrantLock lock = locks[stripe(cartId)];
+        lock.lock();
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    // the cart update checks the version read here, a stale copy rolls back with all its lines
+                    return transactionTemplate.execute(status -> change.apply(entityManager.find(Cart.class, cartId)));
+                } catch (OptimisticLockException | OptimisticLockingFailureException e) {
+                    // the rollback cleared the persistence context, the next attempt reads the cart again
+                    if (attempt >= maxAttempts) {
+                        conflicts.increment();
+                        logger.warn("Cart={} still changed concurrently after {} attempts", cartId, attempt);
+                        throw new ObjectOptimisticLockingFailureException(Cart.class, cartId, e);
+                    }
+                    retries.increment();
+                    logger.debug("Cart={} changed concurrently, retrying", cartId);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs {@code work} holding the locks of all the given carts, taken in one order. An {@link #update} of
+     * these carts within it, e.g. several joining one outer transaction, then never waits for a lock while
+     * that transaction already holds cart rows, a wait the database could not see.
+     */
+    public <T> T withLocks(Collection<Long> cartIds, Supplier<T> work) {
+        SortedSet<Integer> stripes = new TreeSet<>();
+        for (Long cartId : cartIds) {
+            stripes.add(stripe(cartId));
+        }
+        List<ReentrantLock> held = new ArrayList<>(stripes.size());
+        try {
+            for (int stripe : stripes) {
+                locks[stripe].lock();
+                held.add(locks[stripe]);
+            }
+            return work.get();
+        } finally {
+            for (ReentrantLock lock : held) {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public Cart get(Long cartId) {
+        return find(cartId);
+    }
+
+    /**
+     * Reads only the version column, neither the cart nor its user are loaded.
+     */
+    @Override
+    public long getVersion(Long cartId) {
+        List<Long> versions = entityManager
+                .createQuery("select c.version from Cart c where c.id = :id", Long.class)
+                .setParameter("id", cartId)
+                .getResultList();
+        if (versions.isEmpty()) {
+            throw new EmptyResultDataAccessException("No cart with id " + cartId, 1);
+        }
+        return versions.get(0);
+    }
+
+    public long getRetryCount() {
+        return retries.sum();
+    }
+
+    public long getConflictCount() {
+        return conflicts.sum();
+    }
+
+    private Cart find(Long cartId) {
+        Cart cart = entityManager.find(Cart.class, cartId);
+        if (cart == null) {
+            throw new EmptyResultDataAccessException("No cart with id " + cartId, 1);
+        }
+        return cart;
+    }
+
+    int stripe(Long cartId) {
+        long id = cartId == null ? 0 : cartId;
+        // spread sequential ids over the stripes
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (locks.length - 1);
+    }
+}
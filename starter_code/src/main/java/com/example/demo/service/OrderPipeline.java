@@ -0,0 +1,432 @@
+package com.example.demo.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManagerFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.demo.model.persistence.Cart;
+import com.example.demo.model.persistence.OrderLine;
+import com.example.demo.model.persistence.UserOrder;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Takes order submission off the request, turned on with {@code order.submit.async}. Submitting empties the cart
+ * into a {@link PendingOrder} that is appended to a local {@link Journal} in the same cart change, confirms it in the
+ * journal once that change is committed, and answers with the id the order will have. Worker threads then store the
+ * queued orders in JDBC batches. On startup the journal is replayed, so an accepted order survives a crash; orders
+ * already stored by then are skipped, and so are orders whose cart change may not have been committed.
+ * <p>
+ * Only one node may use a given journal directory.
+ */
+@Service
+@ConditionalOnProperty(name = "order.submit.async", havingValue = "true")
+public class OrderPipeline {
+
+    private final Logger logger = LoggerFactory.getLogger(OrderPipeline.class);
+
+    private final CartStore cartStore;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final EntityIds orderIds;
+    private final EntityIds orderLineIds;
+    private final Journal journal;
+    private final int capacity;
+    private final int workers;
+    private final int batchSize;
+    private final int retryAfterSeconds;
+
+    private final BlockingQueue<PendingOrder> queue = new LinkedBlockingQueue<>();
+    // accepted and not stored yet, an id is added before its order reaches the journal
+    private final Set<Long> outstanding = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Map<Long, Boolean> failed;
+    private final ReentrantLock journalCleanup = new ReentrantLock();
+
+    private final LongAdder placed = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final Timer batchTimer;
+
+    private ExecutorService executor;
+
+    public OrderPipeline(CartStore cartStore,
+                         JdbcTemplate jdbcTemplate,
+                         PlatformTransactionManager transactionManager,
+                         EntityManagerFactory entityManagerFactory,
+                         @Value("${order.submit.journal.dir:order-journal}") String journalDirectory,
+                         @Value("${order.submit.journal.fsync:true}") boolean fsync,
+                         @Value("${order.submit.queue-capacity:1000}") int capacity,
+                         @Value("${order.submit.workers:2}") int workers,
+                         @Value("${order.submit.batch-size:50}") int batchSize,
+                         @Value("${order.submit.retry-after-seconds:1}") int retryAfterSeconds) throws IOException {
+        this.cartStore = cartStore;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.orderIds = new EntityIds(entityManagerFactory, UserOrder.class);
+        this.orderLineIds = new EntityIds(entityManagerFactory, OrderLine.class);
+        this.journal = new Journal(Paths.get(journalDirectory), "order-", fsync);
+        this.capacity = Math.max(1, capacity);
+        this.workers = Math.max(1, workers);
+        this.batchSize = Math.max(1, batchSize);
+        this.retryAfterSeconds = retryAfterSeconds;
+        // the recent failures only, for the status of an order
+        int failuresKept = this.capacity;
+        this.failed = Collections.synchronizedMap(new LinkedHashMap<Long, Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+                return size() > failuresKept;
+            }
+        });
+
+        Gauge.builder("order.submit.queue", queued, AtomicInteger::get)
+                .register(Metrics.globalRegistry);
+        FunctionCounter.builder("order.submit.placed", placed, LongAdder::sum)
+                .register(Metrics.globalRegistry);
+        FunctionCounter.builder("order.submit.failures", failures, LongAdder::sum)
+                .register(Metrics.globalRegistry);
+        FunctionCounter.builder("order.submit.rejected", rejected, LongAdder::sum)
+                .register(Metrics.globalRegistry);
+        this.batchTimer = Timer.builder("order.submit.batch").register(Metrics.globalRegistry);
+    }
+
+    /**
+     * Queues the orders left in the journal, then starts the workers.
+     */
+    @PostConstruct
+    public void start() throws IOException {
+        Map<Long, PendingOrder> pending = new LinkedHashMap<>();
+        Set<Long> confirmed = new HashSet<>();
+        for (PendingOrder order : journal.replay(PendingOrder::decode, OrderPipeline::holder)) {
+            if (order.dropped) {
+                pending.remove(order.orderId);
+                confirmed.remove(order.orderId);
+            } else if (order.confirmed) {
+                confirmed.add(order.orderId);
+            } else {
+                pending.put(order.orderId, order);
+            }
+        }
+        Map<Long, PendingOrder> replayed = new LinkedHashMap<>();
+        for (PendingOrder order : pending.values()) {
+            if (confirmed.contains(order.orderId)) {
+                replayed.put(order.orderId, order);
+            } else if (emptiedBy(order)) {
+                // committed before the crash, confirmed now so it no longer depends on the cart staying as it is
+                append(PendingOrder.confirmed(order.orderId));
+                replayed.put(order.orderId, order);
+            } else {
+                logger.warn("Order={} of user={} is not placed, emptying its cart was not committed",
+                        order.orderId, order.userId);
+            }
+        }
+        // replayed orders were accepted already, they may go over the capacity
+        outstanding.addAll(replayed.keySet());
+        queued.addAndGet(replayed.size());
+        queue.addAll(replayed.values());
+        if (!replayed.isEmpty()) {
+            logger.info("Queued orders={} from the order journal", replayed.size());
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "order-writer-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < workers; i++) {
+            executor.execute(this::work);
+        }
+    }
+
+    /**
+     * Orders still queued stay in the journal and are stored after the next start.
+     */
+    @PreDestroy
+    public void close() throws IOException, InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        journal.close();
+    }
+
+    /**
+     * Empties the cart into a new order that is stored later.
+     *
+     * @return the id of the order
+     * @throws RejectedExecutionException if the queue is full, the cart is left alone then
+     */
+    public long submit(long userId, Long cartId) {
+        if (queued.incrementAndGet() > capacity) {
+            queued.decrementAndGet();
+            rejected.increment();
+            throw new RejectedExecutionException("The order queue is full");
+        }
+        long orderId;
+        try {
+            orderId = orderIds.next();
+        } catch (RuntimeException e) {
+            queued.decrementAndGet();
+            throw e;
+        }
+        outstanding.add(orderId);
+        PendingOrder order;
+        try {
+            order = cartStore.update(cartId, cart -> {
+                PendingOrder pending = PendingOrder.of(orderId, userId, cart);
+                // durable before the cart is emptied; a retried change appends again and the last record counts
+                append(pending);
+                cart.clear();
+                return pending;
+            });
+        } catch (RuntimeException e) {
+            queued.decrementAndGet();
+            // the order may be in the journal already, it must not be placed after a restart
+            try {
+                append(PendingOrder.dropped(orderId));
+            } catch (UncheckedIOException dropFailure) {
+                e.addSuppressed(dropFailure);
+            }
+            outstanding.remove(orderId);
+            throw e;
+        }
+        // until now a crash left the order to the cart check on replay, which a later cart change defeats
+        try {
+            append(PendingOrder.confirmed(orderId));
+        } catch (UncheckedIOException e) {
+            // the cart is empty already, the order is still placed unless the process dies first
+            logger.warn("Confirming order={} could not be journaled", orderId, e);
+        }
+        queue.add(order);
+        return orderId;
+    }
+
+    /**
+     * @return whether the order was accepted and is not stored yet
+     */
+    public boolean isQueued(long orderId) {
+        return outstanding.contains(orderId);
+    }
+
+    /**
+     * @return whether the order was accepted but could not be stored, known for recent failures only
+     */
+    public boolean isFailed(long orderId) {
+        return failed.containsKey(orderId);
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    public int getQueueSize() {
+        return queued.get();
+    }
+
+    public long getPlacedCount() {
+        return placed.sum();
+    }
+
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    private void work() {
+        List<PendingOrder> batch = new ArrayList<>(batchSize);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, batchSize - 1);
+            try {
+                place(batch);
+            } catch (RuntimeException e) {
+                // the database is unavailable, the orders are tried again after a pause
+                logger.error("Storing orders={} failed, retrying", batch.size(), e);
+                batch.removeIf(order -> !outstanding.contains(order.orderId));
+                queue.addAll(batch);
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(Math.max(1, retryAfterSeconds)));
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+            batch.clear();
+            releaseJournalQuietly();
+        }
+    }
+
+    private void place(List<PendingOrder> batch) {
+        long startedAt = System.nanoTime();
+        try {
+            write(batch);
+            done(batch);
+        } catch (DataIntegrityViolationException e) {
+            // one bad order must not hold back the others of its batch
+            for (PendingOrder order : batch) {
+                try {
+                    write(Collections.singletonList(order));
+                    done(Collections.singletonList(order));
+                } catch (DataIntegrityViolationException orderFailure) {
+                    fail(order, orderFailure);
+                }
+            }
+        } finally {
+            batchTimer.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void write(List<PendingOrder> batch) {
+        transactionTemplate.execute(status -> {
+            // a replayed order may have been stored before the crash
+            Set<Long> stored = new HashSet<>(jdbcTemplate.queryForList(
+                    "select id from user_order where id in (" + String.join(",", Collections.nCopies(batch.size(), "?")) + ")",
+                    Long.class, batch.stream().map(order -> order.orderId).toArray()));
+            List<PendingOrder> orders = new ArrayList<>(batch.size());
+            for (PendingOrder order : batch) {
+                if (!stored.contains(order.orderId)) {
+                    orders.add(order);
+                }
+            }
+            jdbcTemplate.batchUpdate("insert into user_order (id, user_id, total) values (?, ?, ?)",
+                    orders, Math.max(1, orders.size()), (statement, order) -> {
+                        statement.setLong(1, order.orderId);
+                        statement.setLong(2, order.userId);
+                        statement.setBigDecimal(3, BigDecimal.valueOf(order.totalCents, 2));
+                    });
+
+            int lineCount = 0;
+            for (PendingOrder order : orders) {
+                lineCount += order.itemIds.length;
+            }
+            long[] lineIds = orderLineIds.next(lineCount);
+            List<Object[]> lines = new ArrayList<>(lineCount);
+            for (PendingOrder order : orders) {
+                for (int line = 0; line < order.itemIds.length; line++) {
+                    lines.add(new Object[] {lineIds[lines.size()], order.orderId, order.itemIds[line], order.names[line],
+                            BigDecimal.valueOf(order.priceCents[line], 2), order.quantities[line]});
+                }
+            }
+            jdbcTemplate.batchUpdate("insert into order_line (id, order_id, item_id, name, price, quantity) values (?, ?, ?, ?, ?, ?)",
+                    lines, Math.max(1, lines.size()), (statement, line) -> {
+                        statement.setLong(1, (Long) line[0]);
+                        statement.setLong(2, (Long) line[1]);
+                        statement.setLong(3, (Long) line[2]);
+                        statement.setString(4, (String) line[3]);
+                        statement.setBigDecimal(5, (BigDecimal) line[4]);
+                        statement.setInt(6, (Integer) line[5]);
+                    });
+            return null;
+        });
+    }
+
+    private void done(List<PendingOrder> orders) {
+        for (PendingOrder order : orders) {
+            outstanding.remove(order.orderId);
+            queued.decrementAndGet();
+        }
+        placed.add(orders.size());
+    }
+
+    private void fail(PendingOrder order, RuntimeException e) {
+        logger.error("Order={} of user={} could not be stored and is dropped", order.orderId, order.userId, e);
+        failed.put(order.orderId, Boolean.TRUE);
+        failures.increment();
+        try {
+            append(PendingOrder.dropped(order.orderId));
+        } catch (UncheckedIOException dropFailure) {
+            // the order is tried again after a restart and fails again
+            logger.warn("Dropping order={} could not be journaled", order.orderId, dropFailure);
+        }
+        outstanding.remove(order.orderId);
+        queued.decrementAndGet();
+    }
+
+    /**
+     * Whether the cart is still exactly as the order left it, empty with the version that change gave it.
+     */
+    private boolean emptiedBy(PendingOrder order) {
+        try {
+            return transactionTemplate.execute(status -> {
+                Cart cart = cartStore.get(order.cartId);
+                return cart != null && cart.getVersion() == order.cartVersion && cart.getLines().isEmpty();
+            });
+        } catch (RuntimeException e) {
+            logger.warn("Cart={} of order={} could not be read", order.cartId, order.orderId, e);
+            return false;
+        }
+    }
+
+    private void append(PendingOrder order) {
+        try {
+            Long orderId = holder(order);
+            if (orderId != null) {
+                journal.append(order.encode(), orderId);
+            } else {
+                journal.append(order.encode());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Order journal is not writable", e);
+        }
+    }
+
+    /**
+     * The order a record keeps its journal segment for. Confirmed and dropped records need none of their own,
+     * segments go oldest first and the order record comes before them.
+     */
+    private static Long holder(PendingOrder order) {
+        return order.confirmed || order.dropped ? null : order.orderId;
+    }
+
+    /**
+     * Deletes the oldest segments as long as none of their orders is outstanding.
+     */
+    private void releaseJournalQuietly() {
+        if (!journalCleanup.tryLock()) {
+            return;
+        }
+        try {
+            journal.release(orderId -> !outstanding.contains(orderId));
+        } catch (IOException e) {
+            logger.error("Releasing order journal segments failed", e);
+        } finally {
+            journalCleanup.unlock();
+        }
+    }
+}
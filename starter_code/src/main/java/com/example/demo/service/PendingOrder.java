@@ -0,0 +1,168 @@
+package com.example.demo.service;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import com.example.demo.model.persistence.Cart;
+import com.example.demo.model.persistence.CartLine;
+import com.example.demo.model.persistence.Item;
+
+/**
+ * An accepted order that is not stored yet, as the order journal records it.
+ * A journal line is {@code <crc32> <orderId> <userId> <cartId> <cartVersion> <totalCents> <itemId>:<quantity>:<priceCents>:<name>,...}
+ * with the item name URL encoded and the version the emptied cart gets, {@code <crc32> <orderId> confirmed} once
+ * that cart change is committed, or {@code <crc32> <orderId> dropped} for an order that must not be placed.
+ */
+final class PendingOrder {
+
+    private static final String NO_LINES = "-";
+    private static final String CONFIRMED = "confirmed";
+    private static final String DROPPED = "dropped";
+
+    final long orderId;
+    final long userId;
+    final long cartId;
+    final long cartVersion;
+    final long totalCents;
+    final long[] itemIds;
+    final int[] quantities;
+    final long[] priceCents;
+    final String[] names;
+    final boolean confirmed;
+    final boolean dropped;
+
+    PendingOrder(long orderId, long userId, long cartId, long cartVersion, long totalCents,
+                 long[] itemIds, int[] quantities, long[] priceCents, String[] names) {
+        this(orderId, userId, cartId, cartVersion, totalCents, itemIds, quantities, priceCents, names, false, false);
+    }
+
+    private PendingOrder(long orderId, long userId, long cartId, long cartVersion, long totalCents,
+                         long[] itemIds, int[] quantities, long[] priceCents, String[] names,
+                         boolean confirmed, boolean dropped) {
+        this.orderId = orderId;
+        this.userId = userId;
+        this.cartId = cartId;
+        this.cartVersion = cartVersion;
+        this.totalCents = totalCents;
+        this.itemIds = itemIds;
+        this.quantities = quantities;
+        this.priceCents = priceCents;
+        this.names = names;
+        this.confirmed = confirmed;
+        this.dropped = dropped;
+    }
+
+    /**
+     * The order of everything in the cart, priced as the cart is now. Emptying the cart is expected to raise
+     * its version by one.
+     */
+    static PendingOrder of(long orderId, long userId, Cart cart) {
+        List<CartLine> lines = cart.getLines();
+        long[] itemIds = new long[lines.size()];
+        int[] quantities = new int[lines.size()];
+        long[] priceCents = new long[lines.size()];
+        String[] names = new String[lines.size()];
+        for (int i = 0; i < lines.size(); i++) {
+            Item item = lines.get(i).getItem();
+            itemIds[i] = item.getId();
+            quantities[i] = lines.get(i).getQuantity();
+            priceCents[i] = item.getPrice().getCents();
+            names[i] = item.getName();
+        }
+        return new PendingOrder(orderId, userId, cart.getId(), cart.getVersion() + 1, cart.getTotalCents(),
+                itemIds, quantities, priceCents, names);
+    }
+
+    static PendingOrder confirmed(long orderId) {
+        return new PendingOrder(orderId, 0, 0, 0, 0, new long[0], new int[0], new long[0], new String[0], true, false);
+    }
+
+    static PendingOrder dropped(long orderId) {
+        return new PendingOrder(orderId, 0, 0, 0, 0, new long[0], new int[0], new long[0], new String[0], false, true);
+    }
+
+    byte[] encode() {
+        StringBuilder payload = new StringBuilder(32 + itemIds.length * 32).append(orderId).append(' ');
+        if (confirmed) {
+            payload.append(CONFIRMED);
+        } else if (dropped) {
+            payload.append(DROPPED);
+        } else {
+            payload.append(userId).append(' ').append(cartId).append(' ').append(cartVersion).append(' ')
+                    .append(totalCents).append(' ');
+            if (itemIds.length == 0) {
+                payload.append(NO_LINES);
+            }
+            for (int i = 0; i < itemIds.length; i++) {
+                if (i > 0) {
+                    payload.append(',');
+                }
+                payload.append(itemIds[i]).append(':').append(quantities[i]).append(':')
+                        .append(priceCents[i]).append(':').append(encodeName(names[i]));
+            }
+        }
+        String body = payload.toString();
+        return (Long.toHexString(crc(body)) + ' ' + body + '\n').getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return the order, or {@code null} if the line is torn or corrupt
+     */
+    static PendingOrder decode(String line) {
+        int space = line.indexOf(' ');
+        if (space < 0) {
+            return null;
+        }
+        String body = line.substring(space + 1);
+        try {
+            if (Long.parseLong(line.substring(0, space), 16) != crc(body)) {
+                return null;
+            }
+            String[] fields = body.split(" ");
+            if (fields.length == 2 && CONFIRMED.equals(fields[1])) {
+                return confirmed(Long.parseLong(fields[0]));
+            }
+            if (fields.length == 2 && DROPPED.equals(fields[1])) {
+                return dropped(Long.parseLong(fields[0]));
+            }
+            if (fields.length != 6) {
+                return null;
+            }
+            String[] lines = NO_LINES.equals(fields[5]) ? new String[0] : fields[5].split(",");
+            long[] itemIds = new long[lines.length];
+            int[] quantities = new int[lines.length];
+            long[] priceCents = new long[lines.length];
+            String[] names = new String[lines.length];
+            for (int i = 0; i < lines.length; i++) {
+                String[] parts = lines[i].split(":");
+                itemIds[i] = Long.parseLong(parts[0]);
+                quantities[i] = Integer.parseInt(parts[1]);
+                priceCents[i] = Long.parseLong(parts[2]);
+                names[i] = URLDecoder.decode(parts[3], "UTF-8");
+            }
+            return new PendingOrder(Long.parseLong(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                    Long.parseLong(fields[3]), Long.parseLong(fields[4]), itemIds, quantities, priceCents, names);
+        } catch (RuntimeException | UnsupportedEncodingException e) {
+            return null;
+        }
+    }
+
+    // no spaces, commas or colons are left, and the line stays ASCII
+    private static String encodeName(String name) {
+        try {
+            return URLEncoder.encode(name, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long crc(String body) {
+        CRC32 crc = new CRC32();
+        crc.update(body.getBytes(StandardCharsets.US_ASCII));
+        return crc.getValue();
+    }
+}
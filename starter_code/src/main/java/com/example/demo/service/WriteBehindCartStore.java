@@ -0,0 +1,373 @@
+package com.example.demo.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManagerFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.demo.model.persistence.Cart;
+import com.example.demo.model.persistence.CartLine;
+import com.example.demo.model.persistence.repositories.CartRepository;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Keeps active carts in memory and answers cart changes without touching the database.
+ * Each change is appended to a local {@link Journal} before it is acknowledged, and a background
+ * thread writes the changed carts to the cart tables in JDBC batches. On startup the journal is replayed
+ * over what the database already holds, so a crash loses nothing that was acknowledged.
+ * <p>
+ * Only one node may use this store for a given database, carts are not versioned against other writers.
+ * A change is not in a transaction, so what it writes to the database itself stays even if the journal
+ * append that follows fails.
+ */
+@Service
+@ConditionalOnProperty(name = "cart.store", havingValue = "write-behind")
+public class WriteBehindCartStore implements CartStore {
+
+    private final Logger logger = LoggerFactory.getLogger(WriteBehindCartStore.class);
+
+    private final CartRepository cartRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final EntityIds cartLineIds;
+    private final Journal journal;
+    private final long flushIntervalMillis;
+    private final int batchSize;
+    private final int maximumCarts;
+
+    private final Map<Long, Entry> carts = new ConcurrentHashMap<>();
+    private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder flushed = new LongAdder();
+    private final LongAdder flushFailures = new LongAdder();
+
+    private ScheduledExecutorService flusher;
+
+    @Autowired
+    public WriteBehindCartStore(CartRepository cartRepository,
+                                JdbcTemplate jdbcTemplate,
+                                PlatformTransactionManager transactionManager,
+                                EntityManagerFactory entityManagerFactory,
+                                @Value("${cart.store.journal.dir:cart-journal}") String journalDirectory,
+                                @Value("${cart.store.journal.fsync:true}") boolean fsync,
+                                @Value("${cart.store.flush-interval-millis:200}") long flushIntervalMillis,
+                                @Value("${cart.store.flush-batch-size:500}") int batchSize,
+                                @Value("${cart.store.max-carts:10000}") int maximumCarts) throws IOException {
+        this(cartRepository, jdbcTemplate, transactionManager, entityManagerFactory, new Journal(Paths.get(journalDirectory), "cart-", fsync),
+                flushIntervalMillis, batchSize, maximumCarts);
+    }
+
+    WriteBehindCartStore(CartRepository cartRepository,
+                         JdbcTemplate jdbcTemplate,
+                         PlatformTransactionManager transactionManager,
+                         EntityManagerFactory entityManagerFactory,
+                         Journal journal,
+                         long flushIntervalMillis,
+                         int batchSize,
+                         int maximumCarts) {
+        this.cartRepository = cartRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.cartLineIds = new EntityIds(entityManagerFactory, CartLine.class);
+        this.journal = journal;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.batchSize = Math.max(1, batchSize);
+        this.maximumCarts = maximumCarts;
+
+        FunctionCounter.builder("cart.store.flushed", flushed, LongAdder::sum)
+                .register(Metrics.globalRegistry);
+        FunctionCounter.builder("cart.store.flush_failures", flushFailures, LongAdder::sum)
+                .register(Metrics.globalRegistry);
+        Gauge.builder("cart.store.dirty", dirty, Set::size)
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * Replays the journal into the database, then starts flushing in the background.
+     */
+    @PostConstruct
+    public void start() throws IOException {
+        Map<Long, CartSnapshot> replayed = new LinkedHashMap<>();
+        // the last snapshot of a cart is its content
+        for (CartSnapshot snapshot : journal.replay(CartSnapshot::decode)) {
+            replayed.put(snapshot.cartId, snapshot);
+        }
+        if (!replayed.isEmpty()) {
+            write(replayed.values());
+            logger.info("Restored carts={} from the cart journal", replayed.size());
+        }
+        journal.delete(journal.roll());
+
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cart-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void close() throws IOException, InterruptedException {
+        flusher.shutdown();
+        flusher.awaitTermination(10, TimeUnit.SECONDS);
+        flush();
+        journal.close();
+    }
+
+    /**
+     * Runs {@code change} on a copy of the cart, which replaces the cart once it is in the journal.
+     * A change that throws leaves the cart as it was.
+     */
+    @Override
+    public <T> T update(Long cartId, Function<Cart, T> change) {
+        while (true) {
+            Entry entry = carts.computeIfAbsent(cartId, Entry::new);
+            synchronized (entry) {
+                if (entry.evicted) {
+                    continue;
+                }
+                Cart cart = copyOf(current(entry));
+                T result = change.apply(cart);
+                cart.setVersion(cart.getVersion() + 1);
+                CartSnapshot snapshot = CartSnapshot.of(cart);
+                // marked before the append, so a flush that rolls the segment meanwhile waits for this entry
+                // instead of deleting the segment that holds the only copy of the change
+                boolean marked = !entry.dirty;
+                if (marked) {
+                    entry.dirty = true;
+                    dirty.add(cartId);
+                }
+                boolean appended = false;
+                try {
+                    journal.append(snapshot.encode());
+                    appended = true;
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Cart journal is not writable", e);
+                } finally {
+                    if (!appended && marked) {
+                        entry.dirty = false;
+                        dirty.remove(cartId);
+                    }
+                }
+                entry.cart = cart;
+                entry.snapshot = snapshot;
+                return result;
+            }
+        }
+    }
+
+    @Override
+    public Cart get(Long cartId) {
+        while (true) {
+            Entry entry = carts.computeIfAbsent(cartId, Entry::new);
+            synchronized (entry) {
+                if (!entry.evicted) {
+                    return current(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Answered from memory for an active cart, otherwise from the version column, which is then up to date.
+     */
+    @Override
+    public long getVersion(Long cartId) {
+        Entry entry = carts.get(cartId);
+        if (entry != null) {
+            synchronized (entry) {
+                if (!entry.evicted && entry.cart != null) {
+                    return entry.cart.getVersion();
+                }
+            }
+        }
+        return jdbcTemplate.queryForObject("select version from cart where id = ?", Long.class, cartId);
+    }
+
+    /**
+     * Writes every changed cart to the database and drops the journal segments that are covered by it.
+     */
+    public synchronized void flush() throws IOException {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        // a change is marked dirty before it is appended and holds its entry until it is done, so every change
+        // in the rolled segments belongs to a cart collected below, whose snapshot is taken once it is done
+        List<Path> covered = journal.roll();
+        List<CartSnapshot> snapshots = new ArrayList<>();
+        for (Long cartId : dirty) {
+            dirty.remove(cartId);
+            Entry entry = carts.get(cartId);
+            if (entry == null) {
+                continue;
+            }
+            synchronized (entry) {
+                if (entry.dirty) {
+                    entry.dirty = false;
+                    snapshots.add(entry.snapshot);
+                }
+            }
+        }
+
+        try {
+            for (int from = 0; from < snapshots.size(); from += batchSize) {
+                write(snapshots.subList(from, Math.min(snapshots.size(), from + batchSize)));
+            }
+        } catch (RuntimeException e) {
+            flushFailures.increment();
+            // the journal keeps the changes, they are written again with the next flush
+            for (CartSnapshot snapshot : snapshots) {
+                Entry entry = carts.get(snapshot.cartId);
+                synchronized (entry) {
+                    if (!entry.dirty) {
+                        entry.dirty = true;
+                        dirty.add(snapshot.cartId);
+                    }
+                }
+            }
+            throw e;
+        }
+        flushed.add(snapshots.size());
+        journal.delete(covered);
+        evictCleanCarts();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException | RuntimeException e) {
+            logger.error("Flushing carts to the database failed", e);
+        }
+    }
+
+    private void write(Collection<CartSnapshot> snapshots) {
+        transactionTemplate.execute(status -> {
+            List<CartSnapshot> stored = new ArrayList<>(snapshots.size());
+            int[][] updated = jdbcTemplate.batchUpdate(
+                    "update cart set total = ?, version = ?, updated_at = coalesce(?, updated_at) where id = ?",
+                    snapshots, Math.max(1, snapshots.size()), (statement, snapshot) -> {
+                        statement.setBigDecimal(1, BigDecimal.valueOf(snapshot.totalCents, 2));
+                        statement.setLong(2, snapshot.version);
+                        statement.setTimestamp(3, snapshot.updatedAtMillis == 0 ? null : new Timestamp(snapshot.updatedAtMillis));
+                        statement.setLong(4, snapshot.cartId);
+                    });
+            int i = 0;
+            for (CartSnapshot snapshot : snapshots) {
+                if (updated[0][i++] == 0) {
+                    logger.warn("Cart={} no longer exists, its journaled content is dropped", snapshot.cartId);
+                } else {
+                    stored.add(snapshot);
+                }
+            }
+            jdbcTemplate.batchUpdate("delete from cart_line where cart_id = ?",
+                    stored, Math.max(1, stored.size()), (statement, snapshot) -> statement.setLong(1, snapshot.cartId));
+
+            int lineCount = 0;
+            for (CartSnapshot snapshot : stored) {
+                lineCount += snapshot.itemIds.length;
+            }
+            long[] lineIds = cartLineIds.next(lineCount);
+            List<long[]> lines = new ArrayList<>(lineCount);
+            for (CartSnapshot snapshot : stored) {
+                for (int line = 0; line < snapshot.itemIds.length; line++) {
+                    lines.add(new long[] {lineIds[lines.size()], snapshot.cartId, snapshot.itemIds[line], snapshot.quantities[line]});
+                }
+            }
+            jdbcTemplate.batchUpdate("insert into cart_line (id, cart_id, item_id, quantity) values (?, ?, ?, ?)",
+                    lines, Math.max(1, lines.size()), (statement, line) -> {
+                        statement.setLong(1, line[0]);
+                        statement.setLong(2, line[1]);
+                        statement.setLong(3, line[2]);
+                        statement.setInt(4, (int) line[3]);
+                    });
+            return null;
+        });
+    }
+
+    private void evictCleanCarts() {
+        for (Entry entry : carts.values()) {
+            if (carts.size() <= maximumCarts) {
+                return;
+            }
+            synchronized (entry) {
+                if (!entry.dirty) {
+                    entry.evicted = true;
+                    carts.remove(entry.cartId, entry);
+                }
+            }
+        }
+    }
+
+    private Cart current(Entry entry) {
+        if (entry.cart == null) {
+            entry.cart = load(entry.cartId);
+        }
+        return entry.cart;
+    }
+
+    private Cart load(Long cartId) {
+        return transactionTemplate.execute(status -> cartRepository.findById(cartId)
+                .map(WriteBehindCartStore::copyOf)
+                .orElseThrow(() -> new EmptyResultDataAccessException("No cart with id " + cartId, 1)));
+    }
+
+    private static Cart copyOf(Cart cart) {
+        Cart copy = new Cart();
+        copy.setId(cart.getId());
+        copy.setUser(cart.getUser());
+        copy.setTotalCents(cart.getTotalCents());
+        copy.setVersion(cart.getVersion());
+        copy.setUpdatedAt(cart.getUpdatedAt());
+        for (CartLine line : cart.getLines()) {
+            copy.getLines().add(new CartLine(copy, line.getItem(), line.getQuantity()));
+        }
+        return copy;
+    }
+
+    private static final class Entry {
+
+        private final Long cartId;
+
+        // the current content, replaced and never changed in place
+        private Cart cart;
+        private CartSnapshot snapshot;
+        private boolean dirty;
+        private boolean evicted;
+
+        Entry(Long cartId) {
+            this.cartId = cartId;
+        }
+    }
+}
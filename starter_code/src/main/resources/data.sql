@@ -2,4 +2,4 @@ insert into item (name, price, description) values ('Round Widget', 2.99, 'A wid
 insert into item (name, price, description) values ('Square Widget', 1.99, 'A widget that is square');
 insert into item (name, price, description) values ('Cuberdon', 3.2, 'cone-shaped candy with a melty core and a crisp crust');
 insert into item (name, price, description) values ('Vanparys', 2.5, 'coated with thin layers of sugar, and made in 50 colors');
-insert into user (username, password) values ('jenny', '$2a$10$tGUer3xynHBWR9aNWGGz4.w6OvddyLoOzRqxuFHDONugIIbae90G.')
+insert into user (id, username, password) values (next value for user_seq, 'jenny', '$2a$10$tGUer3xynHBWR9aNWGGz4.w6OvddyLoOzRqxuFHDONugIIbae90G.')
@@ -1,6 +1,7 @@
 package com.example.demo;
 
 import com.example.demo.model.persistence.Item;
+import com.example.demo.model.persistence.Money;
 import com.example.demo.model.persistence.User;
 import com.example.demo.model.requests.CreateUserRequest;
 import com.example.demo.model.requests.ModifyCartRequest;
@@ -9,18 +10,19 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
 import org.json.JSONObject;
-import org.junit.Test;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
-import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
-import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
@@ -33,26 +35,30 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Stream;
 
-import static org.junit.Assert.*;
-import static org.junit.Assert.assertEquals;
+import static org.junit.jupiter.api.Assertions.*;
 import static org.springframework.security.test.web.servlet.setup.SecurityMockMvcConfigurers.springSecurity;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
-@RunWith(SpringRunner.class)
+@ExtendWith(SpringExtension.class)
 @SpringBootTest
 @WebAppConfiguration
+// own database, data.sql would clash with the one of the other application tests
+@TestPropertySource(properties = {
+        "security.login.async=false",
+        "security.login.rate-limit.enabled=false",
+        "spring.datasource.url=jdbc:h2:mem:splunk;DB_CLOSE_DELAY=-1"})
 public class LoggingDataGeneratorForSplunk {
 
     private static final MediaType APPLICATION_JSON_UTF8 = new MediaType(
             MediaType.APPLICATION_JSON.getType(), MediaType.APPLICATION_JSON.getSubtype(), Charset.forName("utf8"));
 
     // same as data.sql
-    private static final Item ITEM_1 = new Item(1L, "Round Widget", BigDecimal.valueOf(2.99), "A widget that is round");
-    private static final Item ITEM_2 = new Item(2L, "Square Widget", BigDecimal.valueOf(1.99), "A widget that is square");
-    private static final Item ITEM_3 = new Item(3L, "Cuberdon", BigDecimal.valueOf(3.2), "cone-shaped candy with a melty core and a crisp crust");
-    private static final Item ITEM_4 = new Item(4L, "Vanparys", BigDecimal.valueOf(2.5), "coated with thin layers of sugar, and made in 50 colors");
+    private static final Item ITEM_1 = new Item(1L, "Round Widget", Money.of("2.99"), "A widget that is round");
+    private static final Item ITEM_2 = new Item(2L, "Square Widget", Money.of("1.99"), "A widget that is square");
+    private static final Item ITEM_3 = new Item(3L, "Cuberdon", Money.of("3.2"), "cone-shaped candy with a melty core and a crisp crust");
+    private static final Item ITEM_4 = new Item(4L, "Vanparys", Money.of("2.5"), "coated with thin layers of sugar, and made in 50 colors");
 
     private MockMvc mockMvc;
 
@@ -119,14 +125,14 @@ public class LoggingDataGeneratorForSplunk {
 
             for (List<ItemCount> order : orders) {
                 // variable to track the total value
-                BigDecimal totalPrice = BigDecimal.ZERO;
+                Money totalPrice = Money.ZERO;
 
                 // add items to cart
                 for (ItemCount itemCount : order) {
                     Item item = itemCount.getItem();
                     Integer count = itemCount.getCount();
                     // update the the total value
-                    totalPrice = totalPrice.add(item.getPrice().multiply(BigDecimal.valueOf(count)));
+                    totalPrice = totalPrice.plus(item.getPrice().times(count));
                     ModifyCartRequest cartRequest = new ModifyCartRequest();
                     cartRequest.setUsername(userRequest.getUsername());
                     cartRequest.setItemId(item.getId());
@@ -147,7 +153,7 @@ public class LoggingDataGeneratorForSplunk {
                         .andReturn();
 
                 DocumentContext documentContext = JsonPath.parse(result.getResponse().getContentAsString());
-                assertEquals(totalPrice, documentContext.read("$.total", BigDecimal.class));
+                assertEquals(totalPrice, Money.of(documentContext.read("$.total", BigDecimal.class)));
             }
         }
     }
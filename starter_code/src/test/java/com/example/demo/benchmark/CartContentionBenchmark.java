@@ -0,0 +1,139 @@
+package com.example.demo.benchmark;
+
+import com.example.demo.SareetaApplication;
+import com.example.demo.model.persistence.Cart;
+import com.example.demo.model.persistence.Item;
+import com.example.demo.model.persistence.repositories.CartRepository;
+import com.example.demo.model.persistence.repositories.ItemRepository;
+import com.example.demo.service.CartStore;
+import com.example.demo.service.JpaCartStore;
+import com.example.demo.service.WriteBehindCartStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Many threads adding to one cart: a plain load, change and save, as the controllers did before,
+ * against each {@link CartStore}. After each trial the stored quantity is compared with the number of adds,
+ * the difference is printed as lost updates.
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.example.demo.benchmark.CartContentionBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class CartContentionBenchmark {
+
+    @Param({"jpa", "write-behind"})
+    public String store;
+
+    private ConfigurableApplicationContext context;
+    private CartStore cartStore;
+    private Path journalDirectory;
+    private CartRepository cartRepository;
+    private TransactionTemplate transactionTemplate;
+    private JdbcTemplate jdbcTemplate;
+
+    private Item item;
+    private Long cartId;
+    private final LongAdder adds = new LongAdder();
+
+    @Setup(Level.Trial)
+    public void startApplication() throws IOException {
+        journalDirectory = Files.createTempDirectory("cart-journal");
+        context = new SpringApplicationBuilder(SareetaApplication.class)
+                .properties("server.port=0",
+                        "spring.datasource.url=jdbc:h2:mem:contention-" + store + ";DB_CLOSE_DELAY=-1",
+                        "cart.store=" + store,
+                        "cart.store.journal.dir=" + journalDirectory,
+                        "spring.main.banner-mode=off",
+                        "logging.level.root=error")
+                .run();
+        cartStore = context.getBean(CartStore.class);
+        cartRepository = context.getBean(CartRepository.class);
+        transactionTemplate = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+        item = context.getBean(ItemRepository.class).findById(1L).get();
+        cartId = cartRepository.save(new Cart()).getId();
+    }
+
+    @TearDown(Level.Trial)
+    public void reportLostUpdates() throws IOException {
+        if (cartStore instanceof WriteBehindCartStore) {
+            ((WriteBehindCartStore) cartStore).flush();
+        }
+        Integer stored = jdbcTemplate.queryForObject(
+                "select coalesce(sum(quantity), 0) from cart_line where cart_id = ?", Integer.class, cartId);
+        System.out.println();
+        System.out.println("adds=" + adds.sum() + " stored=" + stored + " lost updates=" + (adds.sum() - stored));
+        if (cartStore instanceof JpaCartStore) {
+            JpaCartStore jpaCartStore = (JpaCartStore) cartStore;
+            System.out.println("retries=" + jpaCartStore.getRetryCount() + " conflicts=" + jpaCartStore.getConflictCount());
+        }
+        context.close();
+        try (Stream<Path> files = Files.list(journalDirectory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(journalDirectory);
+    }
+
+    @Benchmark
+    public void loadChangeSave() {
+        adds.increment();
+        try {
+            transactionTemplate.execute(status -> {
+                Cart cart = cartRepository.findById(cartId).get();
+                cart.addItem(item);
+                return cartRepository.save(cart);
+            });
+        } catch (RuntimeException e) {
+            // the version rejects the stale write, without a retry the add is dropped
+        }
+    }
+
+    @Benchmark
+    public void cartStore() {
+        adds.increment();
+        cartStore.update(cartId, cart -> {
+            cart.addItem(item);
+            return cart;
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(CartContentionBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
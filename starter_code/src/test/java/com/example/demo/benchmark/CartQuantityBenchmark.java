@@ -0,0 +1,69 @@
+package com.example.demo.benchmark;
+
+import com.example.demo.model.persistence.Cart;
+import com.example.demo.model.persistence.Item;
+import com.example.demo.model.persistence.Money;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adding {@code quantity} units of one item to an empty cart: the former list with one entry per unit,
+ * which also was one cart_items row per unit, against a single cart line.
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.example.demo.benchmark.CartQuantityBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CartQuantityBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    public int quantity;
+
+    private final BigDecimal price = new BigDecimal("2.99");
+    private final Item item = new Item(1L, "Round Widget", Money.of(price), "A widget that is round");
+
+    @Benchmark
+    public void itemPerUnit(Blackhole blackhole) {
+        List<Item> items = new ArrayList<>();
+        BigDecimal total = BigDecimal.ZERO;
+        for (int i = 0; i < quantity; i++) {
+            items.add(item);
+            total = total.add(price);
+        }
+        blackhole.consume(items);
+        blackhole.consume(total);
+    }
+
+    @Benchmark
+    public Money cartLine() {
+        Cart cart = new Cart();
+        cart.addItem(item, quantity);
+        return cart.getTotal();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(CartQuantityBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.demo.benchmark;
+
+import com.example.demo.model.persistence.User;
+import com.example.demo.model.requests.LoginRequest;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Login body parsing: a new ObjectMapper into the User entity per request, as before,
+ * against the shared reader into LoginRequest used by JWTAuthenticationFilter.
+ * The gc profiler reports the bytes allocated per operation.
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.example.demo.benchmark.LoginParsingBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoginParsingBenchmark {
+
+    private static final byte[] BODY = "{\"username\":\"jenny\",\"password\":\"pass1234\"}"
+            .getBytes(StandardCharsets.UTF_8);
+
+    // same configuration as JWTAuthenticationFilter
+    private final ObjectReader loginReader = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .readerFor(LoginRequest.class);
+
+    @Benchmark
+    public String newMapperIntoEntity() throws IOException {
+        User user = new ObjectMapper().readValue(new ByteArrayInputStream(BODY), User.class);
+        return user.getPassword();
+    }
+
+    @Benchmark
+    public String sharedReaderIntoDto() throws IOException {
+        LoginRequest request = loginReader.readValue(new ByteArrayInputStream(BODY));
+        return request.getPassword();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(LoginParsingBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build())
+                .run();
+    }
+}
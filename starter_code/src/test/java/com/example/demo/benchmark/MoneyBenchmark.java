@@ -0,0 +1,89 @@
+package com.example.demo.benchmark;
+
+import com.example.demo.model.persistence.Money;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maintaining a cart total over a sequence of changes with BigDecimal, as Cart did before, against a Money per change
+ * and against the plain cents Cart and UserOrder keep now. The gc profiler reports the bytes allocated per operation.
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.example.demo.benchmark.MoneyBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoneyBenchmark {
+
+    @Param({"10", "100"})
+    public int changes;
+
+    private BigDecimal[] decimalPrices;
+    private Money[] moneyPrices;
+    private int[] quantities;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        decimalPrices = new BigDecimal[changes];
+        moneyPrices = new Money[changes];
+        quantities = new int[changes];
+        for (int i = 0; i < changes; i++) {
+            decimalPrices[i] = BigDecimal.valueOf(random.nextInt(10_000), 2);
+            moneyPrices[i] = Money.of(decimalPrices[i]);
+            quantities[i] = 1 + random.nextInt(5);
+        }
+    }
+
+    @Benchmark
+    public BigDecimal bigDecimal() {
+        BigDecimal total = new BigDecimal(0);
+        for (int i = 0; i < changes; i++) {
+            total = total.add(decimalPrices[i].multiply(BigDecimal.valueOf(quantities[i])));
+        }
+        return total;
+    }
+
+    @Benchmark
+    public Money money() {
+        Money total = Money.ZERO;
+        for (int i = 0; i < changes; i++) {
+            total = total.plus(moneyPrices[i], quantities[i]);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long cents() {
+        long total = 0;
+        for (int i = 0; i < changes; i++) {
+            total = Math.addExact(total, Math.multiplyExact(moneyPrices[i].getCents(), (long) quantities[i]));
+        }
+        return total;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(MoneyBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.demo.benchmark;
+
+import com.example.demo.SareetaApplication;
+import com.example.demo.model.persistence.Cart;
+import com.example.demo.model.persistence.Item;
+import com.example.demo.model.persistence.User;
+import com.example.demo.model.persistence.UserOrder;
+import com.example.demo.model.persistence.repositories.ItemRepository;
+import com.example.demo.model.persistence.repositories.OrderRepository;
+import com.example.demo.model.persistence.repositories.UserRepository;
+import com.example.demo.service.CartProvisioner;
+import com.example.demo.service.CartStore;
+import com.example.demo.service.GroupCommitter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Synchronous order submits, each of one item from the submitter's own cart, committed one by one
+ * or through the {@link GroupCommitter}, with 1, 16 and 64 concurrent submitters.
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.example.demo.benchmark.OrderGroupCommitBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderGroupCommitBenchmark {
+
+    private static final int[] SUBMITTERS = {1, 16, 64};
+
+    @Param({"false", "true"})
+    public boolean groupCommit;
+
+    private ConfigurableApplicationContext context;
+    private CartStore cartStore;
+    private GroupCommitter groupCommitter;
+    private CartProvisioner cartProvisioner;
+    private UserRepository userRepository;
+    private Function<Cart, UserOrder> placeOrder;
+    private final AtomicInteger users = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void startApplication() {
+        // arguments, so they win over application.properties
+        context = new SpringApplicationBuilder(SareetaApplication.class)
+                .run("--server.port=0",
+                        "--spring.datasource.url=jdbc:h2:mem:groupcommit-" + groupCommit + ";DB_CLOSE_DELAY=-1",
+                        "--order.submit.group-commit=" + groupCommit,
+                        "--cart.reaper.enabled=false",
+                        "--spring.main.banner-mode=off",
+                        "--logging.level.root=error");
+        cartStore = context.getBean(CartStore.class);
+        groupCommitter = groupCommit ? context.getBean(GroupCommitter.class) : null;
+        cartProvisioner = context.getBean(CartProvisioner.class);
+        userRepository = context.getBean(UserRepository.class);
+        OrderRepository orderRepository = context.getBean(OrderRepository.class);
+        Item item = context.getBean(ItemRepository.class).findById(1L).get();
+        // what the order controller does, with the item added in the same change so every order has a line
+        placeOrder = cart -> {
+            cart.addItem(item);
+            UserOrder placed = orderRepository.save(UserOrder.createFromCart(cart));
+            cart.clear();
+            return placed;
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void stopApplication() {
+        if (groupCommitter != null) {
+            System.out.println();
+            System.out.println("groups=" + groupCommitter.getGroupCount() + " fallbacks=" + groupCommitter.getFallbackCount());
+        }
+        context.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Submitter {
+
+        private Long cartId;
+
+        @Setup(Level.Trial)
+        public void createCart(OrderGroupCommitBenchmark benchmark) {
+            User user = new User();
+            user.setUsername("submitter" + benchmark.users.incrementAndGet());
+            user.setPassword("unused");
+            cartId = benchmark.cartProvisioner.cartIdOf(benchmark.userRepository.save(user));
+        }
+    }
+
+    @Benchmark
+    public UserOrder submit(Submitter submitter) {
+        return groupCommitter != null ? groupCommitter.update(submitter.cartId, placeOrder)
+                : cartStore.update(submitter.cartId, placeOrder);
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int submitters : SUBMITTERS) {
+            new Runner(new OptionsBuilder()
+                    .include(OrderGroupCommitBenchmark.class.getSimpleName())
+                    .threads(submitters)
+                    .build())
+                    .run();
+        }
+    }
+}
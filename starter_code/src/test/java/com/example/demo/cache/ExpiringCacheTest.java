@@ -0,0 +1,62 @@
+package com.example.demo.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ExpiringCacheTest {
+
+    private static final long ONE_HOUR = 3_600_000;
+
+    @Test
+    public void concurrent_puts_never_leave_the_cache_over_its_bound() throws Exception {
+        ExpiringCache<String, Integer> cache = new ExpiringCache<>("bounded-test", 64);
+        long expiresAt = System.currentTimeMillis() + ONE_HOUR;
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> puts = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                puts.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 10_000; i++) {
+                        cache.put(thread + "-" + i, i, expiresAt);
+                        assertTrue(cache.size() <= 64 + threads);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> put : puts) {
+                put.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertTrue(cache.size() <= 64, "size " + cache.size());
+    }
+
+    @Test
+    public void put_if_absent_only_takes_a_free_or_expired_key() {
+        ExpiringCache<String, Integer> cache = new ExpiringCache<>("put-if-absent-test", 10);
+        long now = System.currentTimeMillis();
+
+        assertTrue(cache.putIfAbsent("expired", 1, now - 1));
+        assertTrue(cache.putIfAbsent("expired", 2, now + ONE_HOUR));
+        assertFalse(cache.putIfAbsent("expired", 3, now + ONE_HOUR));
+
+        assertEquals(2, (int) cache.get("expired"));
+    }
+}
@@ -2,26 +2,40 @@ package com.example.demo.controllers;
 
 import com.example.demo.model.persistence.Cart;
 import com.example.demo.model.persistence.Item;
+import com.example.demo.model.persistence.Money;
 import com.example.demo.model.persistence.User;
+import com.example.demo.model.persistence.repositories.ArchivedCartLineRepository;
 import com.example.demo.model.persistence.repositories.CartRepository;
 import com.example.demo.model.persistence.repositories.ItemRepository;
 import com.example.demo.model.persistence.repositories.OrderRepository;
+import com.example.demo.model.persistence.repositories.RevokedTokenRepository;
 import com.example.demo.model.persistence.repositories.UserRepository;
 import com.example.demo.model.requests.ModifyCartRequest;
+import com.example.demo.security.AuthenticatedUser;
+import com.example.demo.security.GuestCartMerger;
+import com.example.demo.security.LoginExecutor;
+import com.example.demo.security.LoginRateLimiter;
+import com.example.demo.security.TokenService;
+import com.example.demo.security.UserContext;
 import com.example.demo.security.UserDetailsServiceImpl;
+import com.example.demo.security.VerifiedTokenCache;
+import com.example.demo.service.CartProvisioner;
+import com.example.demo.service.CartStore;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
-import org.junit.Before;
-import org.junit.Test;
-import org.junit.runner.RunWith;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.test.context.support.WithMockUser;
-import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 
@@ -31,16 +45,21 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Function;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 
-@RunWith(SpringRunner.class)
+@ExtendWith(SpringExtension.class)
 @WebMvcTest(CartController.class)
+@Import(UserContext.class)
 public class CartControllerTest {
 
     private static final MediaType APPLICATION_JSON_UTF8 = new MediaType(
@@ -62,37 +81,141 @@ public class CartControllerTest {
     @MockBean
     ItemRepository itemRepository;
 
+    @MockBean
+    ArchivedCartLineRepository archivedCartLineRepository;
+
+    @MockBean
+    RevokedTokenRepository revokedTokenRepository;
+
     @MockBean
     BCryptPasswordEncoder bCryptPasswordEncoder;
 
     @MockBean
     UserDetailsServiceImpl userDetailsService;
 
+    @MockBean
+    VerifiedTokenCache verifiedTokenCache;
+
+    @MockBean
+    TokenService tokenService;
+
+    @MockBean
+    LoginExecutor loginExecutor;
+
+    @MockBean
+    LoginRateLimiter loginRateLimiter;
+
+    @MockBean
+    GuestCartMerger guestCartMerger;
+
+    @MockBean
+    CartStore cartStore;
+
+    @MockBean
+    CartProvisioner cartProvisioner;
+
     private final ObjectMapper objectMapper;
 
     public CartControllerTest() {
         objectMapper = new ObjectMapper();
     }
 
-    @Before
+    @BeforeEach
     public void beforeEach() {
         when(bCryptPasswordEncoder.encode(anyString())).thenReturn(STUBBED_ENCODED_PASSWORD);
+        when(cartProvisioner.cartIdOf(any())).thenAnswer(invocation -> invocation.<User>getArgument(0).getCart().getId());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void stubCartUpdate(Cart cart) {
+        when(cartStore.update(eq(cart.getId()), any()))
+                .thenAnswer(invocation -> ((Function<Cart, Object>) invocation.getArgument(1)).apply(cart));
+    }
+
+
+    @Test
+    @WithMockUser
+    public void getCart() throws Exception {
+        User user = new User(1L, "philip", "testpassw");
+        Item item = new Item(1L, "keyboard", Money.of("25.2"), "gamer keyboard");
+        Cart cart = new Cart(1L, new ArrayList<>(Arrays.asList(item, item)), user, item.getPrice().times(2));
+        cart.setVersion(3L);
+        user.setCart(cart);
+
+        when(userRepository.findByUsername(user.getUsername())).thenReturn(user);
+        when(cartStore.getVersion(cart.getId())).thenReturn(3L);
+        when(cartStore.get(cart.getId())).thenReturn(cart);
+
+        MvcResult result = mockMvc.perform(get("/api/cart/" + user.getUsername()))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        assertEquals("\"3\"", result.getResponse().getHeader(HttpHeaders.ETAG));
+        DocumentContext documentContext = JsonPath.parse(result.getResponse().getContentAsString());
+        assertEquals(cart.getId(), documentContext.read("$.id", Long.class));
+        assertEquals(2, (int) documentContext.read("$.lines[0].quantity", Integer.class));
+        verify(cartStore, never()).update(any(), any());
+    }
+
+    @Test
+    @WithMockUser
+    public void getCart_not_modified() throws Exception {
+        User user = new User(1L, "philip", "testpassw");
+        Cart cart = new Cart(1L, new ArrayList<>(), user, Money.ZERO);
+        user.setCart(cart);
+
+        when(userRepository.findByUsername(user.getUsername())).thenReturn(user);
+        when(cartStore.getVersion(cart.getId())).thenReturn(3L);
+
+        MvcResult result = mockMvc.perform(get("/api/cart/" + user.getUsername())
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"2\", \"3\""))
+                .andExpect(status().isNotModified())
+                .andReturn();
+
+        assertEquals("\"3\"", result.getResponse().getHeader(HttpHeaders.ETAG));
+        assertEquals("", result.getResponse().getContentAsString());
+        // the lines are never loaded
+        verify(cartStore, never()).get(any());
+    }
+
+    @Test
+    @WithMockUser
+    public void getCart_before_the_first_change() throws Exception {
+        User user = new User(1L, "philip", "testpassw");
+
+        when(userRepository.findByUsername(user.getUsername())).thenReturn(user);
+
+        MvcResult result = mockMvc.perform(get("/api/cart/" + user.getUsername()))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        assertEquals("\"0\"", result.getResponse().getHeader(HttpHeaders.ETAG));
+        assertEquals(0, (int) JsonPath.parse(result.getResponse().getContentAsString()).read("$.lines.length()"));
+        verifyZeroInteractions(cartStore, cartProvisioner);
     }
 
+    @Test
+    @WithMockUser
+    public void getCart_user_not_found() throws Exception {
+        mockMvc.perform(get("/api/cart/nobody"))
+                .andExpect(status().isNotFound());
+
+        verify(cartStore, never()).getVersion(any());
+    }
 
     @Test
     @WithMockUser
     public void addToCart() throws Exception {
         User user = new User(1L, "philip", "testpassw");
-        Item item = new Item(1L, "keyboard", BigDecimal.valueOf(25.2), "gamer keyboard");
+        Item item = new Item(1L, "keyboard", Money.of("25.2"), "gamer keyboard");
         Optional<Item> optionalItem = Optional.of(item);
         ModifyCartRequest cartRequest = new ModifyCartRequest(user.getUsername(), item.getId(), 2);
-        Cart cart = new Cart(1L, new ArrayList<>(), user, BigDecimal.ZERO);
+        Cart cart = new Cart(1L, new ArrayList<>(), user, Money.ZERO);
         user.setCart(cart);
 
         when(userRepository.findByUsername(cartRequest.getUsername())).thenReturn(user);
         when(itemRepository.findById(cartRequest.getItemId())).thenReturn(optionalItem);
-        when(cartRepository.save(any())).thenReturn(cart);
+        stubCartUpdate(cart);
 
         MvcResult result = mockMvc.perform(post("/api/cart/addToCart")
                         .contentType(APPLICATION_JSON_UTF8)
@@ -102,27 +225,195 @@ public class CartControllerTest {
 
         DocumentContext documentContext = JsonPath.parse(result.getResponse().getContentAsString());
         assertEquals(cart.getId(), documentContext.read("$.id", Long.class));
-        assertEquals(cart.getTotal(), documentContext.read("$.total", BigDecimal.class));
-        assertEquals(2, (int) documentContext.read("$.items.length()"));
-        assertEquals(cart.getItems().get(0).getId(), documentContext.read("$.items[0].id", Long.class));
-        assertEquals(cart.getItems().get(1).getId(), documentContext.read("$.items[1].id", Long.class));
+        assertEquals(cart.getTotal(), Money.of(documentContext.read("$.total", BigDecimal.class)));
+        assertEquals(1, (int) documentContext.read("$.lines.length()"));
+        assertEquals(item.getId(), documentContext.read("$.lines[0].item.id", Long.class));
+        assertEquals(2, (int) documentContext.read("$.lines[0].quantity", Integer.class));
         assertEquals(cart.getUser().getId(), documentContext.read("$.user.id", Long.class).longValue());
 
-        verify(cartRepository, times(1)).save(any());
+        verify(cartStore, times(1)).update(any(), any());
+    }
+
+    @Test
+    @WithMockUser
+    public void addToCart_quantity_out_of_range() throws Exception {
+        User user = new User(1L, "philip", "testpassw");
+        Item item = new Item(1L, "keyboard", Money.of("25.2"), "gamer keyboard");
+        Cart cart = new Cart(1L, new ArrayList<>(), user, Money.ZERO);
+        cart.addItem(item, Integer.MAX_VALUE);
+        Money total = cart.getTotal();
+        user.setCart(cart);
+
+        when(userRepository.findByUsername(user.getUsername())).thenReturn(user);
+        when(itemRepository.findById(item.getId())).thenReturn(Optional.of(item));
+        stubCartUpdate(cart);
+
+        mockMvc.perform(post("/api/cart/addToCart")
+                        .contentType(APPLICATION_JSON_UTF8)
+                        .content(objectMapper.writeValueAsString(new ModifyCartRequest(user.getUsername(), item.getId(), 1))))
+                .andExpect(status().isBadRequest());
+        assertEquals(Integer.MAX_VALUE, cart.getQuantity(item));
+        assertEquals(total, cart.getTotal());
+
+        mockMvc.perform(post("/api/cart/addToCart")
+                        .contentType(APPLICATION_JSON_UTF8)
+                        .content(objectMapper.writeValueAsString(new ModifyCartRequest(user.getUsername(), item.getId(), -1))))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(post("/api/cart/removeFromCart")
+                        .contentType(APPLICATION_JSON_UTF8)
+                        .content(objectMapper.writeValueAsString(new ModifyCartRequest(user.getUsername(), item.getId(), -1))))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(post("/api/cart/batch")
+                        .contentType(APPLICATION_JSON_UTF8)
+                        .content(objectMapper.writeValueAsString(Arrays.asList(
+                                new ModifyCartRequest(user.getUsername(), item.getId(), Integer.MIN_VALUE)))))
+                .andExpect(status().isBadRequest());
+
+        verify(cartStore, times(1)).update(any(), any());
+    }
+
+    @Test
+    @WithMockUser
+    public void addToCart_delta() throws Exception {
+        User user = new User(1L, "philip", "testpassw");
+        Item keyboard = new Item(1L, "keyboard", Money.of("25.2"), "gamer keyboard");
+        Item mouse = new Item(2L, "mouse", Money.of("10"), "gamer mouse");
+        ModifyCartRequest cartRequest = new ModifyCartRequest(user.getUsername(), keyboard.getId(), 2);
+        Cart cart = new Cart(1L, new ArrayList<>(Arrays.asList(mouse)), user, mouse.getPrice());
+        user.setCart(cart);
+
+        when(userRepository.findByUsername(cartRequest.getUsername())).thenReturn(user);
+        when(itemRepository.findById(cartRequest.getItemId())).thenReturn(Optional.of(keyboard));
+        stubCartUpdate(cart);
+
+        MvcResult result = mockMvc.perform(post("/api/cart/addToCart?delta=true")
+                        .contentType(APPLICATION_JSON_UTF8)
+                        .content(objectMapper.writeValueAsString(cartRequest)))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        assertEquals(CartController.DELTA_MEDIA_TYPE.toString(), result.getResponse().getContentType());
+        DocumentContext documentContext = JsonPath.parse(result.getResponse().getContentAsString());
+        assertEquals(cart.getId(), documentContext.read("$.cartId", Long.class));
+        assertEquals(cart.getVersion(), (long) documentContext.read("$.version", Long.class));
+        assertEquals(Money.of("60.40"), Money.of(documentContext.read("$.total", BigDecimal.class)));
+        // only the changed line, without the item itself or the user
+        assertEquals(1, (int) documentContext.read("$.lines.length()"));
+        assertEquals(keyboard.getId(), documentContext.read("$.lines[0].itemId", Long.class));
+        assertEquals(2, (int) documentContext.read("$.lines[0].quantity", Integer.class));
+        assertEquals(4, (int) documentContext.read("$.length()"));
+    }
+
+    @Test
+    @WithMockUser
+    public void removeFromCart_delta_by_accept_header() throws Exception {
+        User user = new User(1L, "philip", "testpassw");
+        Item item = new Item(1L, "keyboard", Money.of("25.2"), "gamer keyboard");
+        ModifyCartRequest cartRequest = new ModifyCartRequest(user.getUsername(), item.getId(), 1);
+        Cart cart = new Cart(1L, new ArrayList<>(Arrays.asList(item)), user, item.getPrice());
+        user.setCart(cart);
+
+        when(userRepository.findByUsername(cartRequest.getUsername())).thenReturn(user);
+        when(itemRepository.findById(cartRequest.getItemId())).thenReturn(Optional.of(item));
+        stubCartUpdate(cart);
+
+        MvcResult result = mockMvc.perform(post("/api/cart/removeFromCart")
+                        .contentType(APPLICATION_JSON_UTF8)
+                        .accept(CartController.DELTA_MEDIA_TYPE)
+                        .content(objectMapper.writeValueAsString(cartRequest)))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        DocumentContext documentContext = JsonPath.parse(result.getResponse().getContentAsString());
+        assertEquals(Money.ZERO, Money.of(documentContext.read("$.total", BigDecimal.class)));
+        // a line that left the cart is reported with quantity 0
+        assertEquals(item.getId(), documentContext.read("$.lines[0].itemId", Long.class));
+        assertEquals(0, (int) documentContext.read("$.lines[0].quantity", Integer.class));
+    }
+
+    @Test
+    public void addToCart_with_ids_in_token() throws Exception {
+        User user = new User(1L, "philip", "testpassw");
+        Item item = new Item(1L, "keyboard", Money.of("25.2"), "gamer keyboard");
+        ModifyCartRequest cartRequest = new ModifyCartRequest(user.getUsername(), item.getId(), 1);
+        Cart cart = new Cart(7L, new ArrayList<>(), user, Money.ZERO);
+
+        user.setCart(cart);
+
+        when(itemRepository.findById(cartRequest.getItemId())).thenReturn(Optional.of(item));
+        stubCartUpdate(cart);
+
+        mockMvc.perform(post("/api/cart/addToCart")
+                        .with(user(new AuthenticatedUser(user.getUsername(), "", user.getId(), cart.getId())))
+                        .contentType(APPLICATION_JSON_UTF8)
+                        .content(objectMapper.writeValueAsString(cartRequest)))
+                .andExpect(status().isOk());
+
+        assertEquals(1, cart.getQuantity(item));
+        // both ids came with the token, the user is not loaded at all
+        verifyZeroInteractions(userRepository);
+        verify(cartProvisioner, never()).cartIdOf(any());
+    }
+
+    @Test
+    public void addToCart_with_user_id_only_in_token() throws Exception {
+        User user = new User(1L, "philip", "testpassw");
+        Item item = new Item(1L, "keyboard", Money.of("25.2"), "gamer keyboard");
+        ModifyCartRequest cartRequest = new ModifyCartRequest(user.getUsername(), item.getId(), 1);
+        Cart cart = new Cart(7L, new ArrayList<>(), user, Money.ZERO);
+
+        user.setCart(cart);
+
+        when(userRepository.findWithCartById(user.getId())).thenReturn(Optional.of(user));
+        when(itemRepository.findById(cartRequest.getItemId())).thenReturn(Optional.of(item));
+        stubCartUpdate(cart);
+
+        // a token issued before the user's first cart change
+        mockMvc.perform(post("/api/cart/addToCart")
+                        .with(user(new AuthenticatedUser(user.getUsername(), "", user.getId(), null)))
+                        .contentType(APPLICATION_JSON_UTF8)
+                        .content(objectMapper.writeValueAsString(cartRequest)))
+                .andExpect(status().isOk());
+
+        assertEquals(1, cart.getQuantity(item));
+        verify(userRepository).findWithCartById(user.getId());
+        verify(userRepository, never()).findByUsername(anyString());
+    }
+
+    @Test
+    @WithMockUser
+    public void addToCart_creates_the_cart() throws Exception {
+        User user = new User(1L, "philip", "testpassw");
+        Item item = new Item(1L, "keyboard", Money.of("25.2"), "gamer keyboard");
+        Cart cart = new Cart(7L, new ArrayList<>(), user, Money.ZERO);
+
+        when(userRepository.findByUsername(user.getUsername())).thenReturn(user);
+        when(itemRepository.findById(item.getId())).thenReturn(Optional.of(item));
+        doReturn(cart.getId()).when(cartProvisioner).cartIdOf(user);
+        stubCartUpdate(cart);
+
+        MvcResult result = mockMvc.perform(post("/api/cart/addToCart")
+                        .contentType(APPLICATION_JSON_UTF8)
+                        .content(objectMapper.writeValueAsString(new ModifyCartRequest(user.getUsername(), item.getId(), 1))))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        assertEquals(cart.getId(), JsonPath.parse(result.getResponse().getContentAsString()).read("$.id", Long.class));
+        verify(cartProvisioner).cartIdOf(user);
     }
 
     @Test
     @WithMockUser
     public void addToCart_user_not_found() throws Exception {
         User user = null;
-        Item item = new Item(1L, "keyboard", BigDecimal.valueOf(25.2), "gamer keyboard");
+        Item item = new Item(1L, "keyboard", Money.of("25.2"), "gamer keyboard");
         Optional<Item> optionalItem = Optional.of(item);
         ModifyCartRequest cartRequest = new ModifyCartRequest("pete", item.getId(), 2);
-        Cart cart = new Cart(1L, new ArrayList<>(), user, BigDecimal.ZERO);
+        Cart cart = new Cart(1L, new ArrayList<>(), user, Money.ZERO);
 
         when(userRepository.findByUsername(cartRequest.getUsername())).thenReturn(user);
         when(itemRepository.findById(cartRequest.getItemId())).thenReturn(optionalItem);
-        when(cartRepository.save(any())).thenReturn(cart);
+        stubCartUpdate(cart);
 
         mockMvc.perform(post("/api/cart/addToCart")
                         .contentType(APPLICATION_JSON_UTF8)
@@ -130,7 +421,7 @@ public class CartControllerTest {
                 .andExpect(status().isNotFound());
 
 
-        verify(cartRepository, times(0)).save(any());
+        verify(cartStore, times(0)).update(any(), any());
     }
 
     @Test
@@ -139,35 +430,35 @@ public class CartControllerTest {
         User user = new User(1L, "philip", "testpassw");
         Optional<Item> optionalItem = Optional.empty();
         ModifyCartRequest cartRequest = new ModifyCartRequest(user.getUsername(), 0L, 2);
-        Cart cart = new Cart(1L, new ArrayList<>(), user, BigDecimal.ZERO);
+        Cart cart = new Cart(1L, new ArrayList<>(), user, Money.ZERO);
         user.setCart(cart);
 
         when(userRepository.findByUsername(cartRequest.getUsername())).thenReturn(user);
         when(itemRepository.findById(cartRequest.getItemId())).thenReturn(optionalItem);
-        when(cartRepository.save(any())).thenReturn(cart);
+        stubCartUpdate(cart);
 
         mockMvc.perform(post("/api/cart/addToCart")
                         .contentType(APPLICATION_JSON_UTF8)
                         .content(objectMapper.writeValueAsString(cartRequest)))
                 .andExpect(status().isNotFound());
 
-        verify(cartRepository, times(0)).save(any());
+        verify(cartStore, times(0)).update(any(), any());
     }
 
     @Test
     @WithMockUser
     public void removeFromCart() throws Exception {
         User user = new User(1L, "philip", "testpassw");
-        Item item = new Item(1L, "keyboard", BigDecimal.valueOf(25.2), "gamer keyboard");
+        Item item = new Item(1L, "keyboard", Money.of("25.2"), "gamer keyboard");
         Optional<Item> optionalItem = Optional.of(item);
         ModifyCartRequest cartRequest = new ModifyCartRequest(user.getUsername(), item.getId(), 2);
         List<Item> items = new ArrayList<>(Arrays.asList(item, item));
-        Cart cart = new Cart(1L, items, user, item.getPrice().multiply(BigDecimal.valueOf(2)));
+        Cart cart = new Cart(1L, items, user, item.getPrice().times(2));
         user.setCart(cart);
 
         when(userRepository.findByUsername(cartRequest.getUsername())).thenReturn(user);
         when(itemRepository.findById(cartRequest.getItemId())).thenReturn(optionalItem);
-        when(cartRepository.save(any())).thenReturn(cart);
+        stubCartUpdate(cart);
 
         MvcResult result = mockMvc.perform(post("/api/cart/removeFromCart")
                         .contentType(APPLICATION_JSON_UTF8)
@@ -177,33 +468,33 @@ public class CartControllerTest {
 
         DocumentContext documentContext = JsonPath.parse(result.getResponse().getContentAsString());
         assertEquals(cart.getId(), documentContext.read("$.id", Long.class));
-        assertEquals(cart.getTotal(), documentContext.read("$.total", BigDecimal.class));
-        assertEquals(0, (int) documentContext.read("$.items.length()"));
+        assertEquals(cart.getTotal(), Money.of(documentContext.read("$.total", BigDecimal.class)));
+        assertEquals(0, (int) documentContext.read("$.lines.length()"));
         assertEquals(cart.getUser().getId(), documentContext.read("$.user.id", Long.class).longValue());
 
-        verify(cartRepository, times(1)).save(any());
+        verify(cartStore, times(1)).update(any(), any());
     }
 
     @Test
     @WithMockUser
     public void removeFromCart_user_not_found() throws Exception {
         User user = null;
-        Item item = new Item(1L, "keyboard", BigDecimal.valueOf(25.2), "gamer keyboard");
+        Item item = new Item(1L, "keyboard", Money.of("25.2"), "gamer keyboard");
         Optional<Item> optionalItem = Optional.of(item);
         ModifyCartRequest cartRequest = new ModifyCartRequest("el", item.getId(), 2);
         List<Item> items = new ArrayList<>(Arrays.asList(item, item));
-        Cart cart = new Cart(1L, items, user, item.getPrice().multiply(BigDecimal.valueOf(2)));
+        Cart cart = new Cart(1L, items, user, item.getPrice().times(2));
 
         when(userRepository.findByUsername(cartRequest.getUsername())).thenReturn(user);
         when(itemRepository.findById(cartRequest.getItemId())).thenReturn(optionalItem);
-        when(cartRepository.save(any())).thenReturn(cart);
+        stubCartUpdate(cart);
 
         mockMvc.perform(post("/api/cart/removeFromCart")
                         .contentType(APPLICATION_JSON_UTF8)
                         .content(objectMapper.writeValueAsString(cartRequest)))
                 .andExpect(status().isNotFound());
 
-        verify(cartRepository, times(0)).save(any());
+        verify(cartStore, times(0)).update(any(), any());
     }
 
     @Test
@@ -213,19 +504,103 @@ public class CartControllerTest {
         Optional<Item> optionalItem = Optional.empty();
         ModifyCartRequest cartRequest = new ModifyCartRequest(user.getUsername(), 0L, 2);
         List<Item> items = new ArrayList<>();
-        Cart cart = new Cart(1L, items, user, BigDecimal.ZERO);
+        Cart cart = new Cart(1L, items, user, Money.ZERO);
         user.setCart(cart);
 
         when(userRepository.findByUsername(cartRequest.getUsername())).thenReturn(user);
         when(itemRepository.findById(cartRequest.getItemId())).thenReturn(optionalItem);
-        when(cartRepository.save(any())).thenReturn(cart);
+        stubCartUpdate(cart);
 
         mockMvc.perform(post("/api/cart/removeFromCart")
                         .contentType(APPLICATION_JSON_UTF8)
                         .content(objectMapper.writeValueAsString(cartRequest)))
                 .andExpect(status().isNotFound());
 
-        verify(cartRepository, times(0)).save(any());
+        verify(cartStore, times(0)).update(any(), any());
+    }
+
+    @Test
+    @WithMockUser
+    public void batch() throws Exception {
+        User user = new User(1L, "philip", "testpassw");
+        Item keyboard = new Item(1L, "keyboard", Money.of("25.2"), "gamer keyboard");
+        Item mouse = new Item(2L, "mouse", Money.of("10"), "gamer mouse");
+        Cart cart = new Cart(1L, new ArrayList<>(Arrays.asList(mouse)), user, mouse.getPrice());
+        user.setCart(cart);
+        List<ModifyCartRequest> requests = Arrays.asList(
+                new ModifyCartRequest(user.getUsername(), keyboard.getId(), 3),
+                new ModifyCartRequest(user.getUsername(), mouse.getId(), -1),
+                new ModifyCartRequest(user.getUsername(), keyboard.getId(), -1));
+
+        when(userRepository.findByUsername(user.getUsername())).thenReturn(user);
+        when(itemRepository.findAllById(any())).thenReturn(Arrays.asList(keyboard, mouse));
+        stubCartUpdate(cart);
+
+        MvcResult result = mockMvc.perform(post("/api/cart/batch")
+                        .contentType(APPLICATION_JSON_UTF8)
+                        .content(objectMapper.writeValueAsString(requests)))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        DocumentContext documentContext = JsonPath.parse(result.getResponse().getContentAsString());
+        assertEquals(1, (int) documentContext.read("$.lines.length()"));
+        assertEquals(keyboard.getId(), documentContext.read("$.lines[0].item.id", Long.class));
+        assertEquals(2, (int) documentContext.read("$.lines[0].quantity", Integer.class));
+        assertEquals(Money.of("50.40"), Money.of(documentContext.read("$.total", BigDecimal.class)));
+
+        verify(itemRepository, times(1)).findAllById(any());
+        verify(itemRepository, never()).findById(any());
+        verify(cartStore, times(1)).update(any(), any());
+    }
+
+    @Test
+    @WithMockUser
+    public void batch_item_not_found() throws Exception {
+        User user = new User(1L, "philip", "testpassw");
+        Item keyboard = new Item(1L, "keyboard", Money.of("25.2"), "gamer keyboard");
+        user.setCart(new Cart(1L, new ArrayList<>(), user, Money.ZERO));
+        List<ModifyCartRequest> requests = Arrays.asList(
+                new ModifyCartRequest(user.getUsername(), keyboard.getId(), 1),
+                new ModifyCartRequest(user.getUsername(), 0L, 1));
+
+        when(userRepository.findByUsername(user.getUsername())).thenReturn(user);
+        when(itemRepository.findAllById(any())).thenReturn(Arrays.asList(keyboard));
+
+        mockMvc.perform(post("/api/cart/batch")
+                        .contentType(APPLICATION_JSON_UTF8)
+                        .content(objectMapper.writeValueAsString(requests)))
+                .andExpect(status().isNotFound());
+
+        verify(cartStore, times(0)).update(any(), any());
+    }
+
+    @Test
+    @WithMockUser
+    public void batch_for_several_users() throws Exception {
+        List<ModifyCartRequest> requests = Arrays.asList(
+                new ModifyCartRequest("philip", 1L, 1),
+                new ModifyCartRequest("pete", 1L, 1));
+
+        mockMvc.perform(post("/api/cart/batch")
+                        .contentType(APPLICATION_JSON_UTF8)
+                        .content(objectMapper.writeValueAsString(requests)))
+                .andExpect(status().isBadRequest());
+
+        verify(cartStore, times(0)).update(any(), any());
     }
 
+    @Test
+    @WithMockUser
+    public void batch_with_empty_change() throws Exception {
+        mockMvc.perform(post("/api/cart/batch")
+                        .contentType(APPLICATION_JSON_UTF8)
+                        .content("[{\"username\":\"philip\",\"itemId\":1,\"quantity\":1},null]"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(post("/api/cart/batch")
+                        .contentType(APPLICATION_JSON_UTF8)
+                        .content("[null]"))
+                .andExpect(status().isBadRequest());
+
+        verify(cartStore, times(0)).update(any(), any());
+    }
 }
@@ -1,22 +1,30 @@
 package com.example.demo.controllers;
 
 import com.example.demo.model.persistence.Item;
+import com.example.demo.model.persistence.Money;
+import com.example.demo.model.persistence.repositories.ArchivedCartLineRepository;
 import com.example.demo.model.persistence.repositories.CartRepository;
 import com.example.demo.model.persistence.repositories.ItemRepository;
 import com.example.demo.model.persistence.repositories.OrderRepository;
+import com.example.demo.model.persistence.repositories.RevokedTokenRepository;
 import com.example.demo.model.persistence.repositories.UserRepository;
+import com.example.demo.security.GuestCartMerger;
+import com.example.demo.security.LoginExecutor;
+import com.example.demo.security.LoginRateLimiter;
+import com.example.demo.security.TokenService;
 import com.example.demo.security.UserDetailsServiceImpl;
+import com.example.demo.security.VerifiedTokenCache;
 import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
-import org.junit.Before;
-import org.junit.Test;
-import org.junit.runner.RunWith;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.test.context.support.WithMockUser;
-import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 
@@ -25,12 +33,12 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Optional;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
-@RunWith(SpringRunner.class)
+@ExtendWith(SpringExtension.class)
 @WebMvcTest(ItemController.class)
 public class ItemControllerTest {
 
@@ -51,13 +59,34 @@ public class ItemControllerTest {
     @MockBean
     ItemRepository itemRepository;
 
+    @MockBean
+    ArchivedCartLineRepository archivedCartLineRepository;
+
+    @MockBean
+    RevokedTokenRepository revokedTokenRepository;
+
     @MockBean
     BCryptPasswordEncoder bCryptPasswordEncoder;
 
     @MockBean
     UserDetailsServiceImpl userDetailsService;
 
-    @Before
+    @MockBean
+    VerifiedTokenCache verifiedTokenCache;
+
+    @MockBean
+    TokenService tokenService;
+
+    @MockBean
+    LoginExecutor loginExecutor;
+
+    @MockBean
+    LoginRateLimiter loginRateLimiter;
+
+    @MockBean
+    GuestCartMerger guestCartMerger;
+
+    @BeforeEach
     public void beforeEach() {
         when(bCryptPasswordEncoder.encode(anyString())).thenReturn(STUBBED_ENCODED_PASSWORD);
     }
@@ -66,7 +95,7 @@ public class ItemControllerTest {
     @WithMockUser
     public void getItemById_found() throws Exception {
         long itemId = 1L;
-        Item item = new Item(itemId, "item", BigDecimal.valueOf(5.2), "desc");
+        Item item = new Item(itemId, "item", Money.of("5.2"), "desc");
         Optional<Item> optionalItem = Optional.of(item);
 
         when(itemRepository.findById(itemId)).thenReturn(optionalItem);
@@ -78,7 +107,7 @@ public class ItemControllerTest {
         String response = result.getResponse().getContentAsString();
         DocumentContext documentContext = JsonPath.parse(response);
         assertEquals(item.getId().intValue(), (int) documentContext.read("$.id"));
-        assertEquals(item.getPrice().doubleValue(), (double) documentContext.read("$.price"), 0.01);
+        assertEquals(item.getPrice().toBigDecimal().doubleValue(), (double) documentContext.read("$.price"), 0.01);
         assertEquals(item.getName(), documentContext.read("$.name"));
         assertEquals(item.getDescription(), documentContext.read("$.description"));
 
@@ -103,7 +132,7 @@ public class ItemControllerTest {
     @WithMockUser
     public void getItemsByName_found() throws Exception {
         String itemName = "charger";
-        Item item = new Item(1L, itemName, BigDecimal.valueOf(5.2), "desc");
+        Item item = new Item(1L, itemName, Money.of("5.2"), "desc");
 
         when(itemRepository.findByName(itemName)).thenReturn(Arrays.asList(item));
 
@@ -114,7 +143,7 @@ public class ItemControllerTest {
         String response = result.getResponse().getContentAsString();
         DocumentContext documentContext = JsonPath.parse(response);
         assertEquals(item.getId().intValue(), (int) documentContext.read("$[0].id"));
-        assertEquals(item.getPrice().doubleValue(), (double) documentContext.read("$[0].price"), 0.01);
+        assertEquals(item.getPrice().toBigDecimal().doubleValue(), (double) documentContext.read("$[0].price"), 0.01);
         assertEquals(item.getName(), documentContext.read("$[0].name"));
         assertEquals(item.getDescription(), documentContext.read("$[0].description"));
 
@@ -138,7 +167,7 @@ public class ItemControllerTest {
     @WithMockUser
     public void getItems() throws Exception {
         String itemName = "charger";
-        Item item = new Item(1L, itemName, BigDecimal.valueOf(5.2), "desc");
+        Item item = new Item(1L, itemName, Money.of("5.2"), "desc");
 
         when(itemRepository.findAll()).thenReturn(Arrays.asList(item));
 
@@ -149,7 +178,7 @@ public class ItemControllerTest {
         String response = result.getResponse().getContentAsString();
         DocumentContext documentContext = JsonPath.parse(response);
         assertEquals(item.getId().intValue(), (int) documentContext.read("$[0].id"));
-        assertEquals(item.getPrice().doubleValue(), (double) documentContext.read("$[0].price"), 0.01);
+        assertEquals(item.getPrice().toBigDecimal().doubleValue(), (double) documentContext.read("$[0].price"), 0.01);
         assertEquals(item.getName(), documentContext.read("$[0].name"));
         assertEquals(item.getDescription(), documentContext.read("$[0].description"));
 
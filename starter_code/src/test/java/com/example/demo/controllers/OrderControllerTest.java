@@ -2,46 +2,70 @@ package com.example.demo.controllers;
 
 import com.example.demo.model.persistence.Cart;
 import com.example.demo.model.persistence.Item;
+import com.example.demo.model.persistence.Money;
 import com.example.demo.model.persistence.User;
 import com.example.demo.model.persistence.UserOrder;
+import com.example.demo.model.persistence.repositories.ArchivedCartLineRepository;
 import com.example.demo.model.persistence.repositories.CartRepository;
 import com.example.demo.model.persistence.repositories.ItemRepository;
 import com.example.demo.model.persistence.repositories.OrderRepository;
+import com.example.demo.model.persistence.repositories.RevokedTokenRepository;
 import com.example.demo.model.persistence.repositories.UserRepository;
 import com.example.demo.model.requests.ModifyCartRequest;
+import com.example.demo.security.AuthenticatedUser;
+import com.example.demo.security.GuestCartMerger;
+import com.example.demo.security.LoginExecutor;
+import com.example.demo.security.LoginRateLimiter;
+import com.example.demo.security.TokenService;
+import com.example.demo.security.UserContext;
 import com.example.demo.security.UserDetailsServiceImpl;
+import com.example.demo.security.VerifiedTokenCache;
+import com.example.demo.service.CartProvisioner;
+import com.example.demo.service.CartStore;
+import com.example.demo.service.WriteBehindCartStore;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
-import org.junit.Before;
-import org.junit.Test;
-import org.junit.runner.RunWith;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DataAccessResourceFailureException;
 import org.springframework.http.MediaType;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.test.context.support.WithMockUser;
-import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.math.BigDecimal;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Optional;
+import java.util.function.Function;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
-import static org.junit.Assert.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
-@RunWith(SpringRunner.class)
+@ExtendWith(SpringExtension.class)
 @WebMvcTest(OrderController.class)
+@Import(UserContext.class)
 public class OrderControllerTest {
 
     private static final MediaType APPLICATION_JSON_UTF8 = new MediaType(
@@ -51,6 +75,9 @@ public class OrderControllerTest {
     @Autowired
     MockMvc mockMvc;
 
+    @Autowired
+    OrderController orderController;
+
     @MockBean
     UserRepository userRepository;
 
@@ -63,21 +90,55 @@ public class OrderControllerTest {
     @MockBean
     ItemRepository itemRepository;
 
+    @MockBean
+    ArchivedCartLineRepository archivedCartLineRepository;
+
+    @MockBean
+    RevokedTokenRepository revokedTokenRepository;
+
     @MockBean
     BCryptPasswordEncoder bCryptPasswordEncoder;
 
     @MockBean
     UserDetailsServiceImpl userDetailsService;
 
+    @MockBean
+    VerifiedTokenCache verifiedTokenCache;
+
+    @MockBean
+    TokenService tokenService;
+
+    @MockBean
+    LoginExecutor loginExecutor;
+
+    @MockBean
+    LoginRateLimiter loginRateLimiter;
+
+    @MockBean
+    GuestCartMerger guestCartMerger;
+
+    @MockBean
+    CartStore cartStore;
+
+    @MockBean
+    CartProvisioner cartProvisioner;
+
     private final ObjectMapper objectMapper;
 
     public OrderControllerTest() {
         objectMapper = new ObjectMapper();
     }
 
-    @Before
+    @BeforeEach
     public void beforeEach() {
         when(bCryptPasswordEncoder.encode(anyString())).thenReturn(STUBBED_ENCODED_PASSWORD);
+        when(cartProvisioner.cartIdOf(any())).thenAnswer(invocation -> invocation.<User>getArgument(0).getCart().getId());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void stubCartUpdate(Cart cart) {
+        when(cartStore.update(eq(cart.getId()), any()))
+                .thenAnswer(invocation -> ((Function<Cart, Object>) invocation.getArgument(1)).apply(cart));
     }
 
 
@@ -85,20 +146,21 @@ public class OrderControllerTest {
     @WithMockUser
     public void submit() throws Exception {
         User user = new User(1L, "julia", "testpassw");
-        Item item = new Item(1L, "keyboard", BigDecimal.valueOf(25.2), "gamer keyboard");
+        Item item = new Item(1L, "keyboard", Money.of("25.2"), "gamer keyboard");
         Optional<Item> optionalItem = Optional.of(item);
         ModifyCartRequest cartRequest = new ModifyCartRequest(user.getUsername(), item.getId(), 2);
         Cart cart = new Cart(
                 1L,
                 new ArrayList<>(Arrays.asList(item, item)),
                 user,
-                item.getPrice().multiply(BigDecimal.valueOf(2)));
+                item.getPrice().times(2));
         user.setCart(cart);
         UserOrder order = UserOrder.createFromCart(user.getCart());
         order.setId(1L);
 
         when(userRepository.findByUsername(user.getUsername())).thenReturn(user);
         when(orderRepository.save(any())).thenReturn(order);
+        stubCartUpdate(cart);
 
         MvcResult result = mockMvc.perform(post("/api/order/submit/" + user.getUsername()))
                 .andExpect(status().isOk())
@@ -106,15 +168,47 @@ public class OrderControllerTest {
 
         DocumentContext documentContext = JsonPath.parse(result.getResponse().getContentAsString());
         assertEquals(order.getId(), documentContext.read("$.id", Long.class));
-        assertEquals(order.getTotal(), documentContext.read("$.total", BigDecimal.class));
-        assertEquals(2, (int) documentContext.read("$.items.length()"));
-        assertEquals(order.getItems().get(0).getId(), documentContext.read("$.items[0].id", Long.class));
-        assertEquals(order.getItems().get(1).getId(), documentContext.read("$.items[1].id", Long.class));
+        assertEquals(order.getTotal(), Money.of(documentContext.read("$.total", BigDecimal.class)));
+        assertEquals(1, (int) documentContext.read("$.lines.length()"));
+        assertEquals(item.getId(), documentContext.read("$.lines[0].itemId", Long.class));
+        assertEquals(item.getName(), documentContext.read("$.lines[0].name"));
+        assertEquals(item.getPrice(), Money.of(documentContext.read("$.lines[0].price", BigDecimal.class)));
+        assertEquals(2, (int) documentContext.read("$.lines[0].quantity", Integer.class));
         assertEquals(order.getUser().getId(), documentContext.read("$.user.id", Long.class).longValue());
 
         verify(orderRepository, times(1)).save(any());
     }
 
+    @Test
+    @WithMockUser
+    public void submit_write_behind_journals_the_emptied_cart_first() throws Exception {
+        User user = new User(1L, "julia", "testpassw");
+        Item item = new Item(1L, "keyboard", Money.of("25.2"), "gamer keyboard");
+        Cart cart = new Cart(1L, new ArrayList<>(), user, Money.ZERO);
+        cart.addItem(item, 2);
+        user.setCart(cart);
+        WriteBehindCartStore writeBehind = mock(WriteBehindCartStore.class);
+        when(writeBehind.update(eq(cart.getId()), any())).thenAnswer(
+                invocation -> invocation.<Function<Cart, Object>>getArgument(1).apply(cart));
+        when(userRepository.findByUsername(user.getUsername())).thenReturn(user);
+        when(orderRepository.save(any())).thenThrow(new DataAccessResourceFailureException("down"));
+
+        ReflectionTestUtils.setField(orderController, "cartStore", writeBehind);
+        try {
+            assertThrows(Exception.class, () -> mockMvc.perform(post("/api/order/submit/" + user.getUsername())));
+        } finally {
+            ReflectionTestUtils.setField(orderController, "cartStore", cartStore);
+        }
+
+        InOrder inOrder = inOrder(writeBehind, orderRepository);
+        inOrder.verify(writeBehind).update(eq(cart.getId()), any());
+        inOrder.verify(orderRepository).save(any());
+        inOrder.verify(writeBehind).update(eq(cart.getId()), any());
+        // the items are back after the failed save
+        assertEquals(2, cart.getQuantity(item));
+        assertEquals(Money.of("50.40"), cart.getTotal());
+    }
+
     @Test
     @WithMockUser
     public void submit_user_not_found() throws Exception {
@@ -133,35 +227,88 @@ public class OrderControllerTest {
     @WithMockUser
     public void getOrdersForUser() throws Exception {
         User user = new User(1L, "julia", "testpassw");
-        Item item = new Item(1L, "keyboard", BigDecimal.valueOf(25.2), "gamer keyboard");
+        Item item = new Item(1L, "keyboard", Money.of("25.2"), "gamer keyboard");
         Optional<Item> optionalItem = Optional.of(item);
         ModifyCartRequest cartRequest = new ModifyCartRequest(user.getUsername(), item.getId(), 2);
         Cart cart = new Cart(
                 1L,
                 new ArrayList<>(Arrays.asList(item, item)),
                 user,
-                item.getPrice().multiply(BigDecimal.valueOf(2)));
+                item.getPrice().times(2));
         user.setCart(cart);
         UserOrder order = UserOrder.createFromCart(user.getCart());
         order.setId(1L);
 
         when(userRepository.findByUsername(user.getUsername())).thenReturn(user);
-        when(orderRepository.findByUser(any())).thenReturn(Arrays.asList(order));
+        when(orderRepository.findIdsByUserBefore(eq(user.getId()), eq(Long.MAX_VALUE), any())).thenReturn(Arrays.asList(order.getId()));
+        when(orderRepository.findDistinctByIdInOrderByIdDesc(Arrays.asList(order.getId()))).thenReturn(Arrays.asList(order));
 
         MvcResult result = mockMvc.perform(get("/api/order/history/" + user.getUsername()))
                 .andExpect(status().isOk())
                 .andReturn();
 
         DocumentContext documentContext = JsonPath.parse(result.getResponse().getContentAsString());
-        assertEquals(1, (int) documentContext.read("$.length()"));
-        assertEquals(order.getId(), documentContext.read("$[0].id", Long.class));
-        assertEquals(order.getTotal(), documentContext.read("$[0].total", BigDecimal.class));
-        assertEquals(2, (int) documentContext.read("$[0].items.length()"));
-        assertEquals(order.getItems().get(0).getId(), documentContext.read("$[0].items[0].id", Long.class));
-        assertEquals(order.getItems().get(1).getId(), documentContext.read("$[0].items[1].id", Long.class));
-        assertEquals(order.getUser().getId(), documentContext.read("$[0].user.id", Long.class).longValue());
-
-        verify(orderRepository, times(1)).findByUser(any());
+        assertEquals(1, (int) documentContext.read("$.orders.length()"));
+        assertEquals(order.getId(), documentContext.read("$.orders[0].id", Long.class));
+        assertEquals(order.getTotal(), Money.of(documentContext.read("$.orders[0].total", BigDecimal.class)));
+        assertEquals(1, (int) documentContext.read("$.orders[0].lines.length()"));
+        assertEquals(item.getId(), documentContext.read("$.orders[0].lines[0].itemId", Long.class));
+        assertEquals(item.getName(), documentContext.read("$.orders[0].lines[0].name"));
+        assertEquals(item.getPrice(), Money.of(documentContext.read("$.orders[0].lines[0].price", BigDecimal.class)));
+        assertEquals(2, (int) documentContext.read("$.orders[0].lines[0].quantity", Integer.class));
+        assertEquals(order.getUser().getId(), documentContext.read("$.orders[0].user.id", Long.class).longValue());
+        assertNull(documentContext.read("$.next"));
+    }
+
+    @Test
+    public void getOrdersForUser_with_ids_in_token() throws Exception {
+        UserOrder order = new UserOrder();
+        order.setId(3L);
+
+        when(orderRepository.findIdsByUserBefore(eq(1L), eq(Long.MAX_VALUE), any())).thenReturn(Arrays.asList(order.getId()));
+        when(orderRepository.findDistinctByIdInOrderByIdDesc(Arrays.asList(order.getId()))).thenReturn(Arrays.asList(order));
+
+        MvcResult result = mockMvc.perform(get("/api/order/history/julia")
+                        .with(user(new AuthenticatedUser("julia", "", 1L, 7L))))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        assertEquals(order.getId(), JsonPath.parse(result.getResponse().getContentAsString()).read("$.orders[0].id", Long.class));
+        verifyZeroInteractions(userRepository);
+    }
+
+    @Test
+    @WithMockUser
+    public void getOrdersForUser_next_page() throws Exception {
+        User user = new User(1L, "julia", "testpassw");
+        UserOrder newer = new UserOrder();
+        newer.setId(9L);
+        newer.setUser(user);
+        UserOrder older = new UserOrder();
+        older.setId(7L);
+        older.setUser(user);
+
+        when(userRepository.findByUsername(user.getUsername())).thenReturn(user);
+        // one id more than the page holds
+        when(orderRepository.findIdsByUserBefore(eq(user.getId()), eq(12L), any())).thenReturn(Arrays.asList(9L, 7L, 4L));
+        when(orderRepository.findDistinctByIdInOrderByIdDesc(Arrays.asList(9L, 7L))).thenReturn(Arrays.asList(newer, older));
+
+        MvcResult result = mockMvc.perform(get("/api/order/history/" + user.getUsername() + "?cursor=12&size=2"))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        DocumentContext documentContext = JsonPath.parse(result.getResponse().getContentAsString());
+        assertEquals(2, (int) documentContext.read("$.orders.length()"));
+        assertEquals(7L, (long) documentContext.read("$.next", Long.class));
+    }
+
+    @Test
+    @WithMockUser
+    public void getOrdersForUser_page_too_large() throws Exception {
+        mockMvc.perform(get("/api/order/history/julia?size=1000"))
+                .andExpect(status().isBadRequest());
+
+        verifyZeroInteractions(orderRepository);
     }
 
     @Test
@@ -175,7 +322,30 @@ public class OrderControllerTest {
         mockMvc.perform(get("/api/order/history/" + username))
                 .andExpect(status().isNotFound());
 
-        verify(orderRepository, times(0)).findByUser(any());
+        verify(orderRepository, times(0)).findIdsByUserBefore(any(), anyLong(), any());
+    }
+
+    @Test
+    @WithMockUser
+    public void getStatus_placed() throws Exception {
+        when(orderRepository.existsById(3L)).thenReturn(true);
+
+        MvcResult result = mockMvc.perform(get("/api/order/status/3"))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        DocumentContext documentContext = JsonPath.parse(result.getResponse().getContentAsString());
+        assertEquals(3L, (long) documentContext.read("$.id", Long.class));
+        assertEquals("PLACED", documentContext.read("$.status"));
+    }
+
+    @Test
+    @WithMockUser
+    public void getStatus_not_found() throws Exception {
+        when(orderRepository.existsById(3L)).thenReturn(false);
+
+        mockMvc.perform(get("/api/order/status/3"))
+                .andExpect(status().isNotFound());
     }
 
 }
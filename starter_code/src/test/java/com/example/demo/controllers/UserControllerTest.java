@@ -1,26 +1,35 @@
 package com.example.demo.controllers;
 
 import com.example.demo.model.persistence.User;
+import com.example.demo.model.persistence.repositories.ArchivedCartLineRepository;
 import com.example.demo.model.persistence.repositories.CartRepository;
 import com.example.demo.model.persistence.repositories.ItemRepository;
 import com.example.demo.model.persistence.repositories.OrderRepository;
+import com.example.demo.model.persistence.repositories.RevokedTokenRepository;
 import com.example.demo.model.persistence.repositories.UserRepository;
 import com.example.demo.model.requests.CreateUserRequest;
+import com.example.demo.security.GuestCartMerger;
+import com.example.demo.security.LoginExecutor;
+import com.example.demo.security.LoginRateLimiter;
+import com.example.demo.security.TokenService;
+import com.example.demo.security.UserContext;
 import com.example.demo.security.UserDetailsServiceImpl;
+import com.example.demo.security.VerifiedTokenCache;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.jayway.jsonpath.JsonPath;
-import org.junit.Before;
-import org.junit.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.provider.MethodSource;
-import org.junit.runner.RunWith;
+import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.test.context.support.WithMockUser;
-import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 
@@ -28,7 +37,7 @@ import java.nio.charset.Charset;
 import java.util.Optional;
 import java.util.stream.Stream;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
@@ -40,8 +49,9 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 
-@RunWith(SpringRunner.class)
+@ExtendWith(SpringExtension.class)
 @WebMvcTest(UserController.class)
+@Import(UserContext.class)
 public class UserControllerTest {
 
     private static final MediaType APPLICATION_JSON_UTF8 = new MediaType(
@@ -63,19 +73,40 @@ public class UserControllerTest {
     @MockBean
     ItemRepository itemRepository;
 
+    @MockBean
+    ArchivedCartLineRepository archivedCartLineRepository;
+
+    @MockBean
+    RevokedTokenRepository revokedTokenRepository;
+
     @MockBean
     BCryptPasswordEncoder bCryptPasswordEncoder;
 
     @MockBean
     UserDetailsServiceImpl userDetailsService;
 
+    @MockBean
+    VerifiedTokenCache verifiedTokenCache;
+
+    @MockBean
+    TokenService tokenService;
+
+    @MockBean
+    LoginExecutor loginExecutor;
+
+    @MockBean
+    LoginRateLimiter loginRateLimiter;
+
+    @MockBean
+    GuestCartMerger guestCartMerger;
+
     private final ObjectMapper objectMapper;
 
     public UserControllerTest() {
         objectMapper = new ObjectMapper();
     }
 
-    @Before
+    @BeforeEach
     public void beforeEach() {
         when(bCryptPasswordEncoder.encode(anyString())).thenReturn(STUBBED_ENCODED_PASSWORD);
     }
@@ -96,7 +127,7 @@ public class UserControllerTest {
 
         String response = result.getResponse().getContentAsString();
         String responseUsername = JsonPath.parse(response).read("$.username");
-        int responseUserId = JsonPath.parse(response).read("$.id");
+        long responseUserId = JsonPath.parse(response).read("$.id", Long.class);
         assertEquals(user.getUsername(), responseUsername);
         assertEquals(user.getId(), responseUserId);
 
@@ -131,7 +162,7 @@ public class UserControllerTest {
 
         String response = result.getResponse().getContentAsString();
         String responseUsername = JsonPath.parse(response).read("$.username");
-        int responseUserId = JsonPath.parse(response).read("$.id");
+        long responseUserId = JsonPath.parse(response).read("$.id", Long.class);
         assertEquals(user.getUsername(), responseUsername);
         assertEquals(user.getId(), responseUserId);
 
@@ -177,11 +208,12 @@ public class UserControllerTest {
         if (expectedHttpStatus.is2xxSuccessful()) {
             String response = result.getResponse().getContentAsString();
             String responseUsername = JsonPath.parse(response).read("$.username");
-            int responseUserId = JsonPath.parse(response).read("$.id");
+            long responseUserId = JsonPath.parse(response).read("$.id", Long.class);
             assertEquals(user.getUsername(), responseUsername);
             assertEquals(user.getId(), responseUserId);
 
             verify(userRepository, times(1)).save(any());
+            verify(userDetailsService, times(1)).evict(user.getUsername());
         } else {
             verify(userRepository, times(0)).save(any());
         }
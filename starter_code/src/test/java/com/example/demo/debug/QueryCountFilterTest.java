@@ -0,0 +1,276 @@
+package com.example.demo.debug;
+
+import com.example.demo.model.persistence.Item;
+import com.example.demo.model.persistence.OrderLine;
+import com.example.demo.model.persistence.User;
+import com.example.demo.model.persistence.UserOrder;
+import com.example.demo.model.persistence.repositories.ItemRepository;
+import com.example.demo.model.persistence.repositories.OrderRepository;
+import com.example.demo.model.persistence.repositories.UserRepository;
+import com.example.demo.model.requests.CreateUserRequest;
+import com.example.demo.model.requests.ModifyCartRequest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.springframework.security.test.web.servlet.setup.SecurityMockMvcConfigurers.springSecurity;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@ExtendWith(SpringExtension.class)
+// own database, data.sql would clash with the one of the other application tests
+@SpringBootTest(properties = {
+        "debug.query-count-header=true",
+        "security.login.async=false",
+        "spring.datasource.url=jdbc:h2:mem:querycount;DB_CLOSE_DELAY=-1"})
+public class QueryCountFilterTest {
+
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+
+    @Autowired
+    private QueryCountFilter queryCountFilter;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ItemRepository itemRepository;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    public void setup() {
+        mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext)
+                .addFilters(queryCountFilter)
+                .apply(springSecurity())
+                .build();
+    }
+
+    @Test
+    public void cart_request_resolves_user_and_cart_once() throws Exception {
+        MvcResult result = mockMvc.perform(post("/api/user/create")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new CreateUserRequest("querycount", "pass1234", "pass1234"))))
+                .andExpect(status().isOk())
+                .andReturn();
+        // a block of user ids, then only the user, the cart waits for the first change
+        assertEquals("2", result.getResponse().getHeader(QueryCountFilter.HEADER));
+        String bearer = mockMvc.perform(post("/login")
+                        .content("{\"username\":\"querycount\",\"password\":\"pass1234\"}"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.AUTHORIZATION);
+
+        result = mockMvc.perform(post("/api/cart/addToCart")
+                        .header(HttpHeaders.AUTHORIZATION, bearer)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new ModifyCartRequest("querycount", 1L, 1))))
+                .andExpect(status().isOk())
+                .andReturn();
+        // user, item, user row lock, cart insert, user update, line insert, cart update,
+        // and the first blocks of cart and line ids, which take two sequence calls each
+        assertEquals("11", result.getResponse().getHeader(QueryCountFilter.HEADER));
+        // from now on the token carries the cart id as well, and the cart endpoints no longer load the user
+        bearer = mockMvc.perform(post("/login")
+                        .content("{\"username\":\"querycount\",\"password\":\"pass1234\"}"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.AUTHORIZATION);
+
+        result = mockMvc.perform(post("/api/cart/addToCart")
+                        .header(HttpHeaders.AUTHORIZATION, bearer)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new ModifyCartRequest("querycount", 1L, 500))))
+                .andExpect(status().isOk())
+                .andReturn();
+        // item, cart with its user, cart lines, cart update, and the quantity only changes the existing line
+        assertEquals("5", result.getResponse().getHeader(QueryCountFilter.HEADER));
+        assertEquals(501, (int) JsonPath.parse(result.getResponse().getContentAsString()).read("$.lines[0].quantity", Integer.class));
+
+        result = mockMvc.perform(post("/api/cart/batch")
+                        .header(HttpHeaders.AUTHORIZATION, bearer)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(Arrays.asList(
+                                new ModifyCartRequest("querycount", 2L, 2),
+                                new ModifyCartRequest("querycount", 3L, 1),
+                                new ModifyCartRequest("querycount", 1L, -500)))))
+                .andExpect(status().isOk())
+                .andReturn();
+        // all items in one select, cart with its user, cart lines, then the writes,
+        // where both new lines go out in one insert batch
+        assertEquals("6", result.getResponse().getHeader(QueryCountFilter.HEADER));
+
+        result = mockMvc.perform(post("/api/cart/addToCart?delta=true")
+                        .header(HttpHeaders.AUTHORIZATION, bearer)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new ModifyCartRequest("querycount", 1L, 1))))
+                .andExpect(status().isOk())
+                .andReturn();
+        // one version per change so far, and only the changed line
+        assertEquals("5", result.getResponse().getHeader(QueryCountFilter.HEADER));
+        assertEquals(4L, (long) JsonPath.parse(result.getResponse().getContentAsString()).read("$.version", Long.class));
+        assertEquals(2, (int) JsonPath.parse(result.getResponse().getContentAsString()).read("$.lines[0].quantity", Integer.class));
+
+        result = mockMvc.perform(get("/api/cart/querycount")
+                        .header(HttpHeaders.AUTHORIZATION, bearer))
+                .andExpect(status().isOk())
+                .andReturn();
+        // cart with its user, then the lines while writing the body
+        assertEquals("2", result.getResponse().getHeader(QueryCountFilter.HEADER));
+        assertEquals("2", result.getResponse().getHeader(QueryCountFilter.USER_CART_HEADER));
+        String eTag = result.getResponse().getHeader(HttpHeaders.ETAG);
+        assertEquals("\"4\"", eTag);
+
+        result = mockMvc.perform(get("/api/cart/querycount")
+                        .header(HttpHeaders.AUTHORIZATION, bearer)
+                        .header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified())
+                .andReturn();
+        // only the version column
+        assertEquals("1", result.getResponse().getHeader(QueryCountFilter.HEADER));
+        assertEquals("1", result.getResponse().getHeader(QueryCountFilter.USER_CART_HEADER));
+
+        result = mockMvc.perform(get("/api/user/querycount")
+                        .header(HttpHeaders.AUTHORIZATION, bearer))
+                .andExpect(status().isOk())
+                .andReturn();
+        assertEquals("1", result.getResponse().getHeader(QueryCountFilter.HEADER));
+        assertEquals("1", result.getResponse().getHeader(QueryCountFilter.USER_CART_HEADER));
+
+        result = mockMvc.perform(get("/api/order/history/querycount")
+                        .header(HttpHeaders.AUTHORIZATION, bearer))
+                .andExpect(status().isOk())
+                .andReturn();
+        // the user id comes with the token, an empty page of order ids is all
+        assertEquals("1", result.getResponse().getHeader(QueryCountFilter.HEADER));
+        assertEquals("0", result.getResponse().getHeader(QueryCountFilter.USER_CART_HEADER));
+
+        result = mockMvc.perform(post("/api/order/submit/querycount")
+                        .header(HttpHeaders.AUTHORIZATION, bearer))
+                .andExpect(status().isOk())
+                .andReturn();
+        DocumentContext order = JsonPath.parse(result.getResponse().getContentAsString());
+        assertEquals(3, (int) order.read("$.lines.length()", Integer.class));
+        assertEquals(5, sumOf(order.read("$.lines[*].quantity", List.class)));
+        // cart with its user, cart lines, the first blocks of order and order line ids in two sequence calls
+        // each, order insert, cart update, then one batch for the three order lines and one deleting the three cart lines
+        assertEquals("10", result.getResponse().getHeader(QueryCountFilter.HEADER));
+
+        // a second, empty order
+        mockMvc.perform(post("/api/order/submit/querycount")
+                        .header(HttpHeaders.AUTHORIZATION, bearer))
+                .andExpect(status().isOk());
+
+        result = mockMvc.perform(get("/api/order/history/querycount?size=1")
+                        .header(HttpHeaders.AUTHORIZATION, bearer))
+                .andExpect(status().isOk())
+                .andReturn();
+        // a page of order ids, the orders of the page with their lines, and their user while writing the body
+        assertEquals("3", result.getResponse().getHeader(QueryCountFilter.HEADER));
+        DocumentContext page = JsonPath.parse(result.getResponse().getContentAsString());
+        assertEquals(0, (int) page.read("$.orders[0].lines.length()", Integer.class));
+        long next = page.read("$.next", Long.class);
+
+        result = mockMvc.perform(get("/api/order/history/querycount?size=1&cursor=" + next)
+                        .header(HttpHeaders.AUTHORIZATION, bearer))
+                .andExpect(status().isOk())
+                .andReturn();
+        // the same cost for every page
+        assertEquals("3", result.getResponse().getHeader(QueryCountFilter.HEADER));
+        page = JsonPath.parse(result.getResponse().getContentAsString());
+        assertEquals(5, sumOf(page.read("$.orders[0].lines[*].quantity", List.class)));
+        assertNull(page.read("$.next"));
+    }
+
+    @Test
+    public void order_history_costs_the_same_for_every_page() throws Exception {
+        mockMvc.perform(post("/api/user/create")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new CreateUserRequest("longhistory", "pass1234", "pass1234"))))
+                .andExpect(status().isOk());
+        String bearer = mockMvc.perform(post("/login")
+                        .content("{\"username\":\"longhistory\",\"password\":\"pass1234\"}"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.AUTHORIZATION);
+        User user = userRepository.findByUsername("longhistory");
+        Item first = itemRepository.findById(1L).get();
+        Item second = itemRepository.findById(2L).get();
+        List<UserOrder> orders = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            UserOrder order = new UserOrder();
+            order.setUser(user);
+            order.getLines().add(new OrderLine(order, first, 1));
+            order.getLines().add(new OrderLine(order, second, 2));
+            orders.add(order);
+        }
+        orderRepository.saveAll(orders);
+
+        int pages = 0;
+        int orderCount = 0;
+        int lineCount = 0;
+        int unitCount = 0;
+        String cursor = "";
+        do {
+            MvcResult result = mockMvc.perform(get("/api/order/history/longhistory?size=100" + cursor)
+                            .header(HttpHeaders.AUTHORIZATION, bearer))
+                    .andExpect(status().isOk())
+                    .andReturn();
+            // a page of order ids, the orders of the page with their lines, and their user while writing the body,
+            // however long the history
+            assertEquals("3", result.getResponse().getHeader(QueryCountFilter.HEADER));
+            DocumentContext page = JsonPath.parse(result.getResponse().getContentAsString());
+            orderCount += page.read("$.orders.length()", Integer.class);
+            lineCount += sumOf(page.read("$.orders[*].lines.length()", List.class));
+            unitCount += sumOf(page.read("$.orders[*].lines[*].quantity", List.class));
+            Long next = page.read("$.next", Long.class);
+            cursor = next == null ? null : "&cursor=" + next;
+            pages++;
+        } while (cursor != null);
+        assertEquals(10, pages);
+        assertEquals(1000, orderCount);
+        assertEquals(2000, lineCount);
+        assertEquals(3000, unitCount);
+    }
+
+    @Test
+    public void jdbc_template_statements_are_counted_too() {
+        QueryCounter.reset();
+
+        jdbcTemplate.queryForObject("select count(*) from cart", Integer.class);
+        jdbcTemplate.queryForObject("select count(*) from item", Integer.class);
+
+        assertEquals(2, QueryCounter.count());
+        assertEquals(1, QueryCounter.userCartCount());
+    }
+
+    private static int sumOf(List<?> counts) {
+        return counts.stream().mapToInt(count -> (Integer) count).sum();
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.demo.model.persistence;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class MoneyTest {
+
+    @Test
+    public void arithmetic_is_exact_in_cents() {
+        Money price = Money.of("25.2");
+
+        assertEquals(2520, price.getCents());
+        assertEquals(Money.of("50.40"), price.times(2));
+        assertEquals(Money.of("0.30"), Money.of("0.1").plus(Money.of("0.2")));
+        assertEquals(Money.of("75.60"), Money.ZERO.plus(price, 3));
+        assertSame(Money.ZERO, price.minus(price));
+        assertEquals(Money.of("0.01"), Money.of(new BigDecimal("0.005")));
+        assertThrows(ArithmeticException.class, () -> Money.ofCents(Long.MAX_VALUE).plus(Money.ofCents(1)));
+    }
+
+    @Test
+    public void json_and_column_keep_two_decimals() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        MoneyConverter converter = new MoneyConverter();
+
+        assertEquals("2.90", objectMapper.writeValueAsString(Money.of("2.9")));
+        assertEquals(Money.of("2.9"), objectMapper.readValue("2.90", Money.class));
+        assertEquals(new BigDecimal("2.90"), converter.convertToDatabaseColumn(Money.of("2.9")));
+        assertEquals(Money.of("2.9"), converter.convertToEntityAttribute(new BigDecimal("2.90")));
+        assertNull(converter.convertToEntityAttribute(null));
+    }
+
+    @Test
+    public void cart_total_is_kept_in_cents_and_rendered_as_money() throws Exception {
+        Item item = new Item(1L, "Round Widget", Money.of("2.99"), "A widget that is round");
+        Cart cart = new Cart();
+        cart.addItem(item, 3);
+        cart.removeItem(item);
+
+        assertEquals(598, cart.getTotalCents());
+        String json = new ObjectMapper().writeValueAsString(cart);
+        assertEquals(Money.of("5.98"), Money.of(new BigDecimal(JsonPath.read(json, "$.total").toString())));
+        assertFalse(json.contains("totalCents"));
+        assertEquals(598, UserOrder.createFromCart(cart).getTotalCents());
+    }
+}
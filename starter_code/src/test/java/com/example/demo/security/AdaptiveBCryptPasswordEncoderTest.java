@@ -0,0 +1,28 @@
+package com.example.demo.security;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AdaptiveBCryptPasswordEncoderTest {
+
+    @Test
+    public void hash_with_other_strength_is_upgraded() {
+        AdaptiveBCryptPasswordEncoder encoder = new AdaptiveBCryptPasswordEncoder(5);
+
+        assertFalse(encoder.upgradeEncoding(encoder.encode("pass1234")));
+        assertTrue(encoder.upgradeEncoding(new BCryptPasswordEncoder(4).encode("pass1234")));
+        assertTrue(encoder.upgradeEncoding(new BCryptPasswordEncoder(6).encode("pass1234")));
+        assertFalse(encoder.upgradeEncoding(null));
+        assertEquals(-1, AdaptiveBCryptPasswordEncoder.strengthOf("plain"));
+    }
+
+    @Test
+    public void calibration_stays_within_bounds() {
+        assertEquals(4, AdaptiveBCryptPasswordEncoder.calibrate(0, 4, 6));
+        assertEquals(6, AdaptiveBCryptPasswordEncoder.calibrate(60_000, 4, 6));
+    }
+}
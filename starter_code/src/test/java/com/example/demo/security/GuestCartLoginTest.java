@@ -0,0 +1,182 @@
+package com.example.demo.security;
+
+import com.example.demo.debug.QueryCountFilter;
+import com.example.demo.model.requests.CreateUserRequest;
+import com.example.demo.model.requests.ModifyCartRequest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.security.test.web.servlet.setup.SecurityMockMvcConfigurers.springSecurity;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(properties = {
+        "debug.query-count-header=true",
+        "security.login.async=false",
+        "spring.datasource.url=jdbc:h2:mem:guestcart;DB_CLOSE_DELAY=-1"})
+public class GuestCartLoginTest {
+
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+
+    @Autowired
+    private QueryCountFilter queryCountFilter;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    public void setup() {
+        mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext)
+                .addFilters(queryCountFilter)
+                .apply(springSecurity())
+                .build();
+    }
+
+    @Test
+    public void guest_cart_is_merged_at_login() throws Exception {
+        MvcResult result = mockMvc.perform(post("/api/guest-cart/addToCart")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new ModifyCartRequest(null, 1L, 2))))
+                .andExpect(status().isOk())
+                .andReturn();
+        // the item, then the items of the cart, nothing is written
+        assertEquals("2", result.getResponse().getHeader(QueryCountFilter.HEADER));
+        String guestCart = result.getResponse().getHeader(SecurityConstants.GUEST_CART_HEADER_STRING);
+
+        result = mockMvc.perform(post("/api/guest-cart/addToCart")
+                        .header(SecurityConstants.GUEST_CART_HEADER_STRING, guestCart)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new ModifyCartRequest(null, 2L, 1))))
+                .andExpect(status().isOk())
+                .andReturn();
+        guestCart = result.getResponse().getHeader(SecurityConstants.GUEST_CART_HEADER_STRING);
+        DocumentContext guestView = JsonPath.parse(result.getResponse().getContentAsString());
+        assertEquals(2, (int) guestView.read("$.lines.length()", Integer.class));
+
+        mockMvc.perform(post("/api/user/create")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new CreateUserRequest("guest", "pass1234", "pass1234"))))
+                .andExpect(status().isOk());
+        String bearer = mockMvc.perform(post("/login")
+                        .header(SecurityConstants.GUEST_CART_HEADER_STRING, guestCart)
+                        .content("{\"username\":\"guest\",\"password\":\"pass1234\"}"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.AUTHORIZATION);
+
+        result = mockMvc.perform(get("/api/cart/guest")
+                        .header(HttpHeaders.AUTHORIZATION, bearer))
+                .andExpect(status().isOk())
+                .andReturn();
+        DocumentContext cart = JsonPath.parse(result.getResponse().getContentAsString());
+        assertEquals(2, (int) cart.read("$.lines[0].quantity", Integer.class));
+        assertEquals(1, (int) cart.read("$.lines[1].quantity", Integer.class));
+        assertEquals(guestView.read("$.total", Double.class), cart.read("$.total", Double.class));
+        // one write for the whole guest cart
+        assertEquals("\"1\"", result.getResponse().getHeader(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void guest_cart_is_merged_once_however_often_it_comes_with_a_login() throws Exception {
+        String guestCart = mockMvc.perform(post("/api/guest-cart/addToCart")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new ModifyCartRequest(null, 1L, 2))))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(SecurityConstants.GUEST_CART_HEADER_STRING);
+        mockMvc.perform(post("/api/user/create")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new CreateUserRequest("twice", "pass1234", "pass1234"))))
+                .andExpect(status().isOk());
+
+        String bearer = null;
+        for (int login = 0; login < 2; login++) {
+            bearer = mockMvc.perform(post("/login")
+                            .header(SecurityConstants.GUEST_CART_HEADER_STRING, guestCart)
+                            .content("{\"username\":\"twice\",\"password\":\"pass1234\"}"))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getHeader(HttpHeaders.AUTHORIZATION);
+        }
+
+        MvcResult result = mockMvc.perform(get("/api/cart/twice")
+                        .header(HttpHeaders.AUTHORIZATION, bearer))
+                .andExpect(status().isOk())
+                .andReturn();
+        DocumentContext cart = JsonPath.parse(result.getResponse().getContentAsString());
+        assertEquals(1, (int) cart.read("$.lines.length()", Integer.class));
+        assertEquals(2, (int) cart.read("$.lines[0].quantity", Integer.class));
+        assertEquals("\"1\"", result.getResponse().getHeader(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void guest_cart_quantity_overflow_is_rejected() throws Exception {
+        String guestCart = mockMvc.perform(post("/api/guest-cart/addToCart")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new ModifyCartRequest(null, 1L, Integer.MAX_VALUE))))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(SecurityConstants.GUEST_CART_HEADER_STRING);
+
+        mockMvc.perform(post("/api/guest-cart/addToCart")
+                        .header(SecurityConstants.GUEST_CART_HEADER_STRING, guestCart)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new ModifyCartRequest(null, 1L, 1))))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void guest_cart_that_cannot_be_merged_does_not_fail_the_login() throws Exception {
+        mockMvc.perform(post("/api/user/create")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new CreateUserRequest("overflow", "pass1234", "pass1234"))))
+                .andExpect(status().isOk());
+        String bearer = mockMvc.perform(post("/login")
+                        .content("{\"username\":\"overflow\",\"password\":\"pass1234\"}"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.AUTHORIZATION);
+        mockMvc.perform(post("/api/cart/addToCart")
+                        .header(HttpHeaders.AUTHORIZATION, bearer)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new ModifyCartRequest("overflow", 1L, 1))))
+                .andExpect(status().isOk());
+        String guestCart = mockMvc.perform(post("/api/guest-cart/addToCart")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new ModifyCartRequest(null, 1L, Integer.MAX_VALUE))))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(SecurityConstants.GUEST_CART_HEADER_STRING);
+
+        bearer = mockMvc.perform(post("/login")
+                        .header(SecurityConstants.GUEST_CART_HEADER_STRING, guestCart)
+                        .content("{\"username\":\"overflow\",\"password\":\"pass1234\"}"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.AUTHORIZATION);
+
+        MvcResult result = mockMvc.perform(get("/api/cart/overflow")
+                        .header(HttpHeaders.AUTHORIZATION, bearer))
+                .andExpect(status().isOk())
+                .andReturn();
+        assertEquals(1, (int) JsonPath.parse(result.getResponse().getContentAsString()).read("$.lines[0].quantity", Integer.class));
+    }
+
+    @Test
+    public void forged_guest_cart_is_rejected() throws Exception {
+        mockMvc.perform(get("/api/guest-cart")
+                        .header(SecurityConstants.GUEST_CART_HEADER_STRING, "not.a.token"))
+                .andExpect(status().isBadRequest());
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.demo.security;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.example.demo.model.persistence.repositories.RevokedTokenRepository;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class GuestCartTokensTest {
+
+    private final KeyRing keyRing = new KeyRing(new KeyRingProperties());
+    private final GuestCartTokens guestCartTokens = new GuestCartTokens(keyRing, 64, 100);
+
+    @Test
+    public void small_cart_is_kept_as_plain_lines() {
+        Map<Long, Integer> quantities = new LinkedHashMap<>();
+        quantities.put(3L, 2);
+        quantities.put(1L, 1);
+
+        String token = guestCartTokens.issue(quantities);
+
+        assertEquals("3:2,1:1", JWT.decode(token).getClaim(GuestCartTokens.LINES_CLAIM).asString());
+        assertEquals(quantities, guestCartTokens.verify(token));
+    }
+
+    @Test
+    public void large_cart_is_deflated() {
+        Map<Long, Integer> quantities = new LinkedHashMap<>();
+        for (long itemId = 1000; itemId < 1100; itemId++) {
+            quantities.put(itemId, 1);
+        }
+
+        String token = guestCartTokens.issue(quantities);
+
+        assertTrue(JWT.decode(token).getClaim(GuestCartTokens.LINES_CLAIM).isNull());
+        assertFalse(JWT.decode(token).getClaim(GuestCartTokens.DEFLATED_LINES_CLAIM).isNull());
+        assertEquals(quantities, guestCartTokens.verify(token));
+    }
+
+    @Test
+    public void every_token_has_its_own_id_and_expiry() {
+        String first = guestCartTokens.issue(Collections.singletonMap(1L, 1));
+        String second = guestCartTokens.issue(Collections.singletonMap(1L, 1));
+
+        GuestCartTokens.GuestCart guestCart = guestCartTokens.read(first);
+        assertNotNull(guestCart.getId());
+        assertNotNull(guestCart.getExpiresAt());
+        assertEquals(Collections.singletonMap(1L, 1), guestCart.getQuantities());
+        assertNotEquals(guestCart.getId(), guestCartTokens.read(second).getId());
+    }
+
+    @Test
+    public void other_tokens_are_not_guest_carts() {
+        TokenService tokenService = new TokenService(keyRing, mock(RevokedTokenRepository.class));
+        String access = tokenService.issueAccessToken(new AuthenticatedUser("jenny", "", 1L, 2L));
+
+        assertThrows(JWTVerificationException.class, () -> guestCartTokens.verify(access));
+        assertThrows(JWTVerificationException.class,
+                () -> tokenService.verifyAccessToken(guestCartTokens.issue(Collections.singletonMap(1L, 1))));
+    }
+
+    @Test
+    public void changed_cart_is_rejected() {
+        String token = guestCartTokens.issue(Collections.singletonMap(1L, 1));
+        String[] parts = token.split("\\.");
+        String forged = parts[0] + "." + new GuestCartTokens(new KeyRing(new KeyRingProperties()), 64, 100)
+                .issue(Collections.singletonMap(1L, 99)).split("\\.")[1] + "." + parts[2];
+
+        assertThrows(JWTVerificationException.class, () -> guestCartTokens.verify(forged));
+    }
+}
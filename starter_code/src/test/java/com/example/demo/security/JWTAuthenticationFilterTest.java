@@ -0,0 +1,243 @@
+package com.example.demo.security;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequestWrapper;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class JWTAuthenticationFilterTest {
+
+    private final AuthenticationManager authenticationManager = mock(AuthenticationManager.class);
+    private final TokenService tokenService = mock(TokenService.class);
+    private final LoginRateLimiter loginRateLimiter = new LoginRateLimiter(true, 16, 3, 1, 50, 50);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private LoginExecutor loginExecutor;
+
+    @BeforeEach
+    public void beforeEach() {
+        when(tokenService.issueAccessToken(any())).thenReturn("access");
+        when(tokenService.issueRefreshToken(any())).thenReturn("refresh");
+    }
+
+    @AfterEach
+    public void afterEach() {
+        release.countDown();
+        loginExecutor.destroy();
+    }
+
+    @Test
+    public void login_is_completed_asynchronously() throws Exception {
+        loginExecutor = new LoginExecutor(1, 1, true, 1, 30_000);
+        when(authenticationManager.authenticate(any())).thenReturn(authenticated("jenny"));
+        JWTAuthenticationFilter filter = new JWTAuthenticationFilter(authenticationManager, tokenService, loginExecutor, loginRateLimiter);
+
+        MockHttpServletRequest request = login("jenny", "pass1234");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain());
+
+        awaitCompletion(request);
+        assertEquals(200, response.getStatus());
+        assertEquals("Bearer access", response.getHeader(HttpHeaders.AUTHORIZATION));
+        assertEquals("refresh", response.getHeader(SecurityConstants.REFRESH_HEADER_STRING));
+    }
+
+    @Test
+    public void failure_after_authentication_is_answered_with_500_asynchronously() throws Exception {
+        loginExecutor = new LoginExecutor(1, 1, true, 1, 30_000);
+        when(authenticationManager.authenticate(any())).thenReturn(authenticated("jenny"));
+        when(tokenService.issueRefreshToken(any())).thenThrow(new IllegalStateException("no signing key"));
+        JWTAuthenticationFilter filter = new JWTAuthenticationFilter(authenticationManager, tokenService, loginExecutor, loginRateLimiter);
+
+        MockHttpServletRequest request = login("jenny", "pass1234");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain());
+
+        awaitCompletion(request);
+        assertEquals(500, response.getStatus());
+        assertNull(response.getHeader(HttpHeaders.AUTHORIZATION));
+        assertNull(response.getHeader(SecurityConstants.REFRESH_HEADER_STRING));
+    }
+
+    @Test
+    public void wrong_password_is_rejected() throws Exception {
+        loginExecutor = new LoginExecutor(1, 1, false, 1, 30_000);
+        when(authenticationManager.authenticate(any())).thenThrow(new BadCredentialsException("wrong"));
+        JWTAuthenticationFilter filter = new JWTAuthenticationFilter(authenticationManager, tokenService, loginExecutor, loginRateLimiter);
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(login("jenny", "wrong"), response, new MockFilterChain());
+
+        assertEquals(401, response.getStatus());
+        assertNull(response.getHeader(HttpHeaders.AUTHORIZATION));
+    }
+
+    @Test
+    public void full_queue_is_rejected_with_503() throws Exception {
+        loginExecutor = new LoginExecutor(1, 1, true, 7, 30_000);
+        when(authenticationManager.authenticate(any())).thenAnswer(invocation -> {
+            release.await();
+            return authenticated("jenny");
+        });
+        JWTAuthenticationFilter filter = new JWTAuthenticationFilter(authenticationManager, tokenService, loginExecutor, loginRateLimiter);
+
+        // one login hashing, one queued
+        filter.doFilter(login("jenny", "pass1234"), new MockHttpServletResponse(), new MockFilterChain());
+        filter.doFilter(login("jenny", "pass1234"), new MockHttpServletResponse(), new MockFilterChain());
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(login("jenny", "pass1234"), response, new MockFilterChain());
+
+        assertEquals(503, response.getStatus());
+        assertEquals("7", response.getHeader(HttpHeaders.RETRY_AFTER));
+    }
+
+    @Test
+    public void login_still_queued_at_the_timeout_is_answered_with_503_and_never_hashed() throws Exception {
+        loginExecutor = new LoginExecutor(1, 1, true, 7, 30_000);
+        when(authenticationManager.authenticate(any())).thenAnswer(invocation -> {
+            release.await();
+            return authenticated("jenny");
+        });
+        JWTAuthenticationFilter filter = new JWTAuthenticationFilter(authenticationManager, tokenService, loginExecutor, loginRateLimiter);
+        MockHttpServletRequest hashing = login("jenny", "pass1234");
+        filter.doFilter(hashing, new MockHttpServletResponse(), new MockFilterChain());
+        MockHttpServletRequest queued = login("jenny", "pass1234");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(queued, response, new MockFilterChain());
+        assertEquals(30_000, queued.getAsyncContext().getTimeout());
+        assertEquals(1, loginExecutor.getQueueSize());
+
+        // what the container does once the timeout is up
+        MockAsyncContext asyncContext = (MockAsyncContext) queued.getAsyncContext();
+        for (AsyncListener listener : asyncContext.getListeners()) {
+            listener.onTimeout(new AsyncEvent(asyncContext, queued, response));
+        }
+
+        assertFalse(queued.isAsyncStarted());
+        assertEquals(503, response.getStatus());
+        assertEquals("7", response.getHeader(HttpHeaders.RETRY_AFTER));
+        assertEquals(0, loginExecutor.getQueueSize());
+        release.countDown();
+        awaitCompletion(hashing);
+        // only the login that was already hashing
+        verify(authenticationManager, times(1)).authenticate(any());
+        assertNull(response.getHeader(HttpHeaders.AUTHORIZATION));
+    }
+
+    @Test
+    public void rate_limited_login_is_rejected_before_hashing() throws Exception {
+        loginExecutor = new LoginExecutor(1, 1, false, 1, 30_000);
+        when(authenticationManager.authenticate(any())).thenThrow(new BadCredentialsException("wrong"));
+        JWTAuthenticationFilter filter = new JWTAuthenticationFilter(authenticationManager, tokenService, loginExecutor, loginRateLimiter);
+
+        for (int i = 0; i < 3; i++) {
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            filter.doFilter(login("mallory", "guess" + i), response, new MockFilterChain());
+            assertEquals(401, response.getStatus());
+        }
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(login("mallory", "guess3"), response, new MockFilterChain());
+
+        assertEquals(429, response.getStatus());
+        assertEquals("60", response.getHeader(HttpHeaders.RETRY_AFTER));
+        verify(authenticationManager, times(3)).authenticate(any());
+    }
+
+    @Test
+    public void oversized_or_malformed_login_is_rejected_before_hashing() throws Exception {
+        loginExecutor = new LoginExecutor(1, 1, false, 1, 30_000);
+        JWTAuthenticationFilter filter = new JWTAuthenticationFilter(authenticationManager, tokenService, loginExecutor, loginRateLimiter);
+        filter.setMaxRequestBytes(64);
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(login("jenny", new String(new char[100]).replace('\0', 'x')), response, new MockFilterChain());
+        assertEquals(413, response.getStatus());
+
+        MockHttpServletRequest chunked = login("jenny", new String(new char[100]).replace('\0', 'x'));
+        response = new MockHttpServletResponse();
+        // no content length, as with chunked encoding
+        filter.doFilter(new HttpServletRequestWrapper(chunked) {
+            @Override
+            public long getContentLengthLong() {
+                return -1;
+            }
+        }, response, new MockFilterChain());
+        assertEquals(413, response.getStatus());
+
+        MockHttpServletRequest malformed = login("jenny", "pass1234");
+        malformed.setContent("{\"username\":".getBytes(StandardCharsets.UTF_8));
+        response = new MockHttpServletResponse();
+        filter.doFilter(malformed, response, new MockFilterChain());
+        assertEquals(400, response.getStatus());
+
+        MockHttpServletRequest empty = login("jenny", "pass1234");
+        empty.setContent("null".getBytes(StandardCharsets.UTF_8));
+        response = new MockHttpServletResponse();
+        filter.doFilter(empty, response, new MockFilterChain());
+        assertEquals(400, response.getStatus());
+
+        verify(authenticationManager, never()).authenticate(any());
+    }
+
+    @Test
+    public void other_requests_pass_through() throws Exception {
+        loginExecutor = new LoginExecutor(1, 1, true, 1, 30_000);
+        JWTAuthenticationFilter filter = new JWTAuthenticationFilter(authenticationManager, tokenService, loginExecutor, loginRateLimiter);
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/item");
+        request.setServletPath("/api/item");
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(request, new MockHttpServletResponse(), chain);
+
+        assertSame(request, chain.getRequest());
+        assertFalse(request.isAsyncStarted());
+    }
+
+    private static MockHttpServletRequest login(String username, String password) {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/login");
+        request.setServletPath("/login");
+        request.setAsyncSupported(true);
+        request.setContent(("{\"username\":\"" + username + "\",\"password\":\"" + password + "\"}")
+                .getBytes(StandardCharsets.UTF_8));
+        return request;
+    }
+
+    private static UsernamePasswordAuthenticationToken authenticated(String username) {
+        AuthenticatedUser user = new AuthenticatedUser(username, "", 1L, 1L);
+        return new UsernamePasswordAuthenticationToken(user, null, Collections.emptyList());
+    }
+
+    private static void awaitCompletion(MockHttpServletRequest request) throws InterruptedException {
+        for (int i = 0; i < 500 && request.isAsyncStarted(); i++) {
+            Thread.sleep(10);
+        }
+        assertFalse(request.isAsyncStarted());
+    }
+}
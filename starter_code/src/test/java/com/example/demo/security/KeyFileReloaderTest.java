@@ -0,0 +1,149 @@
+package com.example.demo.security;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.example.demo.model.requests.CreateUserRequest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.security.test.web.servlet.setup.SecurityMockMvcConfigurers.springSecurity;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(properties = {
+        "security.login.async=false",
+        "security.login.rate-limit.enabled=false",
+        "security.jwt.key-file=target/key-file-reloader-test/token-keys.properties",
+        "security.jwt.key-file-check-seconds=1",
+        "spring.datasource.url=jdbc:h2:mem:keyfilereloader;DB_CLOSE_DELAY=-1"})
+public class KeyFileReloaderTest {
+
+    private static final Path KEY_FILE = Paths.get("target/key-file-reloader-test/token-keys.properties");
+
+    static {
+        // the application starts without the file, on the configured keys
+        try {
+            Files.deleteIfExists(KEY_FILE);
+            Files.createDirectories(KEY_FILE.getParent());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+
+    @Autowired
+    private KeyRing keyRing;
+
+    @Autowired
+    private KeyFileReloader keyFileReloader;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    public void setup() {
+        mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext)
+                .apply(springSecurity())
+                .build();
+    }
+
+    @Test
+    public void keys_rotate_when_the_key_file_changes() throws Exception {
+        mockMvc.perform(post("/api/user/create")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new CreateUserRequest("rotator", "pass1234", "pass1234"))))
+                .andExpect(status().isOk());
+        String defaultToken = login("rotator");
+        assertEquals(KeyRing.DEFAULT_KEY_ID, keyId(defaultToken));
+
+        // the new key signs while tokens of the old one are still accepted
+        write("security.jwt.active-key=hmac-2",
+                "security.jwt.keys[0].id=" + KeyRing.DEFAULT_KEY_ID,
+                "security.jwt.keys[0].secret=" + SecurityConstants.SECRET,
+                "security.jwt.keys[1].id=hmac-2",
+                "security.jwt.keys[1].algorithm=HS256",
+                "security.jwt.keys[1].secret=anothersecret");
+        awaitTrue(() -> "hmac-2".equals(keyRing.getActiveKeyId()));
+        String rotatedToken = login("rotator");
+        assertEquals("hmac-2", keyId(rotatedToken));
+        mockMvc.perform(get("/api/user/rotator").header(HttpHeaders.AUTHORIZATION, defaultToken))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/api/user/rotator").header(HttpHeaders.AUTHORIZATION, rotatedToken))
+                .andExpect(status().isOk());
+
+        // once the file no longer lists the old key, its tokens are refused, verified before or not
+        write("security.jwt.keys[0].id=hmac-2",
+                "security.jwt.keys[0].algorithm=HS256",
+                "security.jwt.keys[0].secret=anothersecret");
+        awaitTrue(() -> !keyRing.isLive(KeyRing.DEFAULT_KEY_ID));
+        assertThrows(JWTVerificationException.class, () -> mockMvc.perform(get("/api/user/rotator")
+                .header(HttpHeaders.AUTHORIZATION, defaultToken)));
+        mockMvc.perform(get("/api/user/rotator").header(HttpHeaders.AUTHORIZATION, rotatedToken))
+                .andExpect(status().isOk());
+
+        // a file with a bad key changes nothing
+        write("security.jwt.active-key=rsa-verify-only",
+                "security.jwt.keys[0].id=hmac-3",
+                "security.jwt.keys[0].algorithm=HS256",
+                "security.jwt.keys[0].secret=yetanothersecret",
+                "security.jwt.keys[1].id=rsa-verify-only",
+                "security.jwt.keys[1].algorithm=RS256");
+        assertThrows(IllegalArgumentException.class, () -> keyFileReloader.reload());
+        assertEquals("hmac-2", keyRing.getActiveKeyId());
+        assertFalse(keyRing.isLive("hmac-3"));
+    }
+
+    private String login(String username) throws Exception {
+        return mockMvc.perform(post("/login")
+                        .content("{\"username\":\"" + username + "\",\"password\":\"pass1234\"}"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.AUTHORIZATION);
+    }
+
+    private static String keyId(String bearer) {
+        return JWT.decode(bearer.substring(SecurityConstants.TOKEN_PREFIX.length())).getKeyId();
+    }
+
+    private static void write(String... lines) throws IOException {
+        Path written = KEY_FILE.resolveSibling("token-keys.properties.tmp");
+        Files.write(written, String.join("\n", lines).getBytes(StandardCharsets.ISO_8859_1));
+        // swapped in whole, the reloader never reads half a file
+        Files.move(written, KEY_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(50);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.demo.security;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import org.junit.jupiter.api.Test;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Base64;
+
+import static com.auth0.jwt.algorithms.Algorithm.HMAC512;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class KeyRingTest {
+
+    @Test
+    public void default_key_signs_with_kid_and_accepts_legacy_tokens() {
+        KeyRing keyRing = new KeyRing(new KeyRingProperties());
+
+        String token = keyRing.sign(JWT.create().withSubject("jenny"));
+        DecodedJWT jwt = keyRing.verify(token);
+        assertEquals("jenny", jwt.getSubject());
+        assertEquals(KeyRing.DEFAULT_KEY_ID, jwt.getKeyId());
+
+        String legacyToken = JWT.create()
+                .withSubject("jenny")
+                .sign(HMAC512(SecurityConstants.SECRET.getBytes()));
+        assertEquals("jenny", keyRing.verify(legacyToken).getSubject());
+    }
+
+    @Test
+    public void rotate_to_rsa_and_ecdsa_keys() throws Exception {
+        KeyRing keyRing = new KeyRing(new KeyRingProperties());
+        String hmacToken = keyRing.sign(JWT.create().withSubject("jenny"));
+
+        KeyPairGenerator rsaGenerator = KeyPairGenerator.getInstance("RSA");
+        rsaGenerator.initialize(2048);
+        KeyPair rsa = rsaGenerator.generateKeyPair();
+        keyRing.addKey(TokenKey.rsa("rsa-1", "RS256",
+                (RSAPublicKey) rsa.getPublic(), (RSAPrivateKey) rsa.getPrivate()));
+        keyRing.activate("rsa-1");
+        String rsaToken = keyRing.sign(JWT.create().withSubject("jenny"));
+
+        KeyPairGenerator ecGenerator = KeyPairGenerator.getInstance("EC");
+        ecGenerator.initialize(256);
+        KeyPair ec = ecGenerator.generateKeyPair();
+        keyRing.addKey(TokenKey.ecdsa("ec-1", "ES256",
+                (ECPublicKey) ec.getPublic(), (ECPrivateKey) ec.getPrivate()));
+        keyRing.activate("ec-1");
+        String ecToken = keyRing.sign(JWT.create().withSubject("jenny"));
+
+        // old and new keys are live at the same time
+        assertEquals("rsa-1", keyRing.verify(rsaToken).getKeyId());
+        assertEquals("ec-1", keyRing.verify(ecToken).getKeyId());
+        assertEquals(KeyRing.DEFAULT_KEY_ID, keyRing.verify(hmacToken).getKeyId());
+
+        keyRing.retire(KeyRing.DEFAULT_KEY_ID);
+        assertFalse(keyRing.isLive(KeyRing.DEFAULT_KEY_ID));
+        assertThrows(JWTVerificationException.class, () -> keyRing.verify(hmacToken));
+        assertThrows(IllegalStateException.class, () -> keyRing.retire("ec-1"));
+    }
+
+    @Test
+    public void keys_from_properties() throws Exception {
+        KeyPairGenerator rsaGenerator = KeyPairGenerator.getInstance("RSA");
+        rsaGenerator.initialize(2048);
+        KeyPair rsa = rsaGenerator.generateKeyPair();
+
+        KeyRingProperties properties = new KeyRingProperties();
+        properties.getKeys().add(new KeyRingProperties.Key("hmac-1", "HS256", "anothersecret", null, null));
+        properties.getKeys().add(new KeyRingProperties.Key("rsa-1", "RS512", null,
+                Base64.getEncoder().encodeToString(rsa.getPublic().getEncoded()),
+                Base64.getEncoder().encodeToString(rsa.getPrivate().getEncoded())));
+        properties.getKeys().add(new KeyRingProperties.Key("rsa-verify-only", "RS512", null,
+                Base64.getEncoder().encodeToString(rsa.getPublic().getEncoded()), null));
+        properties.setActiveKey("rsa-1");
+
+        KeyRing keyRing = new KeyRing(properties);
+
+        assertEquals("rsa-1", keyRing.getActiveKeyId());
+        assertTrue(keyRing.isLive("hmac-1"));
+        assertFalse(keyRing.isLive(KeyRing.DEFAULT_KEY_ID));
+        assertEquals("jenny", keyRing.verify(keyRing.sign(JWT.create().withSubject("jenny"))).getSubject());
+        assertThrows(IllegalStateException.class, () -> keyRing.activate("rsa-verify-only"));
+        assertThrows(JWTVerificationException.class, () -> keyRing.verify(JWT.create()
+                .withKeyId("unknown")
+                .sign(HMAC512(SecurityConstants.SECRET.getBytes()))));
+    }
+
+    @Test
+    public void unknown_active_key_fails_fast() {
+        KeyRingProperties properties = new KeyRingProperties();
+        properties.getKeys().add(new KeyRingProperties.Key("hmac-1", "HS256", "anothersecret", null, null));
+        properties.setActiveKey("hmac-2");
+
+        assertThrows(IllegalStateException.class, () -> new KeyRing(properties));
+        assertThrows(IllegalArgumentException.class, () -> TokenKey.from(
+                new KeyRingProperties.Key("none", "none", null, null, null)));
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.demo.security;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LoginRateLimiterTest {
+
+    @Test
+    public void username_limit_does_not_affect_other_users() {
+        LoginRateLimiter limiter = new LoginRateLimiter(true, 1024, 2, 1, 100, 100);
+
+        assertEquals(0, limiter.tryAcquire("mallory", "10.0.0.1"));
+        assertEquals(0, limiter.tryAcquire("mallory", "10.0.0.2"));
+        assertTrue(limiter.tryAcquire("mallory", "10.0.0.3") > 0);
+
+        for (int i = 0; i < 50; i++) {
+            assertEquals(0, limiter.tryAcquire("user" + i, "10.0.0.4"));
+        }
+    }
+
+    @Test
+    public void address_limit_applies_across_usernames() {
+        LoginRateLimiter limiter = new LoginRateLimiter(true, 1024, 10, 10, 3, 60);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.tryAcquire("user" + i, "10.0.0.1"));
+        }
+        assertEquals(1, limiter.tryAcquire("user3", "10.0.0.1"));
+        assertEquals(0, limiter.tryAcquire("user3", "10.0.0.2"));
+        assertEquals(1, limiter.getRejectedCount());
+    }
+
+    @Test
+    public void keys_colliding_in_the_first_row_are_spread_over_the_second() {
+        LoginRateLimiter.BucketTable table = new LoginRateLimiter.BucketTable(16, 1, 1);
+
+        int firstIndex = table.firstIndex("user0");
+        Set<Integer> secondIndexes = new HashSet<>();
+        int collisions = 0;
+        for (int i = 1; i < 2000; i++) {
+            if (table.firstIndex("user" + i) == firstIndex) {
+                collisions++;
+                secondIndexes.add(table.secondIndex("user" + i));
+            }
+        }
+
+        assertTrue(collisions > 50);
+        // with a second row derived from the first hash, every collision would share one index
+        assertTrue(secondIndexes.size() > 8);
+    }
+
+    @Test
+    public void disabled_limiter_allows_everything() {
+        LoginRateLimiter limiter = new LoginRateLimiter(false, 16, 1, 1, 1, 1);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, limiter.tryAcquire("mallory", "10.0.0.1"));
+        }
+    }
+}
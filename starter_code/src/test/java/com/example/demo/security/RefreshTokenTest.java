@@ -0,0 +1,117 @@
+package com.example.demo.security;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.example.demo.model.persistence.RevokedToken;
+import com.example.demo.model.persistence.repositories.RevokedTokenRepository;
+import com.example.demo.model.requests.CreateUserRequest;
+import com.example.demo.model.requests.ModifyCartRequest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.security.test.web.servlet.setup.SecurityMockMvcConfigurers.springSecurity;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(properties = {
+        "security.login.async=false",
+        "security.login.rate-limit.enabled=false",
+        "spring.datasource.url=jdbc:h2:mem:refreshtoken;DB_CLOSE_DELAY=-1"})
+public class RefreshTokenTest {
+
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+
+    @Autowired
+    private KeyRing keyRing;
+
+    @Autowired
+    private RevokedTokenRepository revokedTokenRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    public void setup() {
+        mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext)
+                .apply(springSecurity())
+                .build();
+    }
+
+    @Test
+    public void revocation_holds_after_a_restart() throws Exception {
+        String refreshToken = login("revoker").getHeader(SecurityConstants.REFRESH_HEADER_STRING);
+        revokedTokenRepository.save(new RevokedToken("long-expired", Instant.now().minusSeconds(60)));
+
+        mockMvc.perform(post("/api/auth/revoke")
+                        .header(SecurityConstants.REFRESH_HEADER_STRING, refreshToken))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(post("/api/auth/refresh")
+                        .header(SecurityConstants.REFRESH_HEADER_STRING, refreshToken))
+                .andExpect(status().isUnauthorized());
+        // a node started after the revocation, or another one, knows it from the database
+        TokenService restarted = new TokenService(keyRing, revokedTokenRepository);
+        assertThrows(JWTVerificationException.class, () -> restarted.verifyRefreshToken(refreshToken));
+        // and the revocation was the occasion to delete the ones of tokens that expired anyway
+        assertFalse(revokedTokenRepository.existsById("long-expired"));
+    }
+
+    @Test
+    public void refreshed_access_token_carries_the_cart_created_after_the_login() throws Exception {
+        MockHttpServletResponse login = login("refresher");
+        String bearer = login.getHeader(HttpHeaders.AUTHORIZATION);
+        assertTrue(JWT.decode(bearer.substring(SecurityConstants.TOKEN_PREFIX.length()))
+                .getClaim(TokenService.CART_ID_CLAIM).isNull());
+        mockMvc.perform(post("/api/cart/addToCart")
+                        .header(HttpHeaders.AUTHORIZATION, bearer)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new ModifyCartRequest("refresher", 1L, 1))))
+                .andExpect(status().isOk());
+
+        String refreshed = mockMvc.perform(post("/api/auth/refresh")
+                        .header(SecurityConstants.REFRESH_HEADER_STRING, login.getHeader(SecurityConstants.REFRESH_HEADER_STRING)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.AUTHORIZATION);
+
+        Long cartId = jdbcTemplate.queryForObject("select cart_id from user where username = 'refresher'", Long.class);
+        assertNotNull(cartId);
+        assertEquals(cartId, JWT.decode(refreshed.substring(SecurityConstants.TOKEN_PREFIX.length()))
+                .getClaim(TokenService.CART_ID_CLAIM).asLong());
+    }
+
+    private MockHttpServletResponse login(String username) throws Exception {
+        mockMvc.perform(post("/api/user/create")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new CreateUserRequest(username, "pass1234", "pass1234"))))
+                .andExpect(status().isOk());
+        return mockMvc.perform(post("/login")
+                        .content("{\"username\":\"" + username + "\",\"password\":\"pass1234\"}"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse();
+    }
+}
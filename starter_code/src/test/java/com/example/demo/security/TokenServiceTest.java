@@ -0,0 +1,61 @@
+package com.example.demo.security;
+
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import com.example.demo.model.persistence.repositories.RevokedTokenRepository;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class TokenServiceTest {
+
+    private static final AuthenticatedUser JENNY = new AuthenticatedUser("jenny", "", 1L, 2L);
+
+    private final TokenService tokenService = new TokenService(new KeyRing(new KeyRingProperties()),
+            mock(RevokedTokenRepository.class));
+
+    @Test
+    public void access_token_expires_before_refresh_token() {
+        DecodedJWT access = tokenService.verifyAccessToken(tokenService.issueAccessToken(JENNY));
+        DecodedJWT refresh = tokenService.verifyRefreshToken(tokenService.issueRefreshToken(JENNY));
+
+        assertEquals("jenny", access.getSubject());
+        assertEquals("jenny", refresh.getSubject());
+        assertTrue(access.getExpiresAt().before(refresh.getExpiresAt()));
+    }
+
+    @Test
+    public void ids_are_carried_from_refresh_to_access_token() {
+        DecodedJWT refresh = tokenService.verifyRefreshToken(tokenService.issueRefreshToken(JENNY));
+        DecodedJWT access = tokenService.verifyAccessToken(tokenService.issueAccessToken(tokenService.principalOf(refresh)));
+
+        AuthenticatedUser principal = tokenService.principalOf(access);
+        assertEquals("jenny", principal.getUsername());
+        assertEquals(Long.valueOf(1L), principal.getUserId());
+        assertEquals(Long.valueOf(2L), principal.getCartId());
+        assertTrue(principal.hasIdsOf("jenny"));
+        assertFalse(principal.hasIdsOf("anne"));
+    }
+
+    @Test
+    public void token_without_ids_falls_back_to_username() {
+        AuthenticatedUser principal = tokenService.principalOf(
+                tokenService.verifyAccessToken(tokenService.issueAccessToken(new AuthenticatedUser("jenny", "", null, null))));
+
+        assertEquals("jenny", principal.getUsername());
+        assertFalse(principal.hasIdsOf("jenny"));
+    }
+
+    @Test
+    public void tokens_are_not_interchangeable() {
+        String access = tokenService.issueAccessToken(JENNY);
+        String refresh = tokenService.issueRefreshToken(JENNY);
+
+        assertThrows(JWTVerificationException.class, () -> tokenService.verifyAccessToken(refresh));
+        assertThrows(JWTVerificationException.class, () -> tokenService.verifyRefreshToken(access));
+    }
+}
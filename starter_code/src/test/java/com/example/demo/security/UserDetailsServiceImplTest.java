@@ -0,0 +1,57 @@
+package com.example.demo.security;
+
+import com.example.demo.model.persistence.User;
+import com.example.demo.model.persistence.repositories.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class UserDetailsServiceImplTest {
+
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final UserDetailsServiceImpl userDetailsService = new UserDetailsServiceImpl(userRepository, 16, 300, 16, 30);
+
+    @Test
+    public void known_user_is_loaded_once() {
+        when(userRepository.findByUsername("jenny")).thenReturn(new User(1L, "jenny", "hash"));
+
+        UserDetails first = userDetailsService.loadUserByUsername("jenny");
+        UserDetails second = userDetailsService.loadUserByUsername("jenny");
+
+        assertEquals("hash", second.getPassword());
+        // authentication erases the credentials of the returned instance, so it must not be shared
+        assertNotSame(first, second);
+        verify(userRepository, times(1)).findByUsername("jenny");
+    }
+
+    @Test
+    public void unknown_user_is_cached_until_created() {
+        assertThrows(UsernameNotFoundException.class, () -> userDetailsService.loadUserByUsername("stephen"));
+        assertThrows(UsernameNotFoundException.class, () -> userDetailsService.loadUserByUsername("stephen"));
+        verify(userRepository, times(1)).findByUsername("stephen");
+
+        when(userRepository.findByUsername("stephen")).thenReturn(new User(2L, "stephen", "hash"));
+        userDetailsService.evict("stephen");
+
+        assertEquals("hash", userDetailsService.loadUserByUsername("stephen").getPassword());
+    }
+
+    @Test
+    public void password_change_replaces_cached_hash() {
+        User user = new User(1L, "jenny", "old");
+        when(userRepository.findByUsername("jenny")).thenReturn(user);
+
+        UserDetails details = userDetailsService.loadUserByUsername("jenny");
+        userDetailsService.updatePassword(details, "new");
+
+        assertEquals("new", userDetailsService.loadUserByUsername("jenny").getPassword());
+    }
+}
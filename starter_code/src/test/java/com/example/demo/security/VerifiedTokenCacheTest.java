@@ -0,0 +1,61 @@
+package com.example.demo.security;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class VerifiedTokenCacheTest {
+
+    private static final long ONE_HOUR = 3_600_000;
+
+    @Test
+    public void hit_after_put() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(10);
+
+        assertNull(cache.get("token"));
+        cache.put("token", new VerifiedToken("jenny", KeyRing.DEFAULT_KEY_ID, 1L, 1L),
+                new Date(System.currentTimeMillis() + ONE_HOUR));
+
+        assertEquals("jenny", cache.get("token").getSubject());
+        assertNull(cache.get("other-token"));
+        assertEquals(1, cache.hitCount());
+        assertEquals(2, cache.missCount());
+    }
+
+    @Test
+    public void expired_token_is_a_miss() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(10);
+
+        cache.put("token", new VerifiedToken("jenny", KeyRing.DEFAULT_KEY_ID, 1L, 1L),
+                new Date(System.currentTimeMillis() - 1));
+
+        assertNull(cache.get("token"));
+        assertEquals(1, cache.evictionCount());
+    }
+
+    @Test
+    public void token_without_expiry_is_not_cached() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(10);
+
+        cache.put("token", new VerifiedToken("jenny", KeyRing.DEFAULT_KEY_ID, 1L, 1L), null);
+
+        assertNull(cache.get("token"));
+    }
+
+    @Test
+    public void size_is_bounded() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(100);
+        Date expiresAt = new Date(System.currentTimeMillis() + ONE_HOUR);
+
+        for (int i = 0; i < 1_000; i++) {
+            cache.put("token-" + i, new VerifiedToken("user-" + i, KeyRing.DEFAULT_KEY_ID, 1L, 1L), expiresAt);
+        }
+
+        assertTrue(cache.evictionCount() >= 900);
+        assertEquals("user-999", cache.get("token-999").getSubject());
+    }
+}
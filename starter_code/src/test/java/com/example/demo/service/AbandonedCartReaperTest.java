@@ -0,0 +1,155 @@
+package com.example.demo.service;
+
+import com.example.demo.model.persistence.ArchivedCartLine;
+import com.example.demo.model.persistence.Cart;
+import com.example.demo.model.persistence.Item;
+import com.example.demo.model.persistence.Money;
+import com.example.demo.model.persistence.repositories.ArchivedCartLineRepository;
+import com.example.demo.model.persistence.repositories.CartRepository;
+import com.example.demo.model.persistence.repositories.ItemRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:reaper;DB_CLOSE_DELAY=-1",
+        "cart.reaper.idle-hours=24",
+        "cart.reaper.batch-size=1",
+        "cart.reaper.interval-seconds=3600"})
+public class AbandonedCartReaperTest {
+
+    @Autowired
+    private AbandonedCartReaper reaper;
+
+    @Autowired
+    private CartStore cartStore;
+
+    @Autowired
+    private CartRepository cartRepository;
+
+    @Autowired
+    private ItemRepository itemRepository;
+
+    @Autowired
+    private ArchivedCartLineRepository archivedCartLineRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    public void idle_carts_are_emptied_and_archived() {
+        Item first = itemRepository.findById(1L).get();
+        Item second = itemRepository.findById(2L).get();
+        Long abandoned = cartWith(first, second);
+        Long otherAbandoned = cartWith(first);
+        Long active = cartWith(second);
+        jdbcTemplate.update("update cart set updated_at = ? where id in (?, ?)",
+                Timestamp.from(Instant.now().minus(Duration.ofDays(2))), abandoned, otherAbandoned);
+        long emptiedBefore = reaper.getEmptiedCartCount();
+        long linesBefore = reaper.getReclaimedLineCount();
+
+        assertEquals(2, reaper.reap());
+
+        assertEquals(0, storedLines(abandoned));
+        assertEquals(0, storedLines(otherAbandoned));
+        assertEquals(0, BigDecimal.ZERO.compareTo(
+                jdbcTemplate.queryForObject("select total from cart where id = ?", BigDecimal.class, abandoned)));
+        assertEquals(1, storedLines(active));
+        List<ArchivedCartLine> archived = archivedCartLineRepository.findByCartId(abandoned);
+        assertEquals(2, archived.size());
+        assertEquals(3, archived.stream().mapToInt(ArchivedCartLine::getQuantity).sum());
+        assertEquals(2, reaper.getEmptiedCartCount() - emptiedBefore);
+        assertEquals(3, reaper.getReclaimedLineCount() - linesBefore);
+
+        assertEquals(0, reaper.reap());
+    }
+
+    @Test
+    public void carts_without_a_change_time_start_their_idle_time_in_batches() {
+        Item item = itemRepository.findById(1L).get();
+        Long first = cartWith(item);
+        Long second = cartWith(item);
+        Long third = cartWith(item);
+        jdbcTemplate.update("update cart set updated_at = null where id in (?, ?, ?)", first, second, third);
+
+        reaper.reap();
+
+        assertEquals(0, (int) jdbcTemplate.queryForObject("select count(*) from cart where updated_at is null", Integer.class));
+        assertEquals(1, storedLines(first));
+        assertEquals(1, storedLines(third));
+    }
+
+    @Test
+    public void write_behind_carts_are_archived_once_emptied() {
+        Item item = itemRepository.findById(1L).get();
+        Long cartId = cartWith(item);
+        Instant idleSince = Instant.now().minus(Duration.ofDays(2));
+        jdbcTemplate.update("update cart set updated_at = ? where id = ?", Timestamp.from(idleSince), cartId);
+        Cart journaled = new Cart(cartId, new ArrayList<>(Arrays.asList(item, item)), null, Money.ZERO);
+        journaled.setUpdatedAt(idleSince);
+        WriteBehindCartStore writeBehind = mock(WriteBehindCartStore.class);
+        AbandonedCartReaper writeBehindReaper = new AbandonedCartReaper(writeBehind, jdbcTemplate,
+                archivedCartLineRepository, 24, 10, 3600, true);
+
+        Cart notJournaled = new Cart(cartId, new ArrayList<>(Arrays.asList(item)), null, Money.ZERO);
+        notJournaled.setUpdatedAt(idleSince);
+
+        // the change runs, then the journal append fails
+        when(writeBehind.update(eq(cartId), any())).thenAnswer(invocation -> {
+            invocation.<Function<Cart, Object>>getArgument(1).apply(notJournaled);
+            throw new UncheckedIOException(new IOException("journal is full"));
+        });
+        assertThrows(UncheckedIOException.class, writeBehindReaper::reap);
+        assertEquals(0, archivedCartLineRepository.findByCartId(cartId).size());
+
+        reset(writeBehind);
+        when(writeBehind.update(eq(cartId), any()))
+                .thenAnswer(invocation -> invocation.<Function<Cart, Object>>getArgument(1).apply(journaled));
+        assertEquals(1, writeBehindReaper.reap());
+        assertEquals(0, journaled.getLines().size());
+        List<ArchivedCartLine> archived = archivedCartLineRepository.findByCartId(cartId);
+        assertEquals(1, archived.size());
+        assertEquals(2, archived.get(0).getQuantity());
+
+        // the mocked store left the stored cart as it was
+        jdbcTemplate.update("delete from cart_line where cart_id = ?", cartId);
+    }
+
+    private Long cartWith(Item... items) {
+        Long cartId = cartRepository.save(new Cart()).getId();
+        cartStore.update(cartId, cart -> {
+            for (int i = 0; i < items.length; i++) {
+                cart.addItem(items[i], i + 1);
+            }
+            return cart;
+        });
+        return cartId;
+    }
+
+    private int storedLines(Long cartId) {
+        return jdbcTemplate.queryForObject("select count(*) from cart_line where cart_id = ?", Integer.class, cartId);
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.demo.service;
+
+import com.example.demo.model.persistence.User;
+import com.example.demo.model.persistence.repositories.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:cartprovisioner;DB_CLOSE_DELAY=-1")
+public class CartProvisionerTest {
+
+    @Autowired
+    private CartProvisioner cartProvisioner;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Test
+    public void cart_is_created_once() {
+        User user = new User();
+        user.setUsername("provisioned");
+        user.setPassword("secret");
+        user = userRepository.save(user);
+        assertNull(userRepository.findByUsername("provisioned").getCart());
+
+        // a second request that loaded the user before the cart existed
+        User stale = userRepository.findByUsername("provisioned");
+        Long cartId = cartProvisioner.cartIdOf(user);
+
+        assertNotNull(cartId);
+        assertEquals(cartId, cartProvisioner.cartIdOf(stale));
+        assertEquals(cartId, userRepository.findByUsername("provisioned").getCart().getId());
+    }
+}
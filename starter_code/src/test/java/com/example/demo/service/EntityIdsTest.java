@@ -0,0 +1,60 @@
+package com.example.demo.service;
+
+import com.example.demo.model.persistence.Cart;
+import com.example.demo.model.persistence.CartLine;
+import com.example.demo.model.persistence.Item;
+import com.example.demo.model.persistence.repositories.CartRepository;
+import com.example.demo.model.persistence.repositories.ItemRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import javax.persistence.EntityManagerFactory;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:entityids;DB_CLOSE_DELAY=-1")
+public class EntityIdsTest {
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private CartRepository cartRepository;
+
+    @Autowired
+    private ItemRepository itemRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    public void ids_come_from_the_pool_hibernate_hands_out_from() {
+        EntityIds lineIds = new EntityIds(entityManagerFactory, CartLine.class);
+        Item item = itemRepository.findById(1L).get();
+
+        long persisted = lineIdOf(cartRepository.save(cartWith(item)));
+        long[] allocated = lineIds.next(3);
+        long persistedAfter = lineIdOf(cartRepository.save(cartWith(item)));
+
+        // a block read from the sequence by hand could be one Hibernate is still handing out
+        assertArrayEquals(new long[] {persisted + 1, persisted + 2, persisted + 3}, allocated);
+        assertEquals(persisted + 4, persistedAfter);
+        assertEquals(persisted + 5, lineIds.next());
+    }
+
+    private static Cart cartWith(Item item) {
+        Cart cart = new Cart();
+        cart.addItem(item);
+        return cart;
+    }
+
+    private long lineIdOf(Cart cart) {
+        return jdbcTemplate.queryForObject("select id from cart_line where cart_id = ?", Long.class, cart.getId());
+    }
+}
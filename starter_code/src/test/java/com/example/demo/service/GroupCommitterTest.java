@@ -0,0 +1,280 @@
+package com.example.demo.service;
+
+import com.example.demo.model.persistence.Cart;
+import com.example.demo.model.persistence.Item;
+import com.example.demo.model.persistence.User;
+import com.example.demo.model.persistence.UserOrder;
+import com.example.demo.model.persistence.repositories.ItemRepository;
+import com.example.demo.model.persistence.repositories.OrderRepository;
+import com.example.demo.model.persistence.repositories.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(properties = {
+        "order.submit.group-commit=true",
+        "order.submit.group-commit.max-wait-millis=200",
+        "order.submit.group-commit.max-size=8",
+        "spring.datasource.url=jdbc:h2:mem:groupcommit;DB_CLOSE_DELAY=-1"})
+public class GroupCommitterTest {
+
+    @Autowired
+    private GroupCommitter groupCommitter;
+
+    @Autowired
+    private CartStore cartStore;
+
+    @Autowired
+    private CartProvisioner cartProvisioner;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ItemRepository itemRepository;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    public void concurrent_submits_share_a_commit() throws Exception {
+        List<Long> cartIds = cartsWithOneItem("shared", 8);
+        long groupsBefore = groupCommitter.getGroupCount();
+
+        List<UserOrder> orders = submitTogether(cartIds, cartId -> false);
+
+        assertTrue(groupCommitter.getGroupCount() - groupsBefore < cartIds.size());
+        HashSet<Long> orderIds = new HashSet<>();
+        for (UserOrder order : orders) {
+            orderIds.add(order.getId());
+            assertEquals(1, (int) jdbcTemplate.queryForObject(
+                    "select count(*) from order_line where order_id = ?", Integer.class, order.getId()));
+        }
+        assertEquals(cartIds.size(), orderIds.size());
+        for (Long cartId : cartIds) {
+            assertEquals(0, storedLines(cartId));
+        }
+    }
+
+    @Test
+    public void a_failing_submit_only_fails_its_caller() throws Exception {
+        List<Long> cartIds = cartsWithOneItem("isolated", 4);
+        Long failing = cartIds.get(1);
+        long ordersBefore = orderRepository.count();
+
+        ExecutionException failure = assertThrows(ExecutionException.class,
+                () -> submitTogether(cartIds, failing::equals));
+
+        assertTrue(failure.getCause() instanceof IllegalStateException);
+        assertEquals(cartIds.size() - 1, orderRepository.count() - ordersBefore);
+        for (Long cartId : cartIds) {
+            assertEquals(cartId.equals(failing) ? 1 : 0, storedLines(cartId));
+        }
+    }
+
+    @Test
+    public void a_request_on_a_shared_lock_does_not_stall_the_group() throws Exception {
+        JpaCartStore jpaCartStore = (JpaCartStore) cartStore;
+        Long first = cartsWithOneItem("stripe-first", 1).get(0);
+        // the group changes the carts in id order: first, one behind another lock, then one behind the first's lock
+        Long between = cartWithLock(jpaCartStore, first, false, "stripe-between");
+        Long last = cartWithLock(jpaCartStore, first, true, "stripe-last");
+        Item item = itemRepository.findById(2L).get();
+        Function<Cart, Cart> addItem = cart -> {
+            cart.addItem(item);
+            return cart;
+        };
+
+        CountDownLatch firstChanged = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Cart>> group = new ArrayList<>();
+            group.add(executor.submit(() -> groupCommitter.update(first, addItem)));
+            group.add(executor.submit(() -> groupCommitter.update(last, addItem)));
+            group.add(executor.submit(() -> groupCommitter.update(between, cart -> {
+                firstChanged.countDown();
+                try {
+                    // the group holds the first cart's row by now, the request below asks for it
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return addItem.apply(cart);
+            })));
+            firstChanged.await();
+            Future<Cart> request = executor.submit(() -> cartStore.update(first, addItem));
+
+            for (Future<Cart> change : group) {
+                change.get();
+            }
+            request.get();
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(0, groupCommitter.getFallbackCount());
+        assertEquals(2, (int) jdbcTemplate.queryForObject(
+                "select quantity from cart_line where cart_id = ? and item_id = 2", Integer.class, first));
+        assertEquals(1, (int) jdbcTemplate.queryForObject(
+                "select quantity from cart_line where cart_id = ? and item_id = 2", Integer.class, last));
+    }
+
+    @Test
+    public void an_error_in_a_change_fails_its_caller_and_the_committer_goes_on() throws Exception {
+        List<Long> cartIds = cartsWithOneItem("error", 2);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Cart> failing = executor.submit(() -> groupCommitter.update(cartIds.get(0), cart -> {
+                throw new AssertionError("broken change");
+            }));
+            ExecutionException failure = assertThrows(ExecutionException.class, () -> failing.get(10, TimeUnit.SECONDS));
+            assertTrue(failure.getCause() instanceof AssertionError);
+
+            Future<Integer> next = executor.submit(() -> groupCommitter.update(cartIds.get(1), cart -> cart.getLines().size()));
+            assertEquals(1, (int) next.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void a_caller_gives_up_after_the_timeout_and_its_change_never_runs() throws Exception {
+        List<Long> cartIds = cartsWithOneItem("timeout", 2);
+        Item item = itemRepository.findById(2L).get();
+        GroupCommitter committer = new GroupCommitter(cartStore, transactionManager, 0, 8, 200);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        try {
+            // holds the committer, as a commit stuck in the database would
+            Future<Cart> stuck = executor.submit(() -> committer.update(cartIds.get(0), cart -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return cart;
+            }));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            IllegalStateException timeout = assertThrows(IllegalStateException.class,
+                    () -> committer.update(cartIds.get(1), cart -> {
+                        cart.addItem(item);
+                        return cart;
+                    }));
+            assertTrue(timeout.getMessage().contains("withdrawn"));
+
+            // the stuck caller gave up as well, but its change had started
+            ExecutionException unknown = assertThrows(ExecutionException.class, () -> stuck.get(10, TimeUnit.SECONDS));
+            assertTrue(unknown.getCause().getMessage().contains("may still be"));
+
+            release.countDown();
+            // the committer is free again and skipped the withdrawn change
+            assertEquals(1, (int) committer.update(cartIds.get(1), cart -> cart.getLines().size()));
+        } finally {
+            release.countDown();
+            executor.shutdown();
+            committer.close();
+        }
+        assertEquals(1, storedLines(cartIds.get(1)));
+    }
+
+    // a new cart behind the same lock as the given one, or behind another
+    private Long cartWithLock(JpaCartStore store, Long of, boolean same, String prefix) {
+        for (int i = 0; ; i++) {
+            Long cartId = cartsWithOneItem(prefix + i, 1).get(0);
+            if ((store.stripe(cartId) == store.stripe(of)) == same) {
+                return cartId;
+            }
+        }
+    }
+
+    private List<UserOrder> submitTogether(List<Long> cartIds, Predicate<Long> fails) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(cartIds.size());
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<UserOrder>> results = new ArrayList<>();
+            for (Long cartId : cartIds) {
+                Callable<UserOrder> submit = () -> {
+                    start.await();
+                    return groupCommitter.update(cartId, cart -> {
+                        UserOrder placed = orderRepository.save(UserOrder.createFromCart(cart));
+                        cart.clear();
+                        if (fails.test(cartId)) {
+                            throw new IllegalStateException("Order of cart " + cartId + " is refused");
+                        }
+                        return placed;
+                    });
+                };
+                results.add(executor.submit(submit));
+            }
+            start.countDown();
+            List<UserOrder> orders = new ArrayList<>();
+            ExecutionException failure = null;
+            for (Future<UserOrder> result : results) {
+                try {
+                    orders.add(result.get());
+                } catch (ExecutionException e) {
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return orders;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private List<Long> cartsWithOneItem(String prefix, int count) {
+        Item item = itemRepository.findById(1L).get();
+        List<Long> cartIds = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            User user = new User();
+            user.setUsername(prefix + i);
+            user.setPassword("unused");
+            Long cartId = cartProvisioner.cartIdOf(userRepository.save(user));
+            cartStore.update(cartId, cart -> {
+                cart.addItem(item);
+                return cart;
+            });
+            cartIds.add(cartId);
+        }
+        return cartIds;
+    }
+
+    private int storedLines(Long cartId) {
+        return jdbcTemplate.queryForObject("select count(*) from cart_line where cart_id = ?", Integer.class, cartId);
+    }
+}
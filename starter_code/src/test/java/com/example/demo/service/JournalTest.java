@@ -0,0 +1,74 @@
+package com.example.demo.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JournalTest {
+
+    @Test
+    public void segments_are_released_oldest_first_once_their_keys_are_settled_without_reading_them() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+        AtomicInteger reads = new AtomicInteger();
+        Journal journal = new Journal(directory, "test-", false) {
+            @Override
+            <T> List<T> read(Path path, Function<String, T> decoder) throws IOException {
+                reads.incrementAndGet();
+                return super.read(path, decoder);
+            }
+        };
+        journal.replay(Function.identity());
+        Set<Long> outstanding = new HashSet<>();
+
+        outstanding.add(1L);
+        journal.append(line("order 1"), 1L);
+        journal.release(key -> !outstanding.contains(key));
+        outstanding.add(2L);
+        journal.append(line("order 2"), 2L);
+        journal.append(line("dropped 1"));
+        journal.release(key -> !outstanding.contains(key));
+        // the older segment holds the newer one back
+        outstanding.remove(2L);
+        journal.release(key -> !outstanding.contains(key));
+        assertTrue(Files.exists(directory.resolve("test-00000001.journal")));
+        assertTrue(Files.exists(directory.resolve("test-00000002.journal")));
+
+        outstanding.remove(1L);
+        journal.release(key -> !outstanding.contains(key));
+        assertFalse(Files.exists(directory.resolve("test-00000001.journal")));
+        assertFalse(Files.exists(directory.resolve("test-00000002.journal")));
+        assertEquals(0, reads.get());
+        journal.close();
+    }
+
+    @Test
+    public void replayed_records_hold_their_segment_by_their_key() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+        Files.write(directory.resolve("test-00000001.journal"), line("order 7\nconfirmed 7"));
+        Journal journal = new Journal(directory, "test-", false);
+        journal.replay(Function.identity(), record -> record.startsWith("order ") ? Long.valueOf(record.substring(6)) : null);
+
+        journal.release(key -> key != 7L);
+        assertTrue(Files.exists(directory.resolve("test-00000001.journal")));
+
+        journal.release(key -> true);
+        assertFalse(Files.exists(directory.resolve("test-00000001.journal")));
+        journal.close();
+    }
+
+    private static byte[] line(String record) {
+        return (record + "\n").getBytes(StandardCharsets.US_ASCII);
+    }
+}
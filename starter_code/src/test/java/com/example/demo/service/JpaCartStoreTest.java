@@ -0,0 +1,116 @@
+package com.example.demo.service;
+
+import com.example.demo.model.persistence.Cart;
+import com.example.demo.model.persistence.Item;
+import com.example.demo.model.persistence.Money;
+import com.example.demo.model.persistence.repositories.CartRepository;
+import com.example.demo.model.persistence.repositories.ItemRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.jpa.EntityManagerHolder;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:jpacartstore;DB_CLOSE_DELAY=-1")
+public class JpaCartStoreTest {
+
+    @Autowired
+    private JpaCartStore cartStore;
+
+    @Autowired
+    private CartRepository cartRepository;
+
+    @Autowired
+    private ItemRepository itemRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    public void parallel_adds_to_one_cart_are_all_kept() throws Exception {
+        Long cartId = cartRepository.save(new Cart()).getId();
+        Item item = itemRepository.findById(1L).get();
+        int threads = 8;
+        int addsPerThread = 25;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < addsPerThread; i++) {
+                        cartStore.update(cartId, cart -> {
+                            cart.addItem(item);
+                            return cart;
+                        });
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        int quantity = jdbcTemplate.queryForObject(
+                "select quantity from cart_line where cart_id = ? and item_id = ?", Integer.class, cartId, item.getId());
+        assertEquals(threads * addsPerThread, quantity);
+        assertEquals(item.getPrice().times(threads * addsPerThread),
+                Money.of(jdbcTemplate.queryForObject("select total from cart where id = ?", BigDecimal.class, cartId)));
+    }
+
+    @Test
+    public void stale_copy_is_replayed_on_the_current_cart() throws Exception {
+        Long cartId = cartRepository.save(new Cart()).getId();
+        Item first = itemRepository.findById(1L).get();
+        Item second = itemRepository.findById(2L).get();
+        long retries = cartStore.getRetryCount();
+
+        // like open-session-in-view, the request holds a copy of the cart from before the change
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        TransactionSynchronizationManager.bindResource(entityManagerFactory, new EntityManagerHolder(entityManager));
+        try {
+            entityManager.find(Cart.class, cartId);
+
+            // meanwhile another node adds an item
+            Thread otherNode = new Thread(() -> cartStore.update(cartId, cart -> {
+                cart.addItem(first);
+                return cart;
+            }));
+            otherNode.start();
+            otherNode.join();
+
+            Cart cart = cartStore.update(cartId, current -> {
+                current.addItem(second);
+                return current;
+            });
+
+            assertEquals(1, cart.getQuantity(first));
+            assertEquals(1, cart.getQuantity(second));
+            assertEquals(first.getPrice().plus(second.getPrice()), cart.getTotal());
+            assertEquals(retries + 1, cartStore.getRetryCount());
+        } finally {
+            TransactionSynchronizationManager.unbindResource(entityManagerFactory);
+            entityManager.close();
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.example.demo.service;
+
+import com.example.demo.model.persistence.Cart;
+import com.example.demo.model.persistence.Item;
+import com.example.demo.model.persistence.repositories.CartRepository;
+import com.example.demo.model.persistence.repositories.ItemRepository;
+import com.example.demo.model.requests.CreateUserRequest;
+import com.example.demo.model.requests.ModifyCartRequest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.web.context.WebApplicationContext;
+
+import javax.persistence.EntityManagerFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.security.test.web.servlet.setup.SecurityMockMvcConfigurers.springSecurity;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(properties = {
+        "security.login.async=false",
+        "order.submit.async=true",
+        "order.submit.journal.dir=target/order-journal-${random.uuid}",
+        "order.submit.journal.fsync=false",
+        "spring.datasource.url=jdbc:h2:mem:orderpipeline;DB_CLOSE_DELAY=-1"})
+public class OrderPipelineTest {
+
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+
+    @Autowired
+    private OrderPipeline orderPipeline;
+
+    @Autowired
+    private CartStore cartStore;
+
+    @Autowired
+    private CartRepository cartRepository;
+
+    @Autowired
+    private ItemRepository itemRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    public void setup() {
+        mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext)
+                .apply(springSecurity())
+                .build();
+    }
+
+    @Test
+    public void submit_queues_the_order_and_empties_the_cart() throws Exception {
+        mockMvc.perform(post("/api/user/create")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new CreateUserRequest("pipeline", "pass1234", "pass1234"))))
+                .andExpect(status().isOk());
+        String bearer = mockMvc.perform(post("/login")
+                        .content("{\"username\":\"pipeline\",\"password\":\"pass1234\"}"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.AUTHORIZATION);
+        mockMvc.perform(post("/api/cart/addToCart")
+                        .header(HttpHeaders.AUTHORIZATION, bearer)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new ModifyCartRequest("pipeline", 1L, 3))))
+                .andExpect(status().isOk());
+
+        MvcResult result = mockMvc.perform(post("/api/order/submit/pipeline")
+                        .header(HttpHeaders.AUTHORIZATION, bearer))
+                .andExpect(status().isAccepted())
+                .andReturn();
+        long orderId = JsonPath.parse(result.getResponse().getContentAsString()).read("$.id", Long.class);
+        assertEquals("/api/order/status/" + orderId, result.getResponse().getHeader(HttpHeaders.LOCATION));
+        result = mockMvc.perform(get("/api/cart/pipeline")
+                        .header(HttpHeaders.AUTHORIZATION, bearer))
+                .andExpect(status().isOk())
+                .andReturn();
+        assertEquals(0, (int) JsonPath.parse(result.getResponse().getContentAsString()).read("$.lines.length()", Integer.class));
+
+        awaitTrue(() -> !orderPipeline.isQueued(orderId));
+        result = mockMvc.perform(get("/api/order/status/" + orderId)
+                        .header(HttpHeaders.AUTHORIZATION, bearer))
+                .andExpect(status().isOk())
+                .andReturn();
+        assertEquals("PLACED", JsonPath.parse(result.getResponse().getContentAsString()).read("$.status"));
+
+        result = mockMvc.perform(get("/api/order/history/pipeline")
+                        .header(HttpHeaders.AUTHORIZATION, bearer))
+                .andExpect(status().isOk())
+                .andReturn();
+        DocumentContext history = JsonPath.parse(result.getResponse().getContentAsString());
+        assertEquals(orderId, (long) history.read("$.orders[0].id", Long.class));
+        assertEquals("Round Widget", history.read("$.orders[0].lines[0].name"));
+        assertEquals(3, (int) history.read("$.orders[0].lines[0].quantity", Integer.class));
+        assertEquals("8.97", history.read("$.orders[0].total").toString());
+    }
+
+    @Test
+    public void journaled_orders_are_placed_after_a_restart() throws Exception {
+        long userId = jdbcTemplate.queryForObject("select id from user where username = 'jenny'", Long.class);
+        long storedId = jdbcTemplate.queryForObject("select next value for user_order_seq", Long.class);
+        long droppedId = storedId - 1;
+        long pendingId = storedId - 2;
+        jdbcTemplate.update("insert into user_order (id, user_id, total) values (?, ?, 0)", storedId, userId);
+
+        Path directory = Files.createTempDirectory("order-journal");
+        PendingOrder pending = new PendingOrder(pendingId, userId, 1, 1, 698, new long[] {1, 2}, new int[] {1, 2},
+                new long[] {299, 199}, new String[] {"Round, Widget", "Square: Widget"});
+        Files.write(directory.resolve("order-00000001.journal"), concat(
+                pending.encode(),
+                PendingOrder.confirmed(pendingId).encode(),
+                new PendingOrder(droppedId, userId, 1, 1, 0, new long[0], new int[0], new long[0], new String[0]).encode(),
+                PendingOrder.confirmed(droppedId).encode(),
+                PendingOrder.dropped(droppedId).encode(),
+                new PendingOrder(storedId, userId, 1, 1, 0, new long[0], new int[0], new long[0], new String[0]).encode(),
+                PendingOrder.confirmed(storedId).encode(),
+                "0 torn".getBytes()));
+
+        OrderPipeline restarted = new OrderPipeline(cartStore, jdbcTemplate, transactionManager, entityManagerFactory,
+                directory.toString(), false, 10, 1, 50, 1);
+        restarted.start();
+        try {
+            // every order is stored, then the replayed segment goes
+            awaitTrue(() -> !Files.exists(directory.resolve("order-00000001.journal")));
+        } finally {
+            restarted.close();
+        }
+
+        assertEquals(0, restarted.getQueueSize());
+        assertEquals(2, restarted.getPlacedCount());
+        assertEquals(1, (int) jdbcTemplate.queryForObject("select count(*) from user_order where id = ?", Integer.class, pendingId));
+        assertEquals(0, (int) jdbcTemplate.queryForObject("select count(*) from user_order where id = ?", Integer.class, droppedId));
+        assertEquals(1, (int) jdbcTemplate.queryForObject("select count(*) from user_order where id = ?", Integer.class, storedId));
+        assertEquals("Square: Widget", jdbcTemplate.queryForObject(
+                "select name from order_line where order_id = ? and item_id = 2", String.class, pendingId));
+        assertEquals(3, (int) jdbcTemplate.queryForObject(
+                "select sum(quantity) from order_line where order_id = ?", Integer.class, pendingId));
+    }
+
+    @Test
+    public void unconfirmed_orders_are_only_placed_if_their_cart_was_emptied() throws Exception {
+        long userId = jdbcTemplate.queryForObject("select id from user where username = 'jenny'", Long.class);
+        long emptiedId = jdbcTemplate.queryForObject("select next value for user_order_seq", Long.class);
+        long notEmptiedId = emptiedId - 1;
+        Item item = itemRepository.findById(1L).get();
+        // the crash came after the cart change was committed, but before the order was confirmed
+        Long emptiedCart = cartRepository.save(new Cart()).getId();
+        cartStore.update(emptiedCart, cart -> {
+            cart.addItem(item, 2);
+            return null;
+        });
+        long emptiedVersion = cartStore.update(emptiedCart, cart -> {
+            cart.clear();
+            return cart.getVersion() + 1;
+        });
+        // the crash came before the cart change was committed, the cart still holds what the order took
+        Long fullCart = cartRepository.save(new Cart()).getId();
+        long fullVersion = cartStore.update(fullCart, cart -> {
+            cart.addItem(item, 2);
+            return cart.getVersion() + 1;
+        });
+
+        Path directory = Files.createTempDirectory("order-journal");
+        Files.write(directory.resolve("order-00000001.journal"), concat(
+                new PendingOrder(emptiedId, userId, emptiedCart, emptiedVersion, 598, new long[] {1}, new int[] {2},
+                        new long[] {299}, new String[] {"Round Widget"}).encode(),
+                new PendingOrder(notEmptiedId, userId, fullCart, fullVersion + 1, 598, new long[] {1}, new int[] {2},
+                        new long[] {299}, new String[] {"Round Widget"}).encode()));
+
+        OrderPipeline restarted = new OrderPipeline(cartStore, jdbcTemplate, transactionManager, entityManagerFactory,
+                directory.toString(), false, 10, 1, 50, 1);
+        restarted.start();
+        try {
+            awaitTrue(() -> !restarted.isQueued(emptiedId));
+        } finally {
+            restarted.close();
+        }
+
+        assertEquals(1, restarted.getPlacedCount());
+        assertEquals(1, (int) jdbcTemplate.queryForObject("select count(*) from user_order where id = ?", Integer.class, emptiedId));
+        assertEquals(0, (int) jdbcTemplate.queryForObject("select count(*) from user_order where id = ?", Integer.class, notEmptiedId));
+    }
+
+    private static byte[] concat(byte[]... records) {
+        int length = 0;
+        for (byte[] record : records) {
+            length += record.length;
+        }
+        byte[] bytes = new byte[length];
+        int offset = 0;
+        for (byte[] record : records) {
+            System.arraycopy(record, 0, bytes, offset, record.length);
+            offset += record.length;
+        }
+        return bytes;
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(20);
+        }
+    }
+}
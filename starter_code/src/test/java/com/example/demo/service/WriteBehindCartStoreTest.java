@@ -0,0 +1,241 @@
+package com.example.demo.service;
+
+import com.example.demo.model.persistence.Cart;
+import com.example.demo.model.persistence.Item;
+import com.example.demo.model.persistence.Money;
+import com.example.demo.model.persistence.repositories.CartRepository;
+import com.example.demo.model.persistence.repositories.ItemRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import javax.persistence.EntityManagerFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:writebehind;DB_CLOSE_DELAY=-1")
+public class WriteBehindCartStoreTest {
+
+    @Autowired
+    private CartRepository cartRepository;
+
+    @Autowired
+    private ItemRepository itemRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Path journalDirectory;
+
+    @BeforeEach
+    public void createJournalDirectory() throws Exception {
+        journalDirectory = Files.createTempDirectory("cart-journal");
+    }
+
+    @AfterEach
+    public void deleteJournalDirectory() throws Exception {
+        try (Stream<Path> files = Files.list(journalDirectory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(journalDirectory);
+    }
+
+    private WriteBehindCartStore newStore() throws Exception {
+        // no background flush, the tests flush themselves
+        WriteBehindCartStore store = new WriteBehindCartStore(cartRepository, jdbcTemplate, transactionManager, entityManagerFactory,
+                journalDirectory.toString(), true, 3_600_000, 2, 10_000);
+        store.start();
+        return store;
+    }
+
+    @Test
+    public void changes_reach_the_database_with_the_flush() throws Exception {
+        Long cartId = cartRepository.save(new Cart()).getId();
+        Item item = itemRepository.findById(1L).get();
+        WriteBehindCartStore store = newStore();
+        try {
+            Cart cart = store.update(cartId, current -> {
+                current.addItem(item, 3);
+                return current;
+            });
+            assertEquals(3, cart.getQuantity(item));
+            assertEquals(1, cart.getVersion());
+            assertEquals(1, store.getVersion(cartId));
+            assertEquals(3, store.get(cartId).getQuantity(item));
+            assertEquals(0, storedQuantity(cartId));
+
+            store.flush();
+
+            assertEquals(3, storedQuantity(cartId));
+            assertEquals(1, (long) jdbcTemplate.queryForObject("select version from cart where id = ?", Long.class, cartId));
+            assertEquals(item.getPrice().times(3), storedTotal(cartId));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void failed_change_leaves_the_cart_as_it_was() throws Exception {
+        Long cartId = cartRepository.save(new Cart()).getId();
+        Item item = itemRepository.findById(1L).get();
+        WriteBehindCartStore store = newStore();
+        try {
+            store.update(cartId, current -> {
+                current.addItem(item);
+                return current;
+            });
+            assertThrows(IllegalStateException.class, () -> store.update(cartId, current -> {
+                current.addItem(item, 5);
+                throw new IllegalStateException();
+            }));
+
+            assertEquals(1, (int) store.update(cartId, current -> current.getQuantity(item)));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void first_change_appended_while_a_flush_rolls_the_journal_survives_a_crash() throws Exception {
+        Long busyCart = cartRepository.save(new Cart()).getId();
+        Long otherCart = cartRepository.save(new Cart()).getId();
+        Item item = itemRepository.findById(1L).get();
+        CountDownLatch appended = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // holds the first change of the busy cart right after its record is in the journal
+        Journal journal = new Journal(journalDirectory, "cart-", true) {
+            @Override
+            void append(byte[] record) throws IOException {
+                super.append(record);
+                if (new String(record, StandardCharsets.US_ASCII).contains(" " + busyCart + " 1 ")) {
+                    appended.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        };
+        WriteBehindCartStore crashed = new WriteBehindCartStore(cartRepository, jdbcTemplate, transactionManager, entityManagerFactory,
+                journal, 3_600_000, 2, 10_000);
+        crashed.start();
+        ExecutorService threads = Executors.newFixedThreadPool(2);
+        try {
+            // another dirty cart, so the flush does not return early
+            crashed.update(otherCart, cart -> {
+                cart.addItem(item);
+                return cart;
+            });
+            Future<?> change = threads.submit(() -> crashed.update(busyCart, cart -> {
+                cart.addItem(item, 2);
+                return cart;
+            }));
+            assertTrue(appended.await(10, TimeUnit.SECONDS));
+            Thread[] flusher = new Thread[1];
+            Future<?> flush = threads.submit(() -> {
+                flusher[0] = Thread.currentThread();
+                crashed.flush();
+                return null;
+            });
+            // the flush rolls the segment and then waits for the busy cart, or finishes if it skipped it
+            for (int i = 0; i < 500 && !flush.isDone()
+                    && (flusher[0] == null || flusher[0].getState() != Thread.State.BLOCKED); i++) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+            change.get(10, TimeUnit.SECONDS);
+            flush.get(10, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            threads.shutdownNow();
+        }
+
+        // never closed, like a process that died right after the flush
+        WriteBehindCartStore recovered = newStore();
+        try {
+            assertEquals(2, storedQuantity(busyCart));
+            assertEquals(item.getPrice().times(2), storedTotal(busyCart));
+            assertEquals(1, storedQuantity(otherCart));
+        } finally {
+            recovered.close();
+        }
+    }
+
+    @Test
+    public void journal_is_replayed_after_a_crash() throws Exception {
+        Long firstCart = cartRepository.save(new Cart()).getId();
+        Long secondCart = cartRepository.save(new Cart()).getId();
+        Item first = itemRepository.findById(1L).get();
+        Item second = itemRepository.findById(2L).get();
+
+        // never flushed nor closed, like a process that died
+        WriteBehindCartStore crashed = newStore();
+        crashed.update(firstCart, cart -> {
+            cart.addItem(first, 2);
+            return cart;
+        });
+        crashed.update(secondCart, cart -> {
+            cart.addItem(second);
+            return cart;
+        });
+        crashed.update(firstCart, cart -> {
+            cart.removeItem(first);
+            cart.addItem(second, 4);
+            return cart;
+        });
+        try (Stream<Path> segments = Files.list(journalDirectory)) {
+            Path segment = segments.findFirst().get();
+            Files.write(segment, "3fa2 12 3".getBytes(StandardCharsets.US_ASCII), StandardOpenOption.APPEND);
+        }
+        assertEquals(0, storedQuantity(firstCart));
+
+        WriteBehindCartStore recovered = newStore();
+        try {
+            assertEquals(5, storedQuantity(firstCart));
+            assertEquals(first.getPrice().plus(second.getPrice(), 4), storedTotal(firstCart));
+            assertEquals(1, storedQuantity(secondCart));
+            assertEquals(second.getPrice(), storedTotal(secondCart));
+        } finally {
+            recovered.close();
+        }
+    }
+
+    private int storedQuantity(Long cartId) {
+        return jdbcTemplate.queryForObject(
+                "select coalesce(sum(quantity), 0) from cart_line where cart_id = ?", Integer.class, cartId);
+    }
+
+    private Money storedTotal(Long cartId) {
+        return Money.of(jdbcTemplate.queryForObject("select total from cart where id = ?", BigDecimal.class, cartId));
+    }
+}